@@ -0,0 +1,130 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.syswin.temail.ps.benchmark;
+
+import com.syswin.temail.ps.server.service.channels.strategy.ChannelManager;
+import com.syswin.temail.ps.server.service.channels.strategy.one2one.ChannelManagerOne2One;
+import com.syswin.temail.ps.server.service.channels.strategy.sharded.ChannelManagerSharded;
+import io.netty.channel.Channel;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * 会话管理在大量会话、多工作线程并发下的吞吐量对比。
+ * <p>
+ * 每个temail默认有{@value #DEVICES_PER_TEMAIL}个设备，每个设备一个通道。churn模拟设备断线重连：
+ * 移除通道后重新登录同一会话。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g"})
+public class ChannelManagerBenchmark {
+
+  private static final int DEVICES_PER_TEMAIL = 3;
+
+  @Param({"one2one", "sharded"})
+  private String implementation;
+
+  @Param({"1000000"})
+  private int sessions;
+
+  private ChannelManager manager;
+  private String[] temails;
+  private String[] deviceIds;
+  private Channel[] channels;
+
+  @Setup
+  public void setUp() {
+    manager = "sharded".equals(implementation) ? new ChannelManagerSharded() : new ChannelManagerOne2One();
+    temails = new String[sessions];
+    deviceIds = new String[sessions];
+    channels = new Channel[sessions];
+    for (int i = 0; i < sessions; i++) {
+      temails[i] = "user" + (i / DEVICES_PER_TEMAIL) + "@t.email";
+      deviceIds[i] = "device-" + i;
+      channels[i] = new StubChannel();
+      manager.addSession(temails[i], deviceIds[i], channels[i]);
+    }
+  }
+
+  @Benchmark
+  @Threads(32)
+  public void lookup(Blackhole blackhole) {
+    lookupRandomSession(blackhole);
+  }
+
+  @Benchmark
+  @Threads(32)
+  public void churn(Blackhole blackhole) {
+    churnRandomSession(blackhole);
+  }
+
+  @Benchmark
+  @Group("mixed")
+  @GroupThreads(24)
+  public void mixedLookup(Blackhole blackhole) {
+    lookupRandomSession(blackhole);
+  }
+
+  @Benchmark
+  @Group("mixed")
+  @GroupThreads(8)
+  public void mixedChurn(Blackhole blackhole) {
+    churnRandomSession(blackhole);
+  }
+
+  private void lookupRandomSession(Blackhole blackhole) {
+    int i = ThreadLocalRandom.current().nextInt(sessions);
+    blackhole.consume(manager.hasSession(temails[i], deviceIds[i], channels[i]));
+    for (Channel channel : manager.getChannels(temails[i])) {
+      blackhole.consume(channel);
+    }
+  }
+
+  private void churnRandomSession(Blackhole blackhole) {
+    int i = ThreadLocalRandom.current().nextInt(sessions);
+    blackhole.consume(manager.removeChannel(channels[i]));
+    blackhole.consume(manager.addSession(temails[i], deviceIds[i], channels[i]));
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.syswin.temail.ps.benchmark;
+
+import com.syswin.temail.ps.common.utils.DigestUtil;
+import com.syswin.temail.ps.common.utils.HexUtil;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 签名、验签中用到的摘要与十六进制编码
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DigestHexBenchmark {
+
+  @Param({"32", "1024", "65536"})
+  private int size;
+
+  private byte[] data;
+  private final byte[] digest = new byte[DigestUtil.SHA256_LENGTH];
+  private byte[] hex;
+
+  @Setup
+  public void setUp() {
+    data = new byte[size];
+    new Random(size).nextBytes(data);
+    hex = new byte[size * 2];
+  }
+
+  @Benchmark
+  public String encodeHex() {
+    return HexUtil.encodeHex(data);
+  }
+
+  @Benchmark
+  public byte[] encodeHexInto() {
+    HexUtil.encodeHex(data, 0, data.length, hex, 0);
+    return hex;
+  }
+
+  @Benchmark
+  public byte[] sha256() {
+    return DigestUtil.sha256(data);
+  }
+
+  @Benchmark
+  public byte[] sha256Into() {
+    DigestUtil.sha256(data, digest, 0);
+    return digest;
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.syswin.temail.ps.benchmark;
+
+import com.syswin.temail.ps.common.utils.HexUtil;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 查表实现的十六进制编解码，legacyEncode为原先按半字节拼接StringBuilder的实现。原先的decodeHex对任何非空输入都会越界，无法作为参照
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HexBenchmark {
+
+  private static final char[] LEGACY_HEX_CHARS = "0123456789abcdef".toCharArray();
+
+  @Param({"32", "1024", "65536"})
+  private int size;
+
+  private byte[] data;
+  private String hex;
+  private byte[] hexBytes;
+  private char[] hexChars;
+  private ByteBuffer hexBuffer;
+  private byte[] decoded;
+
+  @Setup
+  public void setUp() {
+    data = new byte[size];
+    new Random(size).nextBytes(data);
+    hex = HexUtil.encodeHex(data);
+    hexBytes = new byte[size * 2];
+    hexChars = new char[size * 2];
+    hexBuffer = ByteBuffer.allocateDirect(size * 2);
+    decoded = new byte[size];
+  }
+
+  @Benchmark
+  public String legacyEncode() {
+    StringBuilder buf = new StringBuilder(data.length * 2);
+    for (byte b : data) {
+      buf.append(LEGACY_HEX_CHARS[(b >>> 4) & 0xf]).append(LEGACY_HEX_CHARS[b & 0xf]);
+    }
+    return buf.toString();
+  }
+
+  @Benchmark
+  public String encode() {
+    return HexUtil.encodeHex(data);
+  }
+
+  @Benchmark
+  public byte[] encodeIntoBytes() {
+    HexUtil.encodeHex(data, 0, data.length, hexBytes, 0);
+    return hexBytes;
+  }
+
+  @Benchmark
+  public char[] encodeIntoChars() {
+    HexUtil.encodeHex(data, 0, data.length, hexChars, 0);
+    return hexChars;
+  }
+
+  @Benchmark
+  public ByteBuffer encodeIntoDirectBuffer() {
+    hexBuffer.clear();
+    HexUtil.encodeHex(ByteBuffer.wrap(data), hexBuffer);
+    return hexBuffer;
+  }
+
+  @Benchmark
+  public byte[] decode() {
+    return HexUtil.decodeHex(hex);
+  }
+
+  @Benchmark
+  public byte[] decodeInto() {
+    HexUtil.decodeHex(hex, 0, hex.length(), decoded, 0);
+    return decoded;
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.syswin.temail.ps.benchmark;
+
+import com.syswin.temail.ps.common.codec.SimpleBodyExtractor;
+import com.syswin.temail.ps.common.entity.CDTPPacket;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 数据包打包、解包的吞吐量，分别覆盖common.packet与common.utils两个PacketUtil
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PacketUtilBenchmark {
+
+  @Param({Packets.PRIVATE_MESSAGE, Packets.LOGIN})
+  private String shape;
+
+  @Param({"64", "1024", "65536"})
+  private int bodySize;
+
+  private CDTPPacket packet;
+  private byte[] packed;
+
+  @Setup
+  public void setUp() {
+    packet = Packets.make(shape, bodySize);
+    packed = com.syswin.temail.ps.common.packet.PacketUtil.pack(packet, true);
+  }
+
+  @Benchmark
+  public byte[] packetPack() {
+    return com.syswin.temail.ps.common.packet.PacketUtil.pack(packet, true);
+  }
+
+  @Benchmark
+  public CDTPPacket packetUnpack() {
+    return com.syswin.temail.ps.common.packet.PacketUtil.unpack(packed, SimpleBodyExtractor.INSTANCE);
+  }
+
+  @Benchmark
+  public byte[] utilsPack() {
+    return com.syswin.temail.ps.common.utils.PacketUtil.pack(packet, true);
+  }
+
+  @Benchmark
+  public CDTPPacket utilsUnpack() {
+    return com.syswin.temail.ps.common.utils.PacketUtil.unpack(packed);
+  }
+}
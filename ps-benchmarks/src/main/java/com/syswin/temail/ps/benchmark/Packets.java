@@ -0,0 +1,65 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.syswin.temail.ps.benchmark;
+
+import com.syswin.temail.ps.common.PacketMaker;
+import com.syswin.temail.ps.common.entity.CDTPPacket;
+import java.util.Random;
+
+/**
+ * 基于{@link PacketMaker}构造不同形态、不同数据体大小的数据包
+ */
+final class Packets {
+
+  static final String PRIVATE_MESSAGE = "privateMsg";
+  static final String LOGIN = "login";
+
+  private Packets() {
+  }
+
+  /**
+   * @param shape 数据包形态：privateMsg为带完整header的单聊消息，login为精简header的登录包
+   * @param bodySize 数据体字节数
+   */
+  static CDTPPacket make(String shape, int bodySize) {
+    CDTPPacket packet;
+    switch (shape) {
+      case PRIVATE_MESSAGE:
+        packet = PacketMaker.privateMsgPacket("sean@t.email", "jack@t.email", "");
+        break;
+      case LOGIN:
+        packet = PacketMaker.loginPacket("sean@t.email", "iPhoneX");
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown packet shape: " + shape);
+    }
+
+    byte[] data = new byte[bodySize];
+    new Random(bodySize).nextBytes(data);
+    packet.setData(data);
+    return packet;
+  }
+}
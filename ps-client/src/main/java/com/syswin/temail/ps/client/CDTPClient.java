@@ -0,0 +1,160 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.syswin.temail.ps.client;
+
+import com.syswin.temail.ps.common.entity.CDTPPacket;
+import com.syswin.temail.ps.server.codec.CDTPPacketDecoder;
+import com.syswin.temail.ps.server.codec.CDTPPacketEncoder;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import io.netty.handler.timeout.IdleStateHandler;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 基于Netty的CDTP客户端。所有连接共享一个EventLoopGroup，单个EventLoop可以承载数千个连接；
+ * 复用服务端的{@link CDTPPacketEncoder}和{@link CDTPPacketDecoder}编解码，解码器自行分帧。
+ * <p>
+ * 连接写空闲时自动发送PING，请求与响应按header中的packetId对应，同一连接上可以有多个在途请求
+ */
+@Slf4j
+public class CDTPClient implements AutoCloseable {
+
+  private final EventLoopGroup group;
+  private final Class<? extends SocketChannel> channelClass;
+  private int heartbeatSeconds = 30;
+  private long requestTimeoutMillis = TimeUnit.SECONDS.toMillis(10);
+  private BiConsumer<CDTPConnection, CDTPPacket> pushHandler = (connection, packet) -> {
+  };
+
+  /**
+   * 使用默认线程数（CPU核数 * 2）的Nio EventLoopGroup
+   */
+  public CDTPClient() {
+    this(0, false);
+  }
+
+  /**
+   * @param eventLoopThreads EventLoop线程数，为0时使用Netty的默认值
+   * @param enableEpoll 是否在可用时使用epoll
+   */
+  public CDTPClient(int eventLoopThreads, boolean enableEpoll) {
+    if (enableEpoll && Epoll.isAvailable()) {
+      group = new EpollEventLoopGroup(eventLoopThreads);
+      channelClass = EpollSocketChannel.class;
+    } else {
+      group = new NioEventLoopGroup(eventLoopThreads);
+      channelClass = NioSocketChannel.class;
+    }
+  }
+
+  /**
+   * @param heartbeatSeconds 写空闲多久后发送PING，不大于0时不发送
+   * @return 当前CDTPClient
+   */
+  public CDTPClient heartbeatInterval(int heartbeatSeconds) {
+    this.heartbeatSeconds = heartbeatSeconds;
+    return this;
+  }
+
+  /**
+   * @param requestTimeoutMillis 请求的超时时间，超时后请求以{@link java.util.concurrent.TimeoutException}结束
+   * @return 当前CDTPClient
+   */
+  public CDTPClient requestTimeout(long requestTimeoutMillis) {
+    if (requestTimeoutMillis < 1) {
+      throw new IllegalArgumentException("Request timeout must be positive: " + requestTimeoutMillis);
+    }
+    this.requestTimeoutMillis = requestTimeoutMillis;
+    return this;
+  }
+
+  /**
+   * @param pushHandler 处理没有对应请求的数据包（服务端推送），在连接所在的EventLoop上调用，不能阻塞
+   * @return 当前CDTPClient
+   */
+  public CDTPClient pushHandler(BiConsumer<CDTPConnection, CDTPPacket> pushHandler) {
+    this.pushHandler = pushHandler;
+    return this;
+  }
+
+  /**
+   * 异步建立连接
+   *
+   * @param host 服务器地址
+   * @param port 服务器端口
+   * @param deviceId 连接所属的设备ID，用于心跳和生成packetId
+   * @return 连接建立后结束
+   */
+  public CompletableFuture<CDTPConnection> connect(String host, int port, String deviceId) {
+    CompletableFuture<CDTPConnection> result = new CompletableFuture<>();
+    new Bootstrap()
+        .group(group)
+        .channel(channelClass)
+        .option(ChannelOption.TCP_NODELAY, true)
+        .option(ChannelOption.SO_KEEPALIVE, true)
+        .handler(new ChannelInitializer<SocketChannel>() {
+          @Override
+          protected void initChannel(SocketChannel channel) {
+            CDTPConnection connection = new CDTPConnection(channel, deviceId, requestTimeoutMillis, pushHandler);
+            channel.pipeline()
+                .addLast("flushConsolidation", new FlushConsolidationHandler(256, true))
+                .addLast("packetEncoder", new CDTPPacketEncoder())
+                .addLast("packetDecoder", new CDTPPacketDecoder(false));
+            if (heartbeatSeconds > 0) {
+              channel.pipeline().addLast("idleStateHandler", new IdleStateHandler(0, heartbeatSeconds, 0));
+            }
+            channel.pipeline().addLast("connectionHandler", connection.handler());
+            channel.attr(CDTPConnection.CONNECTION).set(connection);
+          }
+        })
+        .connect(host, port)
+        .addListener((ChannelFutureListener) future -> {
+          if (future.isSuccess()) {
+            result.complete(future.channel().attr(CDTPConnection.CONNECTION).get());
+          } else {
+            result.completeExceptionally(future.cause());
+          }
+        });
+    return result;
+  }
+
+  @Override
+  public void close() {
+    group.shutdownGracefully(0, 2, TimeUnit.SECONDS).syncUninterruptibly();
+  }
+}
@@ -0,0 +1,283 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.syswin.temail.ps.client;
+
+import static com.syswin.temail.ps.common.Constants.CDTP_VERSION;
+import static com.syswin.temail.ps.common.entity.CommandSpaceType.CHANNEL_CODE;
+import static com.syswin.temail.ps.common.entity.CommandType.LOGIN_CODE;
+import static com.syswin.temail.ps.common.entity.CommandType.LOGOUT_CODE;
+import static com.syswin.temail.ps.common.entity.CommandType.PING_CODE;
+import static com.syswin.temail.ps.common.entity.CommandType.PONG_CODE;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.syswin.temail.ps.common.entity.CDTPHeader;
+import com.syswin.temail.ps.common.entity.CDTPPacket;
+import com.syswin.temail.ps.common.entity.CDTPProtoBuf.CDTPLogin;
+import com.syswin.temail.ps.common.entity.CDTPProtoBuf.CDTPLoginResp;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.timeout.IdleState;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.ScheduledFuture;
+import java.nio.channels.ClosedChannelException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 一个CDTP连接。请求按header中的packetId与响应对应，未设置packetId时自动生成；
+ * 可以先用{@link #request(CDTPPacket, boolean)}连续写入多个请求再{@link #flush()}，实现管道化发送。
+ * <p>
+ * 所有方法都是线程安全的，返回的CompletableFuture在连接所在的EventLoop上结束，回调中不能阻塞
+ */
+@Slf4j
+public class CDTPConnection implements AutoCloseable {
+
+  static final AttributeKey<CDTPConnection> CONNECTION = AttributeKey.valueOf(CDTPConnection.class.getName());
+
+  private static final byte[] EMPTY_BODY = new byte[0];
+
+  private final Channel channel;
+  private final String deviceId;
+  private final long requestTimeoutMillis;
+  private final BiConsumer<CDTPConnection, CDTPPacket> pushHandler;
+  private final Map<String, CompletableFuture<CDTPPacket>> pendingRequests = new ConcurrentHashMap<>();
+  private final String packetIdPrefix;
+  private final AtomicLong packetIdSequence = new AtomicLong();
+
+  CDTPConnection(Channel channel, String deviceId, long requestTimeoutMillis,
+      BiConsumer<CDTPConnection, CDTPPacket> pushHandler) {
+    this.channel = channel;
+    this.deviceId = deviceId;
+    this.requestTimeoutMillis = requestTimeoutMillis;
+    this.pushHandler = pushHandler;
+    this.packetIdPrefix = deviceId + '-' + channel.id().asShortText() + '-';
+  }
+
+  /**
+   * 登录，sender和deviceId取自参数和当前连接
+   *
+   * @param temail 登录的temail
+   * @return 登录响应中的状态码，成功时为200
+   */
+  public CompletableFuture<Integer> login(String temail) {
+    CDTPPacket packet = channelPacket(LOGIN_CODE, temail);
+    packet.setData(CDTPLogin.newBuilder().setTemail(temail).build().toByteArray());
+    return request(packet).thenApply(response -> {
+      if (response.getCommand() != LOGIN_CODE) {
+        throw new CompletionException(new IllegalStateException("Login failed with command "
+            + Integer.toHexString(response.getCommandSpace()) + " " + Integer.toHexString(response.getCommand())));
+      }
+      try {
+        return CDTPLoginResp.parseFrom(response.getData()).getCode();
+      } catch (InvalidProtocolBufferException e) {
+        throw new CompletionException(e);
+      }
+    });
+  }
+
+  /**
+   * @param temail 登出的temail
+   * @return 登出响应
+   */
+  public CompletableFuture<CDTPPacket> logout(String temail) {
+    return request(channelPacket(LOGOUT_CODE, temail));
+  }
+
+  /**
+   * 发送请求并立即flush
+   *
+   * @param packet 请求的数据包，header为空时创建，deviceId为空时取当前连接的设备ID，packetId为空时自动生成
+   * @return 响应的数据包，服务端出错时为CHANNEL空间的INTERNAL_ERROR包；连接断开或超时时异常结束
+   */
+  public CompletableFuture<CDTPPacket> request(CDTPPacket packet) {
+    return request(packet, true);
+  }
+
+  /**
+   * 发送请求
+   *
+   * @param packet 请求的数据包，header为空时创建，deviceId为空时取当前连接的设备ID，packetId为空时自动生成
+   * @param flush 是否立即flush，为false时需要在写完一批请求后调用{@link #flush()}
+   * @return 响应的数据包，服务端出错时为CHANNEL空间的INTERNAL_ERROR包；连接断开或超时时异常结束
+   */
+  public CompletableFuture<CDTPPacket> request(CDTPPacket packet, boolean flush) {
+    CDTPHeader header = packet.getHeader();
+    if (header == null) {
+      header = new CDTPHeader();
+      packet.setHeader(header);
+    }
+    if (header.getDeviceId() == null || header.getDeviceId().isEmpty()) {
+      header.setDeviceId(deviceId);
+    }
+    String packetId = header.getPacketId();
+    if (packetId == null || packetId.isEmpty()) {
+      packetId = packetIdPrefix + packetIdSequence.incrementAndGet();
+      header.setPacketId(packetId);
+    }
+
+    CompletableFuture<CDTPPacket> response = new CompletableFuture<>();
+    if (pendingRequests.putIfAbsent(packetId, response) != null) {
+      response.completeExceptionally(new IllegalArgumentException("Duplicate packet ID: " + packetId));
+      return response;
+    }
+    if (!channel.isActive()) {
+      pendingRequests.remove(packetId, response);
+      response.completeExceptionally(new ClosedChannelException());
+      return response;
+    }
+
+    String id = packetId;
+    ScheduledFuture<?> timeout = channel.eventLoop().schedule(() -> {
+      if (pendingRequests.remove(id, response)) {
+        response.completeExceptionally(
+            new TimeoutException("No response to packet " + id + " in " + requestTimeoutMillis + " ms"));
+      }
+    }, requestTimeoutMillis, TimeUnit.MILLISECONDS);
+    response.whenComplete((msg, cause) -> timeout.cancel(false));
+
+    if (flush) {
+      channel.writeAndFlush(packet, channel.voidPromise());
+    } else {
+      channel.write(packet, channel.voidPromise());
+    }
+    return response;
+  }
+
+  public void flush() {
+    channel.flush();
+  }
+
+  /**
+   * @return 已发送但还没有收到响应的请求数
+   */
+  public int pendingRequests() {
+    return pendingRequests.size();
+  }
+
+  public String deviceId() {
+    return deviceId;
+  }
+
+  public Channel channel() {
+    return channel;
+  }
+
+  public boolean isActive() {
+    return channel.isActive();
+  }
+
+  @Override
+  public void close() {
+    channel.close().syncUninterruptibly();
+  }
+
+  ConnectionHandler handler() {
+    return new ConnectionHandler();
+  }
+
+  private CDTPPacket channelPacket(short command, String temail) {
+    CDTPHeader header = new CDTPHeader();
+    header.setDeviceId(deviceId);
+    header.setSender(temail);
+    header.setTimestamp(System.currentTimeMillis());
+    CDTPPacket packet = new CDTPPacket();
+    packet.setCommandSpace(CHANNEL_CODE);
+    packet.setCommand(command);
+    packet.setVersion(CDTP_VERSION);
+    packet.setHeader(header);
+    packet.setData(EMPTY_BODY);
+    return packet;
+  }
+
+  private void ping() {
+    CDTPHeader header = new CDTPHeader();
+    header.setDeviceId(deviceId);
+    CDTPPacket packet = new CDTPPacket();
+    packet.setCommandSpace(CHANNEL_CODE);
+    packet.setCommand(PING_CODE);
+    packet.setVersion(CDTP_VERSION);
+    packet.setHeader(header);
+    packet.setData(EMPTY_BODY);
+    channel.writeAndFlush(packet, channel.voidPromise());
+  }
+
+  private void failPendingRequests(Throwable cause) {
+    for (String packetId : pendingRequests.keySet()) {
+      CompletableFuture<CDTPPacket> response = pendingRequests.remove(packetId);
+      if (response != null) {
+        response.completeExceptionally(cause);
+      }
+    }
+  }
+
+  class ConnectionHandler extends SimpleChannelInboundHandler<CDTPPacket> {
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, CDTPPacket packet) {
+      if (packet.getCommandSpace() == CHANNEL_CODE && packet.getCommand() == PONG_CODE) {
+        return;
+      }
+      CDTPHeader header = packet.getHeader();
+      CompletableFuture<CDTPPacket> response =
+          header == null || header.getPacketId() == null ? null : pendingRequests.remove(header.getPacketId());
+      if (response != null) {
+        response.complete(packet);
+      } else {
+        pushHandler.accept(CDTPConnection.this, packet);
+      }
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+      if (evt instanceof IdleStateEvent && ((IdleStateEvent) evt).state() == IdleState.WRITER_IDLE) {
+        ping();
+      } else {
+        super.userEventTriggered(ctx, evt);
+      }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+      failPendingRequests(new ClosedChannelException());
+      super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+      log.warn("Closing channel {} of device {} on error", ctx.channel(), deviceId, cause);
+      ctx.close();
+    }
+  }
+}
@@ -0,0 +1,282 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.syswin.temail.ps.client.loadgen;
+
+import static com.syswin.temail.ps.common.Constants.CDTP_VERSION;
+
+import com.syswin.temail.ps.client.CDTPClient;
+import com.syswin.temail.ps.client.CDTPConnection;
+import com.syswin.temail.ps.common.entity.CDTPHeader;
+import com.syswin.temail.ps.common.entity.CDTPPacket;
+import com.syswin.temail.ps.server.Constants;
+import com.syswin.temail.ps.server.GatewayServer;
+import com.syswin.temail.ps.server.Stoppable;
+import com.syswin.temail.ps.server.metrics.LatencyHistogram;
+import com.syswin.temail.ps.server.service.AbstractSessionService;
+import com.syswin.temail.ps.server.service.RequestService;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * CDTP负载生成器：模拟M个temail、每个temail N台设备，每台设备一个连接。
+ * 所有连接登录后，每个连接保持固定数量的管道化在途请求（闭环压测），请求的命令空间按{@link MessageMix}的权重随机选择，
+ * 接收者为随机的另一个temail。预热结束后开始统计，按秒输出吞吐量，结束时输出延迟分位数。
+ * <p>
+ * 指定--local时在本地启动一个回显请求的{@link GatewayServer}，可以直接作为回归测试的基准
+ */
+public class LoadGenerator {
+
+  private static final short COMMAND = 1;
+  private static final long DRAIN_MILLIS = 1000;
+
+  private final LoadOptions options;
+  private final PrintStream out;
+  private final byte[] body;
+  private volatile boolean running;
+  private volatile Recorder recorder = new Recorder();
+
+  public LoadGenerator(LoadOptions options) {
+    this(options, System.out);
+  }
+
+  /**
+   * @param out 进度和结果的输出
+   */
+  public LoadGenerator(LoadOptions options, PrintStream out) {
+    this.options = options;
+    this.out = out;
+    this.body = new byte[options.getBodySize()];
+    ThreadLocalRandom.current().nextBytes(body);
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    LoadOptions options;
+    try {
+      options = LoadOptions.parse(args);
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.err.println(LoadOptions.USAGE);
+      System.exit(1);
+      return;
+    }
+    if (options.isHelp()) {
+      System.out.println(LoadOptions.USAGE);
+      return;
+    }
+    LoadReport report = new LoadGenerator(options).run();
+    System.out.println(report);
+  }
+
+  /**
+   * 建立连接、登录并压测，结束后关闭所有连接（以及本地启动的服务器）
+   *
+   * @return 统计期间的结果
+   */
+  public LoadReport run() throws InterruptedException {
+    Stoppable server = options.isLocal() ? startLocalServer() : null;
+    try (CDTPClient client = new CDTPClient(options.getEventLoopThreads(), options.isEpoll())
+        .requestTimeout(options.getTimeoutMillis())) {
+      List<Device> devices = new ArrayList<>(options.connections());
+      int failedConnections = connect(client, devices);
+      if (devices.isEmpty()) {
+        return new LoadReport(0, failedConnections, 0, 0, 0, 0, 0, 0, 0, 0);
+      }
+
+      running = true;
+      for (Device device : devices) {
+        for (int i = 0; i < options.getInFlight(); i++) {
+          send(device, false);
+        }
+        device.connection.flush();
+      }
+
+      if (options.getWarmupSeconds() > 0) {
+        out.printf("Warming up for %d s%n", options.getWarmupSeconds());
+        report(options.getWarmupSeconds());
+      }
+      Recorder measured = new Recorder();
+      recorder = measured;
+      out.printf("Measuring for %d s%n", options.getDurationSeconds());
+      report(options.getDurationSeconds());
+      recorder = new Recorder();
+      running = false;
+      long elapsedNanos = System.nanoTime() - measured.startNanos;
+      drain(devices);
+
+      LatencyHistogram histogram = measured.histogram;
+      return new LoadReport(devices.size(), failedConnections, histogram.count(), measured.errors.sum(), elapsedNanos,
+          histogram.valueAtPercentile(50), histogram.valueAtPercentile(90), histogram.valueAtPercentile(99),
+          histogram.valueAtPercentile(99.9), histogram.max());
+    } finally {
+      running = false;
+      if (server != null) {
+        server.stop();
+      }
+    }
+  }
+
+  private Stoppable startLocalServer() {
+    out.printf("Starting local gateway server on port %d%n", options.getPort());
+    return new GatewayServer(new AbstractSessionService() {
+    }, new RequestService() {
+    }, options.getPort(), 0, options.isEpoll()).run();
+  }
+
+  /**
+   * 分批建立连接并登录，每批全部结束后再开始下一批，避免同时发起过多的连接
+   *
+   * @return 连接或登录失败的数量
+   */
+  private int connect(CDTPClient client, List<Device> devices) {
+    AtomicInteger failed = new AtomicInteger();
+    int total = options.connections();
+    out.printf("Connecting %d devices (%d temails x %d devices) to %s:%d%n",
+        total, options.getTemails(), options.getDevices(), options.getHost(), options.getPort());
+    for (int batchStart = 0; batchStart < total; batchStart += options.getConnectBatch()) {
+      int batchEnd = Math.min(total, batchStart + options.getConnectBatch());
+      List<CompletableFuture<?>> batch = new ArrayList<>(batchEnd - batchStart);
+      for (int i = batchStart; i < batchEnd; i++) {
+        int temailIndex = i / options.getDevices();
+        String temail = temail(temailIndex);
+        String deviceId = "loadgen-" + temailIndex + "-" + (i % options.getDevices());
+        batch.add(client.connect(options.getHost(), options.getPort(), deviceId)
+            .thenCompose(connection -> connection.login(temail)
+                .thenAccept(code -> {
+                  if (code == Constants.HTTP_STATUS_OK) {
+                    synchronized (devices) {
+                      devices.add(new Device(temailIndex, temail, connection));
+                    }
+                  } else {
+                    failed.incrementAndGet();
+                    connection.channel().close();
+                  }
+                }))
+            .exceptionally(cause -> {
+              failed.incrementAndGet();
+              return null;
+            }));
+      }
+      CompletableFuture.allOf(batch.toArray(new CompletableFuture[0])).join();
+    }
+    out.printf("Logged in %d devices, %d failed%n", devices.size(), failed.get());
+    return failed.get();
+  }
+
+  private void send(Device device, boolean flush) {
+    if (!running || !device.connection.isActive()) {
+      return;
+    }
+    long start = System.nanoTime();
+    device.connection.request(newPacket(device), flush).whenComplete((response, cause) -> {
+      Recorder current = recorder;
+      if (cause != null || response.isInternalError()) {
+        current.errors.increment();
+      } else {
+        current.histogram.record(System.nanoTime() - start);
+      }
+      send(device, true);
+    });
+  }
+
+  private CDTPPacket newPacket(Device device) {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    CDTPHeader header = new CDTPHeader();
+    header.setDeviceId(device.connection.deviceId());
+    header.setSender(device.temail);
+    header.setReceiver(temail(receiver(device.temailIndex, random)));
+    header.setTimestamp(System.currentTimeMillis());
+    CDTPPacket packet = new CDTPPacket();
+    packet.setCommandSpace(options.getMix().next(random).getCode());
+    packet.setCommand(COMMAND);
+    packet.setVersion(CDTP_VERSION);
+    packet.setHeader(header);
+    packet.setData(body);
+    return packet;
+  }
+
+  private int receiver(int sender, ThreadLocalRandom random) {
+    int temails = options.getTemails();
+    if (temails == 1) {
+      return sender;
+    }
+    int receiver = random.nextInt(temails - 1);
+    return receiver < sender ? receiver : receiver + 1;
+  }
+
+  private void report(int seconds) throws InterruptedException {
+    Recorder current = recorder;
+    long lastCount = 0;
+    long lastErrors = 0;
+    for (int i = 1; i <= seconds; i++) {
+      TimeUnit.SECONDS.sleep(1);
+      long count = current.histogram.count();
+      long errors = current.errors.sum();
+      out.printf("[%3ds] %8d req/s  %6d errors  p99=%.3f ms%n",
+          i, count - lastCount, errors - lastErrors, current.histogram.valueAtPercentile(99) / 1e6);
+      lastCount = count;
+      lastErrors = errors;
+    }
+  }
+
+  private void drain(List<Device> devices) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DRAIN_MILLIS);
+    for (Device device : devices) {
+      while (device.connection.pendingRequests() > 0 && System.nanoTime() < deadline) {
+        TimeUnit.MILLISECONDS.sleep(10);
+      }
+    }
+  }
+
+  private static String temail(int index) {
+    return "user" + index + "@loadgen.temail";
+  }
+
+  private static class Device {
+
+    private final int temailIndex;
+    private final String temail;
+    private final CDTPConnection connection;
+
+    private Device(int temailIndex, String temail, CDTPConnection connection) {
+      this.temailIndex = temailIndex;
+      this.temail = temail;
+      this.connection = connection;
+    }
+  }
+
+  private static class Recorder {
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final LongAdder errors = new LongAdder();
+    private final long startNanos = System.nanoTime();
+  }
+}
@@ -0,0 +1,168 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.syswin.temail.ps.client.loadgen;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * 负载生成器的命令行参数，格式为--name=value，开关参数可以省略值
+ */
+@Getter
+@ToString
+public class LoadOptions {
+
+  static final String USAGE = "Usage: java -jar ps-client-loadgen.jar [options]\n"
+      + "  --host=127.0.0.1        gateway host\n"
+      + "  --port=8099             gateway port\n"
+      + "  --local                 start a GatewayServer with an echo RequestService on --port\n"
+      + "  --temails=100           number of temails (M)\n"
+      + "  --devices=1             devices per temail (N), one connection per device\n"
+      + "  --duration=30           measurement duration in seconds\n"
+      + "  --warmup=5              warmup duration in seconds, excluded from the report\n"
+      + "  --inflight=4            pipelined requests per connection\n"
+      + "  --body=256              request body size in bytes\n"
+      + "  --mix=single:70,group:20,sync:10\n"
+      + "                          weighted command spaces: single, group, sync, strategy\n"
+      + "  --threads=0             client event loop threads, 0 for Netty default\n"
+      + "  --epoll                 use epoll when available\n"
+      + "  --connect-batch=500     connections opened concurrently while ramping up\n"
+      + "  --timeout=10000         request timeout in milliseconds\n"
+      + "  --help                  print this message";
+
+  private String host = "127.0.0.1";
+  private int port = 8099;
+  private boolean local;
+  private int temails = 100;
+  private int devices = 1;
+  private int durationSeconds = 30;
+  private int warmupSeconds = 5;
+  private int inFlight = 4;
+  private int bodySize = 256;
+  private MessageMix mix = MessageMix.parse("single:70,group:20,sync:10");
+  private int eventLoopThreads;
+  private boolean epoll;
+  private int connectBatch = 500;
+  private long timeoutMillis = 10_000;
+  private boolean help;
+
+  public static LoadOptions parse(String... args) {
+    LoadOptions options = new LoadOptions();
+    for (String arg : args) {
+      if (!arg.startsWith("--")) {
+        throw new IllegalArgumentException("Unexpected argument: " + arg);
+      }
+      int equals = arg.indexOf('=');
+      String name = equals < 0 ? arg.substring(2) : arg.substring(2, equals);
+      String value = equals < 0 ? null : arg.substring(equals + 1);
+      options.set(name, value);
+    }
+    return options;
+  }
+
+  /**
+   * @return 连接总数，即temail数 * 每个temail的设备数
+   */
+  public int connections() {
+    return temails * devices;
+  }
+
+  private void set(String name, String value) {
+    switch (name) {
+      case "host":
+        host = required(name, value);
+        break;
+      case "port":
+        port = intValue(name, value, 1);
+        break;
+      case "local":
+        local = booleanValue(value);
+        break;
+      case "temails":
+        temails = intValue(name, value, 1);
+        break;
+      case "devices":
+        devices = intValue(name, value, 1);
+        break;
+      case "duration":
+        durationSeconds = intValue(name, value, 1);
+        break;
+      case "warmup":
+        warmupSeconds = intValue(name, value, 0);
+        break;
+      case "inflight":
+        inFlight = intValue(name, value, 1);
+        break;
+      case "body":
+        bodySize = intValue(name, value, 0);
+        break;
+      case "mix":
+        mix = MessageMix.parse(required(name, value));
+        break;
+      case "threads":
+        eventLoopThreads = intValue(name, value, 0);
+        break;
+      case "epoll":
+        epoll = booleanValue(value);
+        break;
+      case "connect-batch":
+        connectBatch = intValue(name, value, 1);
+        break;
+      case "timeout":
+        timeoutMillis = intValue(name, value, 1);
+        break;
+      case "help":
+        help = booleanValue(value);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown option: --" + name);
+    }
+  }
+
+  private static String required(String name, String value) {
+    if (value == null || value.isEmpty()) {
+      throw new IllegalArgumentException("Option --" + name + " requires a value");
+    }
+    return value;
+  }
+
+  private static int intValue(String name, String value, int min) {
+    int result;
+    try {
+      result = Integer.parseInt(required(name, value));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Option --" + name + " must be an integer: " + value);
+    }
+    if (result < min) {
+      throw new IllegalArgumentException("Option --" + name + " must not be less than " + min + ": " + value);
+    }
+    return result;
+  }
+
+  private static boolean booleanValue(String value) {
+    return value == null || Boolean.parseBoolean(value);
+  }
+}
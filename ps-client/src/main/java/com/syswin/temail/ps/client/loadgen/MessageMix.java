@@ -0,0 +1,140 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.syswin.temail.ps.client.loadgen;
+
+import com.syswin.temail.ps.common.entity.CommandSpaceType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 按权重选择请求的命令空间，格式为逗号分隔的“名称:权重”，如single:70,group:20,sync:10。
+ * 名称可以是single、group、sync、strategy，或{@link CommandSpaceType}的枚举名
+ */
+public class MessageMix {
+
+  private final CommandSpaceType[] spaces;
+  private final int[] cumulativeWeights;
+  private final int totalWeight;
+
+  private MessageMix(CommandSpaceType[] spaces, int[] cumulativeWeights) {
+    this.spaces = spaces;
+    this.cumulativeWeights = cumulativeWeights;
+    this.totalWeight = cumulativeWeights[cumulativeWeights.length - 1];
+  }
+
+  public static MessageMix parse(String mix) {
+    List<CommandSpaceType> spaces = new ArrayList<>();
+    List<Integer> weights = new ArrayList<>();
+    int total = 0;
+    for (String entry : mix.split(",")) {
+      entry = entry.trim();
+      if (entry.isEmpty()) {
+        continue;
+      }
+      int colon = entry.indexOf(':');
+      CommandSpaceType space = commandSpace(colon < 0 ? entry : entry.substring(0, colon).trim());
+      int weight = colon < 0 ? 1 : parseWeight(entry, entry.substring(colon + 1).trim());
+      if (weight == 0) {
+        continue;
+      }
+      total += weight;
+      spaces.add(space);
+      weights.add(total);
+    }
+    if (spaces.isEmpty()) {
+      throw new IllegalArgumentException("Message mix must contain at least one positive weight: " + mix);
+    }
+    int[] cumulativeWeights = new int[weights.size()];
+    for (int i = 0; i < cumulativeWeights.length; i++) {
+      cumulativeWeights[i] = weights.get(i);
+    }
+    return new MessageMix(spaces.toArray(new CommandSpaceType[0]), cumulativeWeights);
+  }
+
+  /**
+   * @param random 随机数源
+   * @return 按权重随机选出的命令空间
+   */
+  public CommandSpaceType next(Random random) {
+    int value = random.nextInt(totalWeight);
+    for (int i = 0; i < cumulativeWeights.length - 1; i++) {
+      if (value < cumulativeWeights[i]) {
+        return spaces[i];
+      }
+    }
+    return spaces[spaces.length - 1];
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    int previous = 0;
+    for (int i = 0; i < spaces.length; i++) {
+      if (i > 0) {
+        builder.append(',');
+      }
+      builder.append(spaces[i].name()).append(':').append(cumulativeWeights[i] - previous);
+      previous = cumulativeWeights[i];
+    }
+    return builder.toString();
+  }
+
+  private static CommandSpaceType commandSpace(String name) {
+    switch (name.toLowerCase()) {
+      case "single":
+        return CommandSpaceType.SINGLE_MESSAGE;
+      case "group":
+        return CommandSpaceType.GROUP_MESSAGE;
+      case "sync":
+        return CommandSpaceType.SYNC_STATUS;
+      case "strategy":
+        return CommandSpaceType.STRATEGY;
+      default:
+        try {
+          CommandSpaceType space = CommandSpaceType.valueOf(name.toUpperCase());
+          if (space != CommandSpaceType.CHANNEL) {
+            return space;
+          }
+        } catch (IllegalArgumentException ignored) {
+          // 在下面统一抛出
+        }
+        throw new IllegalArgumentException("Unsupported command space in message mix: " + name);
+    }
+  }
+
+  private static int parseWeight(String entry, String weight) {
+    try {
+      int value = Integer.parseInt(weight);
+      if (value >= 0) {
+        return value;
+      }
+    } catch (NumberFormatException ignored) {
+      // 在下面统一抛出
+    }
+    throw new IllegalArgumentException("Invalid weight in message mix: " + entry);
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.syswin.temail.ps.client;
+
+import static com.syswin.temail.ps.common.Constants.CDTP_VERSION;
+import static com.syswin.temail.ps.common.entity.CommandSpaceType.SINGLE_MESSAGE_CODE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+import com.syswin.temail.ps.common.entity.CDTPHeader;
+import com.syswin.temail.ps.common.entity.CDTPPacket;
+import com.syswin.temail.ps.server.Constants;
+import com.syswin.temail.ps.server.GatewayServer;
+import com.syswin.temail.ps.server.Stoppable;
+import com.syswin.temail.ps.server.service.AbstractSessionService;
+import com.syswin.temail.ps.server.service.RequestService;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class CDTPClientTest {
+
+  private static final String TEMAIL = "sean@t.email";
+
+  private static int port;
+  private static Stoppable server;
+  private static CDTPClient client;
+
+  @BeforeClass
+  public static void setUp() throws IOException {
+    port = freePort();
+    server = new GatewayServer(new AbstractSessionService() {
+    }, new RequestService() {
+    }, port, 0).run();
+    client = new CDTPClient(1, false);
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    client.close();
+    server.stop();
+  }
+
+  @Test
+  public void logsIn() throws Exception {
+    CDTPConnection connection = client.connect("127.0.0.1", port, "device-login").get(5, TimeUnit.SECONDS);
+
+    assertThat(connection.login(TEMAIL).get(5, TimeUnit.SECONDS)).isEqualTo(Constants.HTTP_STATUS_OK);
+    connection.close();
+  }
+
+  @Test
+  public void correlatesPipelinedResponsesByPacketId() throws Exception {
+    CDTPConnection connection = client.connect("127.0.0.1", port, "device-pipeline").get(5, TimeUnit.SECONDS);
+    connection.login(TEMAIL).get(5, TimeUnit.SECONDS);
+
+    List<CDTPPacket> requests = new ArrayList<>();
+    List<CompletableFuture<CDTPPacket>> responses = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      CDTPPacket packet = request(i);
+      requests.add(packet);
+      responses.add(connection.request(packet, false));
+    }
+    connection.flush();
+
+    for (int i = 0; i < requests.size(); i++) {
+      CDTPPacket response = responses.get(i).get(5, TimeUnit.SECONDS);
+      assertThat(response.getHeader().getPacketId()).isEqualTo(requests.get(i).getHeader().getPacketId());
+      assertThat(response.getData()).isEqualTo(new byte[]{(byte) i});
+    }
+    assertThat(connection.pendingRequests()).isZero();
+    connection.close();
+  }
+
+  @Test
+  public void failsRequestsOnClosedConnection() throws Exception {
+    CDTPConnection connection = client.connect("127.0.0.1", port, "device-closed").get(5, TimeUnit.SECONDS);
+    connection.close();
+
+    try {
+      connection.request(request(0)).get(5, TimeUnit.SECONDS);
+      fail("Request on a closed connection should fail");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause()).isInstanceOf(ClosedChannelException.class);
+    }
+  }
+
+  private static CDTPPacket request(int index) {
+    CDTPHeader header = new CDTPHeader();
+    header.setSender(TEMAIL);
+    header.setReceiver("jack@t.email");
+    CDTPPacket packet = new CDTPPacket();
+    packet.setCommandSpace(SINGLE_MESSAGE_CODE);
+    packet.setCommand((short) 1);
+    packet.setVersion(CDTP_VERSION);
+    packet.setHeader(header);
+    packet.setData(new byte[]{(byte) index});
+    return packet;
+  }
+
+  private static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+}
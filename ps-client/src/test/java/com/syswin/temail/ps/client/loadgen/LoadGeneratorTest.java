@@ -0,0 +1,86 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.syswin.temail.ps.client.loadgen;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.syswin.temail.ps.common.entity.CommandSpaceType;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+
+public class LoadGeneratorTest {
+
+  @Test
+  public void drivesLocalGateway() throws Exception {
+    LoadOptions options = LoadOptions.parse("--local", "--port=" + freePort(), "--temails=4", "--devices=2",
+        "--warmup=0", "--duration=1", "--inflight=8", "--body=64", "--mix=single:1,group:1,sync:1");
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    LoadReport report = new LoadGenerator(options, new PrintStream(output, true)).run();
+
+    assertThat(report.getConnections()).isEqualTo(8);
+    assertThat(report.getFailedConnections()).isZero();
+    assertThat(report.getRequests()).isPositive();
+    assertThat(report.getErrors()).isZero();
+    assertThat(report.getP50()).isPositive().isLessThanOrEqualTo(report.getP99());
+    assertThat(report.getP99()).isLessThanOrEqualTo(report.getMax());
+    assertThat(output.toString()).contains("Logged in 8 devices, 0 failed");
+  }
+
+  @Test
+  public void picksCommandSpacesByWeight() {
+    MessageMix mix = MessageMix.parse("single:3, sync:1, group:0");
+    Map<CommandSpaceType, Integer> counts = new EnumMap<>(CommandSpaceType.class);
+    Random random = new Random(1);
+    for (int i = 0; i < 4000; i++) {
+      counts.merge(mix.next(random), 1, Integer::sum);
+    }
+
+    assertThat(counts).containsOnlyKeys(CommandSpaceType.SINGLE_MESSAGE, CommandSpaceType.SYNC_STATUS);
+    assertThat(counts.get(CommandSpaceType.SINGLE_MESSAGE)).isBetween(2800, 3200);
+    assertThat(mix.toString()).isEqualTo("SINGLE_MESSAGE:3,SYNC_STATUS:1");
+  }
+
+  @Test
+  public void rejectsInvalidOptions() {
+    assertThatThrownBy(() -> LoadOptions.parse("--temails=0")).isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> LoadOptions.parse("--unknown")).isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> MessageMix.parse("channel:1")).isInstanceOf(IllegalArgumentException.class);
+  }
+
+  private static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+}
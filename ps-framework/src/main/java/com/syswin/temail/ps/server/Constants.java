@@ -32,4 +32,6 @@ public class Constants {
 
   public static final int HTTP_STATUS_OK = 200;
   public static final int HTTP_STATUS_NOT_FOUND = 403;
+  public static final int HTTP_STATUS_TOO_MANY_REQUESTS = 429;
+  public static final int HTTP_STATUS_SERVICE_UNAVAILABLE = 503;
 }
@@ -26,17 +26,38 @@ package com.syswin.temail.ps.server;
 
 import com.syswin.temail.ps.common.Constants;
 import com.syswin.temail.ps.common.entity.CDTPPacket;
+import com.syswin.temail.ps.common.packet.PacketCompressor;
+import com.syswin.temail.ps.server.codec.BodyStreamConsumer;
+import com.syswin.temail.ps.server.codec.CDTPPacketDecoder;
+import com.syswin.temail.ps.server.codec.CDTPPacketEncoder;
+import com.syswin.temail.ps.server.handler.AdmissionController;
+import com.syswin.temail.ps.server.handler.ChannelMetricsHandler;
+import com.syswin.temail.ps.server.handler.EventLoopMonitor;
+import com.syswin.temail.ps.server.handler.FlushCoalescingHandler;
 import com.syswin.temail.ps.server.handler.HeartbeatAwarePacketHandler;
 import com.syswin.temail.ps.server.handler.IdleHandler;
+import com.syswin.temail.ps.server.handler.IdleStateTracker;
+import com.syswin.temail.ps.server.handler.InFlightLimiter;
+import com.syswin.temail.ps.server.handler.PacketCompressionHandler;
 import com.syswin.temail.ps.server.handler.PacketHandler;
+import com.syswin.temail.ps.server.handler.PacketVerifyHandler;
+import com.syswin.temail.ps.server.handler.RequestRateLimiter;
+import com.syswin.temail.ps.server.metrics.GatewayMetrics;
+import com.syswin.temail.ps.server.service.AbstractSessionService;
+import com.syswin.temail.ps.server.service.AsyncPacketVerifier;
 import com.syswin.temail.ps.server.service.HeartBeatService;
 import com.syswin.temail.ps.server.service.RequestService;
 import com.syswin.temail.ps.server.service.SessionService;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
 import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
@@ -44,24 +65,69 @@ import io.netty.handler.codec.ByteToMessageDecoder;
 import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
 import io.netty.handler.codec.LengthFieldPrepender;
 import io.netty.handler.codec.MessageToByteEncoder;
-import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.concurrent.EventExecutorGroup;
 import java.lang.invoke.MethodHandles;
 import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class GatewayServer {
   private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+  // 读空闲检测的时间轮刻度
+  private static final long IDLE_TICK_MILLIS = 1000;
 
   private final IdleHandler idleHandler;
-  private final PacketHandler packetHandler;
+  private final SessionService sessionService;
+  private final RequestService requestService;
   private final int port;
   private final int idleTimeSeconds;
   private final Supplier<MessageToByteEncoder<CDTPPacket>> packetEncoderSupplier;
   private final Supplier<ByteToMessageDecoder> packetDecoderSupplier;
   private final boolean enableEpoll;
+  private int acceptorThreads = 1;
+  private AsyncPacketVerifier packetVerifier;
+  private int maxPendingVerifications;
+  private InFlightLimiter inFlightLimiter;
+  private EventExecutorGroup businessGroup;
+  private long maxFlushDelayMicros = -1;
+  private int maxPendingFlushBytes;
+  private PacketCompressionHandler compressionHandler;
+  private int maxFrameLength = Integer.MAX_VALUE;
+  private BodyStreamConsumer bodyStreamConsumer;
+  private GatewayMetrics metrics = GatewayMetrics.NOOP;
+  private EventLoopMonitor eventLoopMonitor;
+  private AdmissionController admissionController;
+  private RequestRateLimiter requestRateLimiter;
 
+  /**
+   * 使用框架内置的CDTP编解码器
+   */
+  public GatewayServer(SessionService sessionService,
+      RequestService requestService,
+      int port,
+      int idleTimeSeconds) {
+
+    this(sessionService, requestService, port, idleTimeSeconds, false);
+  }
+
+  /**
+   * 使用框架内置的CDTP编解码器
+   */
+  public GatewayServer(SessionService sessionService,
+      RequestService requestService,
+      int port,
+      int idleTimeSeconds,
+      boolean enableEpoll) {
+
+    this(sessionService, requestService, CDTPPacketEncoder::new, CDTPPacketDecoder::new, port, idleTimeSeconds,
+        enableEpoll);
+  }
+
+  /**
+   * 使用自定义的编解码器。自定义编码器（非{@link CDTPPacketEncoder}）的输出不含长度前缀，由管道中的LengthFieldPrepender写入
+   */
   public GatewayServer(SessionService sessionService,
       RequestService requestService,
       Supplier<MessageToByteEncoder<CDTPPacket>> packetEncoderSupplier,
@@ -72,6 +138,9 @@ public class GatewayServer {
     this(sessionService, requestService, packetEncoderSupplier, packetDecoderSupplier, port, idleTimeSeconds, false);
   }
 
+  /**
+   * 使用自定义的编解码器。自定义编码器（非{@link CDTPPacketEncoder}）的输出不含长度前缀，由管道中的LengthFieldPrepender写入
+   */
   public GatewayServer(SessionService sessionService,
       RequestService requestService,
       Supplier<MessageToByteEncoder<CDTPPacket>> packetEncoderSupplier,
@@ -81,7 +150,8 @@ public class GatewayServer {
       boolean enableEpoll) {
 
     this.idleHandler = new IdleHandler(sessionService, idleTimeSeconds);
-    this.packetHandler = new HeartbeatAwarePacketHandler(sessionService, requestService, new HeartBeatService());
+    this.sessionService = sessionService;
+    this.requestService = requestService;
     this.packetEncoderSupplier = packetEncoderSupplier;
     this.packetDecoderSupplier = packetDecoderSupplier;
     this.port = port;
@@ -89,26 +159,237 @@ public class GatewayServer {
     this.enableEpoll = enableEpoll;
   }
 
+  /**
+   * 开启SO_REUSEPORT多监听模式：在同一端口上绑定多个监听套接字，每个acceptor线程一个，由内核分摊accept负载。
+   * 仅在epoll可用时生效。
+   *
+   * @param acceptorThreads 监听套接字（及acceptor线程）的数量
+   * @return 当前GatewayServer
+   */
+  public GatewayServer reusePort(int acceptorThreads) {
+    if (acceptorThreads < 1) {
+      throw new IllegalArgumentException("Acceptor threads must be positive: " + acceptorThreads);
+    }
+    this.acceptorThreads = acceptorThreads;
+    return this;
+  }
+
+  /**
+   * 开启异步验签：数据包在packetVerifier的线程池中验签，验签通过后按接收顺序交给RequestService处理。
+   * 服务器停止时一并停止packetVerifier。
+   *
+   * @param packetVerifier 异步验签器
+   * @param maxPendingPackets 每个channel等待验签的最大数据包数量，达到后暂停读取该channel
+   * @return 当前GatewayServer
+   */
+  public GatewayServer verifyPackets(AsyncPacketVerifier packetVerifier, int maxPendingPackets) {
+    if (maxPendingPackets < 1) {
+      throw new IllegalArgumentException("Max pending packets must be positive: " + maxPendingPackets);
+    }
+    this.packetVerifier = packetVerifier;
+    this.maxPendingVerifications = maxPendingPackets;
+    return this;
+  }
+
+  /**
+   * 开启在途请求限制：请求通过{@link RequestService#handleRequestAsync(CDTPPacket)}异步处理，
+   * 在途请求数达到上限时暂停读取对应channel，由TCP背压限制客户端
+   *
+   * @param maxPerChannel 每个channel的最大在途请求数
+   * @param maxGlobal 全局最大在途请求数
+   * @return 当前GatewayServer
+   */
+  public GatewayServer inFlightLimits(int maxPerChannel, int maxGlobal) {
+    this.inFlightLimiter = new InFlightLimiter(maxPerChannel, maxGlobal);
+    return this;
+  }
+
+  /**
+   * 开启在途请求限制，并指定请求最长占用名额的时间
+   *
+   * @param maxPerChannel 每个channel的最大在途请求数
+   * @param maxGlobal 全局最大在途请求数
+   * @param permitTimeout 请求超过该时间仍未完成时释放其名额
+   * @return 当前GatewayServer
+   * @see #inFlightLimits(int, int)
+   */
+  public GatewayServer inFlightLimits(int maxPerChannel, int maxGlobal, long permitTimeout, TimeUnit unit) {
+    this.inFlightLimiter = new InFlightLimiter(maxPerChannel, maxGlobal, permitTimeout, unit);
+    return this;
+  }
+
+  /**
+   * 在独立的业务线程池中执行会话（登录、绑定、登出、断开）与请求处理，避免阻塞I/O的业务实现拖慢同一EventLoop上的其他连接。
+   * 同一channel的所有业务处理固定在businessGroup中的同一个线程上，保证处理顺序；响应由Netty自动转回channel所在的EventLoop写出。
+   * 服务器停止时一并关闭businessGroup。
+   * <p>
+   * 在支持虚拟线程的JDK上，可以使用虚拟线程的ThreadFactory构造{@link io.netty.util.concurrent.DefaultEventExecutorGroup}
+   *
+   * @param businessGroup 业务线程池，需要保证提交到同一个EventExecutor的任务按顺序执行
+   * @return 当前GatewayServer
+   */
+  public GatewayServer businessGroup(EventExecutorGroup businessGroup) {
+    this.businessGroup = businessGroup;
+    return this;
+  }
+
+  /**
+   * 开启flush合并：同一轮读取中以及同一个EventLoop任务周期内的多次flush合并为一次，减少write系统调用
+   *
+   * @param maxDelayMicros flush的最大推迟时间（微秒），为0时只推迟到EventLoop的下一轮任务
+   * @param maxPendingBytes 待发送数据达到该字节数时立即flush
+   * @return 当前GatewayServer
+   */
+  public GatewayServer flushConsolidation(long maxDelayMicros, int maxPendingBytes) {
+    if (maxDelayMicros < 0 || maxPendingBytes < 1) {
+      throw new IllegalArgumentException(
+          "Invalid flush consolidation: maxDelayMicros=" + maxDelayMicros + ", maxPendingBytes=" + maxPendingBytes);
+    }
+    this.maxFlushDelayMicros = maxDelayMicros;
+    this.maxPendingFlushBytes = maxPendingBytes;
+    return this;
+  }
+
+  /**
+   * 开启包体压缩：压缩发送的不小于阈值的明文包体，解压收到的已压缩明文包体。已加密或已签名的包体保持原样，
+   * 已压缩的签名包体在验签之后由业务自行解密、解压。
+   * <p>
+   * 只有收到过客户端发来的压缩包（即客户端声明支持压缩）的连接才会收到压缩包；
+   * sessionService为{@link AbstractSessionService}时推送同样按此规则只压缩一次
+   *
+   * @param compressor 包体压缩器
+   * @return 当前GatewayServer
+   */
+  public GatewayServer compression(PacketCompressor compressor) {
+    this.compressionHandler = new PacketCompressionHandler(compressor);
+    if (sessionService instanceof AbstractSessionService) {
+      ((AbstractSessionService) sessionService).setCompressor(compressor);
+    }
+    return this;
+  }
+
+  /**
+   * 限制帧（不含长度前缀）的最大字节数：收到声明长度超限的帧时立即应答INTERNAL_ERROR并关闭连接，不缓存该帧
+   *
+   * @param maxFrameLength 帧的最大字节数
+   * @return 当前GatewayServer
+   */
+  public GatewayServer maxFrameLength(int maxFrameLength) {
+    if (maxFrameLength < CDTPPacketDecoder.PREFIX_LENGTH) {
+      throw new IllegalArgumentException("Max frame length is too small: " + maxFrameLength);
+    }
+    this.maxFrameLength = maxFrameLength;
+    return this;
+  }
+
+  /**
+   * 流式接收指定命令的包体，这些命令不受{@link #maxFrameLength(int)}的限制。
+   * 开启后由内置的{@link CDTPPacketDecoder}自行分帧，替代LengthFieldBasedFrameDecoder和构造时指定的解码器
+   *
+   * @param bodyStreamConsumer 包体的消费者
+   * @return 当前GatewayServer
+   */
+  public GatewayServer streamBodies(BodyStreamConsumer bodyStreamConsumer) {
+    this.bodyStreamConsumer = bodyStreamConsumer;
+    return this;
+  }
+
+  /**
+   * 开启指标：按命令记录解码、会话处理、请求处理、flush的耗时，统计连接数、会话数、会话事件与exceptionCaught次数。
+   * SessionService继承自{@link AbstractSessionService}时同时为其设置指标。
+   * 解码耗时只对内置的{@link CDTPPacketDecoder}生效
+   *
+   * @param metrics 指标实现，如{@link com.syswin.temail.ps.server.metrics.MicrometerGatewayMetrics}
+   * @return 当前GatewayServer
+   */
+  public GatewayServer metrics(GatewayMetrics metrics) {
+    this.metrics = metrics;
+    if (sessionService instanceof AbstractSessionService) {
+      ((AbstractSessionService) sessionService).setMetrics(metrics);
+    }
+    return this;
+  }
+
+  /**
+   * 开启EventLoop健康监控：服务器启动时开始采样worker EventLoopGroup，停止时一并停止。
+   * 通过{@link EventLoopMonitor#snapshot()}随时读取各EventLoop的状态
+   *
+   * @param eventLoopMonitor EventLoop监控
+   * @return 当前GatewayServer
+   */
+  public GatewayServer monitorEventLoops(EventLoopMonitor eventLoopMonitor) {
+    this.eventLoopMonitor = eventLoopMonitor;
+    return this;
+  }
+
+  /**
+   * 开启过载保护：限制连接数与accept速率，压力过大时直接拒绝新的LOGIN。
+   * EventLoop调度延迟与在途请求数分别来自{@link #monitorEventLoops(EventLoopMonitor)}和{@link #inFlightLimits(int, int)}
+   *
+   * @param admissionController 过载保护
+   * @return 当前GatewayServer
+   */
+  public GatewayServer admissionControl(AdmissionController admissionController) {
+    this.admissionController = admissionController;
+    return this;
+  }
+
+  /**
+   * 开启按会话和commandSpace的请求限流，在验签与业务处理之前拒绝超过速率的数据包。
+   * sessionService为{@link AbstractSessionService}时，已绑定到channel的会话按temail和设备计算，其余按channel计算
+   *
+   * @param requestRateLimiter 请求限流
+   * @return 当前GatewayServer
+   */
+  public GatewayServer rateLimitRequests(RequestRateLimiter requestRateLimiter) {
+    this.requestRateLimiter = requestRateLimiter;
+    if (sessionService instanceof AbstractSessionService) {
+      requestRateLimiter.sessions(((AbstractSessionService) sessionService).getChannelHolder());
+    }
+    return this;
+  }
+
   public Stoppable run() {
     EventLoopGroup bossGroup;
     EventLoopGroup workerGroup;// 默认 cpu
+    Class<? extends ServerChannel> serverChannelClass;
+    int listeners = 1;
 
-    if(enableEpoll) {
-      bossGroup = new EpollEventLoopGroup(1);
+    boolean useEpoll = enableEpoll && Epoll.isAvailable();
+    if (enableEpoll && !useEpoll) {
+      LOGGER.warn("Epoll is not available on this platform, falling back to Nio", Epoll.unavailabilityCause());
+    }
+
+    if (useEpoll) {
+      listeners = acceptorThreads;
+      bossGroup = new EpollEventLoopGroup(listeners);
       workerGroup = new EpollEventLoopGroup();
-      LOGGER.info("Using epoll event loop group");
+      serverChannelClass = EpollServerSocketChannel.class;
+      LOGGER.info("Using epoll event loop group with {} acceptor(s)", listeners);
     } else {
+      if (acceptorThreads > 1) {
+        LOGGER.warn("SO_REUSEPORT requires epoll, binding a single acceptor instead of {}", acceptorThreads);
+      }
       bossGroup = new NioEventLoopGroup(1);
       workerGroup = new NioEventLoopGroup();
+      serverChannelClass = NioServerSocketChannel.class;
       LOGGER.info("Using Nio event loop group");
     }
 
+    if (eventLoopMonitor != null) {
+      eventLoopMonitor.start(workerGroup);
+    }
+    // 超时时间不大于0时与IdleStateHandler一致，不做空闲检测
+    IdleStateTracker idleStateTracker =
+        idleTimeSeconds > 0 ? new IdleStateTracker(idleTimeSeconds, IDLE_TICK_MILLIS).start() : null;
+    PacketHandler packetHandler = new HeartbeatAwarePacketHandler(sessionService, requestService,
+        new HeartBeatService(), inFlightLimiter, metrics);
     ServerBootstrap bootstrap = new ServerBootstrap();
 
     bootstrap.group(bossGroup, workerGroup)
+        // 指定传输Channel，epoll时使用原生传输
+        .channel(serverChannelClass)
         // 使用指定端口设置套接字地址
-        .channel(NioServerSocketChannel.class)
-        // 指定使用NIO传输Channel
         .localAddress(new InetSocketAddress(port))
         // 通过NoDelay禁用Nagle,使消息立即发送出去
         .childOption(ChannelOption.TCP_NODELAY, true)
@@ -117,29 +398,92 @@ public class GatewayServer {
         .childHandler(new ChannelInitializer<SocketChannel>() {
           @Override
           protected void initChannel(SocketChannel channel) {
-            channel.pipeline()
-                .addLast("idleStateHandler", new IdleStateHandler(idleTimeSeconds, 0, 0))
-                .addLast("idleHandler", idleHandler)
-                .addLast("lengthFieldBasedFrameDecoder",
-                    new LengthFieldBasedFrameDecoder(Integer.MAX_VALUE, 0, Constants.LENGTH_FIELD_LENGTH, 0, 0))
-                .addLast("lengthFieldPrepender",
-                    new LengthFieldPrepender(Constants.LENGTH_FIELD_LENGTH, 0, false))
-                .addLast("packetEncoder", packetEncoderSupplier.get())
-                .addLast("packetDecoder", packetDecoderSupplier.get())
-                .addLast("packetHandler", packetHandler);
+            ChannelPipeline pipeline = channel.pipeline();
+            if (metrics != GatewayMetrics.NOOP) {
+              pipeline.addLast("channelMetrics", new ChannelMetricsHandler(metrics));
+            }
+            if (maxFlushDelayMicros >= 0) {
+              pipeline.addLast("flushCoalescing",
+                  new FlushCoalescingHandler(maxFlushDelayMicros, TimeUnit.MICROSECONDS, maxPendingFlushBytes));
+            }
+            if (eventLoopMonitor != null) {
+              pipeline.addLast("eventLoopMonitor", eventLoopMonitor);
+            }
+            if (idleStateTracker != null) {
+              pipeline.addLast("idleStateTracker", idleStateTracker);
+            }
+            if (bodyStreamConsumer == null) {
+              // 长度字段在帧内，LengthFieldBasedFrameDecoder的最大帧长度包含长度前缀
+              int frameDecoderMaxLength = (int) Math.min(Integer.MAX_VALUE,
+                  (long) maxFrameLength + Constants.LENGTH_FIELD_LENGTH);
+              pipeline.addLast("lengthFieldBasedFrameDecoder",
+                  new LengthFieldBasedFrameDecoder(frameDecoderMaxLength, 0, Constants.LENGTH_FIELD_LENGTH, 0, 0, true));
+            }
+            ByteToMessageDecoder packetDecoder = bodyStreamConsumer == null
+                ? packetDecoderSupplier.get()
+                : new CDTPPacketDecoder(true, maxFrameLength, bodyStreamConsumer);
+            if (packetDecoder instanceof CDTPPacketDecoder) {
+              ((CDTPPacketDecoder) packetDecoder).metrics(metrics);
+            }
+            MessageToByteEncoder<CDTPPacket> packetEncoder = packetEncoderSupplier.get();
+            if (!(packetEncoder instanceof CDTPPacketEncoder)) {
+              // 内置编码器自行写入长度前缀，自定义编码器由LengthFieldPrepender补上
+              CDTPPacketEncoder.markLengthFieldPrepended(channel);
+              pipeline.addLast("lengthFieldPrepender", new LengthFieldPrepender(Constants.LENGTH_FIELD_LENGTH, 0, false));
+            }
+            pipeline.addLast("packetEncoder", packetEncoder)
+                .addLast("packetDecoder", packetDecoder);
+            if (admissionController != null) {
+              pipeline.addLast("loginShedding", admissionController.loginHandler());
+            }
+            if (requestRateLimiter != null) {
+              pipeline.addLast("requestRateLimiter", requestRateLimiter);
+            }
+            if (packetVerifier != null) {
+              pipeline.addLast("packetVerifier", new PacketVerifyHandler(packetVerifier, maxPendingVerifications));
+            }
+            if (compressionHandler != null) {
+              pipeline.addLast("packetCompression", compressionHandler);
+            }
+            // 放在解码器之后，只有空闲、断开事件和解码后的数据包交给businessGroup，原始字节不会在线程间来回传递；
+            // 与packetHandler在同一个executor上，断开处理排在该channel已收到的请求之后
+            pipeline.addLast(businessGroup, "idleHandler", idleHandler)
+                .addLast(businessGroup, "packetHandler", packetHandler);
           }
         });
 
-    // 异步地绑定服务器;调用sync方法阻塞等待直到绑定完成
-    bootstrap.bind().syncUninterruptibly();
+    if (listeners > 1) {
+      bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+    }
+    if (admissionController != null) {
+      admissionController.bind(eventLoopMonitor, inFlightLimiter, metrics);
+      bootstrap.handler(admissionController.acceptHandler());
+    }
+
+    // 异步地绑定服务器;调用sync方法阻塞等待直到绑定完成。每次绑定注册到bossGroup中的下一个线程
+    for (int i = 0; i < listeners; i++) {
+      bootstrap.bind().syncUninterruptibly();
+    }
     LOGGER.info("Temail 服务器已启动,端口号：{}", port);
-    return stoppable(bossGroup, workerGroup);
+    return stoppable(bossGroup, workerGroup, idleStateTracker);
   }
 
-  private Stoppable stoppable(EventLoopGroup bossGroup, EventLoopGroup workerGroup) {
+  private Stoppable stoppable(EventLoopGroup bossGroup, EventLoopGroup workerGroup, Stoppable idleStateTracker) {
     return () -> {
+      if (idleStateTracker != null) {
+        idleStateTracker.stop();
+      }
+      if (eventLoopMonitor != null) {
+        eventLoopMonitor.stop();
+      }
       workerGroup.shutdownGracefully();
       bossGroup.shutdownGracefully();
+      if (packetVerifier != null) {
+        packetVerifier.stop();
+      }
+      if (businessGroup != null) {
+        businessGroup.shutdownGracefully();
+      }
     };
   }
 }
@@ -0,0 +1,72 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.syswin.temail.ps.server.codec;
+
+import com.syswin.temail.ps.common.entity.CDTPPacket;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+
+/**
+ * 流式接收包体：{@link CDTPPacketDecoder}解析完头部后，将包体按收到的数据分块交给消费者，不在内存中累积整个帧。
+ * 用于文件、附件等大包体的命令，这些命令不受最大帧长度的限制。
+ * <p>
+ * 所有方法都在channel的EventLoop中按顺序调用，不能阻塞。
+ */
+public interface BodyStreamConsumer {
+
+  /**
+   * @return 是否流式接收该命令的包体
+   */
+  boolean accepts(short commandSpace, short command);
+
+  /**
+   * 头部解析完成，开始接收包体
+   *
+   * @param packet 数据包，data为null
+   * @param bodyLength 包体的总字节数
+   */
+  void onStart(ChannelHandlerContext ctx, CDTPPacket packet, int bodyLength);
+
+  /**
+   * 收到一块包体数据
+   *
+   * @param chunk 包体数据，只在本方法内有效，如需保留需自行retain
+   */
+  void onChunk(ChannelHandlerContext ctx, CDTPPacket packet, ByteBuf chunk);
+
+  /**
+   * 包体接收完成
+   *
+   * @return 继续交给后续handler处理的数据包，为null时不再传递
+   */
+  CDTPPacket onEnd(ChannelHandlerContext ctx, CDTPPacket packet);
+
+  /**
+   * 包体未接收完成时连接已关闭或解码器已移除，默认不做处理
+   */
+  default void onAbort(ChannelHandlerContext ctx, CDTPPacket packet) {
+  }
+}
@@ -0,0 +1,357 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.syswin.temail.ps.server.codec;
+
+import static com.syswin.temail.ps.common.Constants.CDTP_VERSION_HEADER_DICTIONARY;
+import static com.syswin.temail.ps.common.Constants.LENGTH_FIELD_LENGTH;
+import static com.syswin.temail.ps.common.entity.CommandSpaceType.CHANNEL_CODE;
+import static com.syswin.temail.ps.common.entity.CommandType.LOGIN_CODE;
+import static com.syswin.temail.ps.common.entity.CommandType.PING_CODE;
+import static com.syswin.temail.ps.common.entity.CommandType.PONG_CODE;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.syswin.temail.ps.common.entity.CDTPHeader;
+import com.syswin.temail.ps.common.entity.CDTPHeaderDictionary;
+import com.syswin.temail.ps.common.entity.CDTPPacket;
+import com.syswin.temail.ps.common.exception.PacketException;
+import com.syswin.temail.ps.server.metrics.GatewayMetrics;
+import com.syswin.temail.ps.server.metrics.Stage;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.TooLongFrameException;
+import java.util.List;
+
+/**
+ * 直接基于Netty ByteBuf解析CDTP数据包：定长前缀在原缓冲区上解析，头部只复制原始字节，字段在读取时才解码。
+ * <p>
+ * 输入为包含4字节长度前缀的完整帧，可以放在LengthFieldBasedFrameDecoder之后，也可以单独使用。单独使用时可以限制最大帧长度，
+ * 并通过{@link BodyStreamConsumer}流式接收指定命令的包体。
+ * <p>
+ * 默认直接在解码阶段应答心跳：根据定长前缀识别PING，将原帧中的命令改写为PONG后原样写回，不构造CDTPPacket，也不输出日志。
+ * 写回的帧包含原长度前缀；长度前缀由LengthFieldPrepender写入时（见{@link CDTPPacketEncoder#isLengthFieldPrepended(io.netty.channel.Channel)}）
+ * 写回的帧不含前缀。使用头部字典的PING按普通包解码，以保持字典同步。
+ * <p>
+ * 以{@link com.syswin.temail.ps.common.Constants#CDTP_VERSION_HEADER_DICTIONARY}版本登录的连接，
+ * 通过{@link CDTPPacketEncoder#enableHeaderDictionary(io.netty.channel.Channel)}启用发送方向的头部字典；
+ * 接收方向的字典由本解码器持有。
+ */
+public class CDTPPacketDecoder extends ByteToMessageDecoder {
+
+  /**
+   * commandSpace, command, version, headerLength 四个short字段的长度
+   */
+  public static final int PREFIX_LENGTH = 8;
+
+  /**
+   * command字段在帧中（不含长度前缀）的偏移
+   */
+  private static final int COMMAND_OFFSET = 2;
+
+  /**
+   * version字段在帧中（不含长度前缀）的偏移
+   */
+  private static final int VERSION_OFFSET = 4;
+
+  /**
+   * headerLength字段在帧中（不含长度前缀）的偏移
+   */
+  private static final int HEADER_LENGTH_OFFSET = 6;
+
+  private final boolean answerHeartbeats;
+  private final int maxFrameLength;
+  private final BodyStreamConsumer bodyStreamConsumer;
+  private boolean needsFlush;
+  private CDTPHeaderDictionary headerDictionary;
+  private boolean discarding;
+  private CDTPPacket streamingPacket;
+  private int remainingBodyBytes;
+  // 内容不合法的帧在当前缓冲区之后还未收到的字节数
+  private long bytesToSkip;
+  private GatewayMetrics metrics = GatewayMetrics.NOOP;
+
+  public CDTPPacketDecoder() {
+    this(true);
+  }
+
+  /**
+   * @param answerHeartbeats 是否在解码阶段直接应答心跳，为false时PING解码为CDTPPacket交给后续handler处理
+   */
+  public CDTPPacketDecoder(boolean answerHeartbeats) {
+    this(answerHeartbeats, Integer.MAX_VALUE, null);
+  }
+
+  /**
+   * @param answerHeartbeats 是否在解码阶段直接应答心跳，为false时PING解码为CDTPPacket交给后续handler处理
+   * @param maxFrameLength 帧（不含长度前缀）的最大字节数，超过时抛出{@link TooLongFrameException}并丢弃之后收到的所有数据
+   * @param bodyStreamConsumer 流式接收包体的消费者，可以为null；流式接收的命令不受maxFrameLength限制
+   */
+  public CDTPPacketDecoder(boolean answerHeartbeats, int maxFrameLength, BodyStreamConsumer bodyStreamConsumer) {
+    if (maxFrameLength < PREFIX_LENGTH) {
+      throw new IllegalArgumentException("Max frame length must not be less than " + PREFIX_LENGTH + ": " + maxFrameLength);
+    }
+    this.answerHeartbeats = answerHeartbeats;
+    this.maxFrameLength = maxFrameLength;
+    this.bodyStreamConsumer = bodyStreamConsumer;
+  }
+
+  /**
+   * 按命令记录完整数据包的解码耗时，流式接收的数据包和解码阶段应答的心跳不计入
+   *
+   * @param metrics 指标
+   * @return 当前解码器
+   */
+  public CDTPPacketDecoder metrics(GatewayMetrics metrics) {
+    this.metrics = metrics;
+    return this;
+  }
+
+  @Override
+  protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+    if (discarding) {
+      in.skipBytes(in.readableBytes());
+      return;
+    }
+    if (bytesToSkip > 0) {
+      int skipped = (int) Math.min(bytesToSkip, in.readableBytes());
+      in.skipBytes(skipped);
+      bytesToSkip -= skipped;
+      return;
+    }
+    if (streamingPacket != null) {
+      streamBody(ctx, in, out);
+      return;
+    }
+    if (in.readableBytes() < LENGTH_FIELD_LENGTH) {
+      return;
+    }
+    int packetLength = in.getInt(in.readerIndex());
+    if (packetLength < PREFIX_LENGTH) {
+      // 长度字段不合法，之后的数据无法再分帧
+      discarding = true;
+      in.skipBytes(in.readableBytes());
+      ctx.close();
+      throw new PacketException("Invalid packet length: " + packetLength);
+    }
+    if (bodyStreamConsumer != null) {
+      if (in.readableBytes() < LENGTH_FIELD_LENGTH + PREFIX_LENGTH) {
+        return;
+      }
+      if (isStreamed(in)) {
+        startStreaming(ctx, in, out, packetLength);
+        return;
+      }
+    }
+    if (packetLength > maxFrameLength) {
+      discarding = true;
+      in.skipBytes(in.readableBytes());
+      throw new TooLongFrameException("Packet length " + packetLength + " exceeds " + maxFrameLength);
+    }
+    if (in.readableBytes() - LENGTH_FIELD_LENGTH < packetLength) {
+      return;
+    }
+    if (answerHeartbeats && isHeartbeat(in)) {
+      answerHeartbeat(ctx, in, packetLength);
+      return;
+    }
+
+    boolean timed = metrics != GatewayMetrics.NOOP;
+    long start = timed ? System.nanoTime() : 0;
+    in.skipBytes(LENGTH_FIELD_LENGTH);
+    int frameEnd = in.readerIndex() + packetLength;
+    CDTPPacket packet;
+    try {
+      packet = decodePrefixAndHeader(ctx, in, packetLength);
+      packet.setData(decodeBody(ctx, packet.getCommandSpace(), packet.getCommand(),
+          in.slice(in.readerIndex(), frameEnd - in.readerIndex())));
+    } finally {
+      // 内容不合法时同样跳过整帧，下一帧从正确的位置开始解析
+      in.readerIndex(frameEnd);
+    }
+    if (timed) {
+      metrics.recordLatency(Stage.DECODE, packet.getCommandSpace(), packet.getCommand(), System.nanoTime() - start);
+    }
+    out.add(packet);
+  }
+
+  @Override
+  protected void handlerRemoved0(ChannelHandlerContext ctx) {
+    if (streamingPacket != null) {
+      CDTPPacket packet = streamingPacket;
+      streamingPacket = null;
+      bodyStreamConsumer.onAbort(ctx, packet);
+    }
+  }
+
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+    super.channelInactive(ctx);
+    handlerRemoved0(ctx);
+  }
+
+  private boolean isStreamed(ByteBuf in) {
+    int prefixIndex = in.readerIndex() + LENGTH_FIELD_LENGTH;
+    return bodyStreamConsumer.accepts(in.getShort(prefixIndex), in.getShort(prefixIndex + COMMAND_OFFSET));
+  }
+
+  private void startStreaming(ChannelHandlerContext ctx, ByteBuf in, List<Object> out, int packetLength) {
+    short headerLength = in.getShort(in.readerIndex() + LENGTH_FIELD_LENGTH + HEADER_LENGTH_OFFSET);
+    if (headerLength >= 0 && in.readableBytes() < LENGTH_FIELD_LENGTH + PREFIX_LENGTH + headerLength) {
+      return;
+    }
+    in.skipBytes(LENGTH_FIELD_LENGTH);
+    long frameEnd = (long) in.readerIndex() + packetLength;
+    CDTPPacket packet;
+    try {
+      packet = decodePrefixAndHeader(ctx, in, packetLength);
+    } catch (RuntimeException e) {
+      skipFrame(in, frameEnd);
+      throw e;
+    }
+    streamingPacket = packet;
+    remainingBodyBytes = packetLength - PREFIX_LENGTH - headerLength;
+    bodyStreamConsumer.onStart(ctx, packet, remainingBodyBytes);
+    streamBody(ctx, in, out);
+  }
+
+  private void skipFrame(ByteBuf in, long frameEnd) {
+    if (frameEnd <= in.writerIndex()) {
+      in.readerIndex((int) frameEnd);
+    } else {
+      bytesToSkip = frameEnd - in.writerIndex();
+      in.readerIndex(in.writerIndex());
+    }
+  }
+
+  private void streamBody(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+    int chunkLength = Math.min(in.readableBytes(), remainingBodyBytes);
+    if (chunkLength > 0) {
+      remainingBodyBytes -= chunkLength;
+      bodyStreamConsumer.onChunk(ctx, streamingPacket, in.readSlice(chunkLength));
+    }
+    if (remainingBodyBytes == 0) {
+      CDTPPacket packet = streamingPacket;
+      streamingPacket = null;
+      CDTPPacket result = bodyStreamConsumer.onEnd(ctx, packet);
+      if (result != null) {
+        out.add(result);
+      }
+    }
+  }
+
+  /**
+   * 解析定长前缀和头部，in的读位置需要在长度前缀之后
+   */
+  private CDTPPacket decodePrefixAndHeader(ChannelHandlerContext ctx, ByteBuf in, int packetLength) {
+    int frameEnd = in.readerIndex() + packetLength;
+    CDTPPacket packet = new CDTPPacket();
+    short commandSpace = in.readShort();
+    if (commandSpace < 0) {
+      throw new PacketException("Invalid command space: " + commandSpace);
+    }
+    packet.setCommandSpace(commandSpace);
+
+    short command = in.readShort();
+    if (command <= 0) {
+      throw new PacketException("Invalid command: " + command);
+    }
+    packet.setCommand(command);
+    short version = in.readShort();
+    packet.setVersion(version);
+
+    short headerLength = in.readShort();
+    if (headerLength < 0 || headerLength > frameEnd - in.readerIndex()) {
+      throw new PacketException("Invalid header length: " + headerLength + ", packet length: " + packetLength);
+    }
+    if (headerLength > 0) {
+      packet.setHeader(decodeHeader(in, headerLength, version).materialize());
+    }
+    if (version == CDTP_VERSION_HEADER_DICTIONARY && commandSpace == CHANNEL_CODE && command == LOGIN_CODE) {
+      CDTPPacketEncoder.enableHeaderDictionary(ctx.channel());
+    }
+    return packet;
+  }
+
+  @Override
+  public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+    if (needsFlush) {
+      needsFlush = false;
+      ctx.flush();
+    }
+    super.channelReadComplete(ctx);
+  }
+
+  private static boolean isHeartbeat(ByteBuf in) {
+    int prefixIndex = in.readerIndex() + LENGTH_FIELD_LENGTH;
+    return in.getShort(prefixIndex) == CHANNEL_CODE
+        && in.getShort(prefixIndex + COMMAND_OFFSET) == PING_CODE
+        && in.getShort(prefixIndex + VERSION_OFFSET) != CDTP_VERSION_HEADER_DICTIONARY;
+  }
+
+  private void answerHeartbeat(ChannelHandlerContext ctx, ByteBuf in, int packetLength) {
+    ByteBuf pong;
+    if (CDTPPacketEncoder.isLengthFieldPrepended(ctx.channel())) {
+      pong = in.skipBytes(LENGTH_FIELD_LENGTH).readRetainedSlice(packetLength);
+      pong.setShort(COMMAND_OFFSET, PONG_CODE);
+    } else {
+      pong = in.readRetainedSlice(LENGTH_FIELD_LENGTH + packetLength);
+      pong.setShort(LENGTH_FIELD_LENGTH + COMMAND_OFFSET, PONG_CODE);
+    }
+    ctx.write(pong, ctx.voidPromise());
+    needsFlush = true;
+  }
+
+  private CDTPHeader decodeHeader(ByteBuf in, int headerLength, short version) {
+    byte[] headerBytes = new byte[headerLength];
+    in.readBytes(headerBytes);
+    try {
+      if (version == CDTP_VERSION_HEADER_DICTIONARY) {
+        if (headerDictionary == null) {
+          headerDictionary = new CDTPHeaderDictionary();
+        }
+        return headerDictionary.decode(headerBytes);
+      }
+      return CDTPHeader.parseFrom(headerBytes);
+    } catch (InvalidProtocolBufferException e) {
+      throw new PacketException("Failed to parse packet header: " + e.getMessage());
+    }
+  }
+
+  /**
+   * 将包体转换为CDTPPacket的data。默认只做一次拷贝，子类可以覆盖以便按命令对包体做特殊处理。
+   *
+   * @param ctx 当前通道上下文
+   * @param commandSpace 命令空间
+   * @param command 命令
+   * @param body 包体在原缓冲区上的切片，只在本方法内有效，如需保留需自行retain
+   * @return 包体数据
+   */
+  protected byte[] decodeBody(ChannelHandlerContext ctx, short commandSpace, short command, ByteBuf body) {
+    byte[] data = new byte[body.readableBytes()];
+    body.readBytes(data);
+    return data;
+  }
+}
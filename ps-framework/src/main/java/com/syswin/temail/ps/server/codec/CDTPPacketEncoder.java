@@ -0,0 +1,181 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.syswin.temail.ps.server.codec;
+
+import static com.syswin.temail.ps.common.Constants.CDTP_VERSION_HEADER_DICTIONARY;
+import static com.syswin.temail.ps.common.Constants.LENGTH_FIELD_LENGTH;
+
+import com.google.protobuf.CodedOutputStream;
+import com.syswin.temail.ps.common.entity.CDTPHeader;
+import com.syswin.temail.ps.common.entity.CDTPHeaderDictionary;
+import com.syswin.temail.ps.common.entity.CDTPPacket;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.util.AttributeKey;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 将CDTPPacket直接编码到Netty ByteBuf，protobuf头部直接写入目标缓冲区，未修改过的头部直接复制原始字节。
+ * <p>
+ * 输出包含4字节长度前缀。编码前按头部和包体的长度精确分配缓冲区，编码过程中不扩容、不复制。
+ * 使用不写长度前缀的自定义编码器时，管道中由LengthFieldPrepender补上前缀，
+ * 此时绕过编码器直接写入通道的帧不能再带前缀，见{@link #isLengthFieldPrepended(Channel)}。
+ * <p>
+ * 通道启用头部字典后，所有包都以{@link com.syswin.temail.ps.common.Constants#CDTP_VERSION_HEADER_DICTIONARY}版本
+ * 和字典编码的头部发送。
+ */
+public class CDTPPacketEncoder extends MessageToByteEncoder<CDTPPacket> {
+
+  private static final AttributeKey<CDTPHeaderDictionary> HEADER_DICTIONARY =
+      AttributeKey.valueOf(CDTPPacketEncoder.class, "headerDictionary");
+  private static final AttributeKey<Boolean> LENGTH_FIELD_PREPENDED =
+      AttributeKey.valueOf(CDTPPacketEncoder.class, "lengthFieldPrepended");
+
+  /**
+   * 为通道启用发送方向的头部字典，只能在通道的EventLoop中、在发送下一个包之前调用
+   */
+  public static void enableHeaderDictionary(Channel channel) {
+    channel.attr(HEADER_DICTIONARY).setIfAbsent(new CDTPHeaderDictionary());
+  }
+
+  /**
+   * 标记通道的长度前缀由管道中的LengthFieldPrepender写入，需要在通道发送数据之前调用
+   */
+  public static void markLengthFieldPrepended(Channel channel) {
+    channel.attr(LENGTH_FIELD_PREPENDED).set(Boolean.TRUE);
+  }
+
+  /**
+   * @return 通道的长度前缀是否由LengthFieldPrepender写入，是则直接写入通道的帧不能包含长度前缀
+   */
+  public static boolean isLengthFieldPrepended(Channel channel) {
+    return channel.hasAttr(LENGTH_FIELD_PREPENDED) && channel.attr(LENGTH_FIELD_PREPENDED).get();
+  }
+
+  /**
+   * 将数据包编码到allocator分配的缓冲区中，缓冲区大小与编码结果一致
+   *
+   * @return 包含长度前缀的编码结果，由调用方负责释放
+   */
+  public static ByteBuf pack(CDTPPacket packet, ByteBufAllocator allocator) {
+    ByteBuf out = allocator.ioBuffer(maxEncodedLength(packet));
+    try {
+      writePacket(packet, out);
+      return out;
+    } catch (RuntimeException e) {
+      out.release();
+      throw e;
+    }
+  }
+
+  @Override
+  protected ByteBuf allocateBuffer(ChannelHandlerContext ctx, CDTPPacket packet, boolean preferDirect) {
+    int length = maxEncodedLength(packet);
+    return preferDirect ? ctx.alloc().ioBuffer(length) : ctx.alloc().heapBuffer(length);
+  }
+
+  @Override
+  protected void encode(ChannelHandlerContext ctx, CDTPPacket packet, ByteBuf out) {
+    CDTPHeaderDictionary headerDictionary = ctx.channel().attr(HEADER_DICTIONARY).get();
+    if (headerDictionary == null) {
+      writePacket(packet, out);
+    } else {
+      writePacket(packet, headerDictionary, out);
+    }
+  }
+
+  public static void writePacket(CDTPPacket packet, ByteBuf out) {
+    CDTPHeader header = packet.getHeader();
+    int headerLength = header == null ? 0 : header.serializedSize();
+    writePrefix(packet, packet.getVersion(), headerLength, out);
+    if (headerLength > 0) {
+      writeHeader(header, headerLength, out);
+    }
+    writeData(packet, out);
+  }
+
+  /**
+   * 使用头部字典编码数据包，字典随之更新，因此同一字典编码的包必须按编码顺序发送
+   */
+  public static void writePacket(CDTPPacket packet, CDTPHeaderDictionary headerDictionary, ByteBuf out) {
+    CDTPHeader header = packet.getHeader();
+    byte[] headerBytes = header == null ? null : headerDictionary.encode(header);
+    writePrefix(packet, CDTP_VERSION_HEADER_DICTIONARY, headerBytes == null ? 0 : headerBytes.length, out);
+    if (headerBytes != null) {
+      out.writeBytes(headerBytes);
+    }
+    writeData(packet, out);
+  }
+
+  /**
+   * @return 编码结果的最大长度，字典编码的头部比普通头部最多多一个字节
+   */
+  private static int maxEncodedLength(CDTPPacket packet) {
+    CDTPHeader header = packet.getHeader();
+    byte[] data = packet.getData();
+    return LENGTH_FIELD_LENGTH + CDTPPacketDecoder.PREFIX_LENGTH
+        + (header == null ? 0 : header.serializedSize() + 1)
+        + (data == null ? 0 : data.length);
+  }
+
+  private static void writePrefix(CDTPPacket packet, short version, int headerLength, ByteBuf out) {
+    byte[] data = packet.getData();
+    int packetLength = CDTPPacketDecoder.PREFIX_LENGTH + headerLength + (data == null ? 0 : data.length);
+    out.ensureWritable(LENGTH_FIELD_LENGTH + packetLength);
+    out.writeInt(packetLength);
+    out.writeShort(packet.getCommandSpace());
+    out.writeShort(packet.getCommand());
+    out.writeShort(version);
+    out.writeShort(headerLength);
+  }
+
+  private static void writeData(CDTPPacket packet, ByteBuf out) {
+    byte[] data = packet.getData();
+    if (data != null && data.length > 0) {
+      out.writeBytes(data);
+    }
+  }
+
+  private static void writeHeader(CDTPHeader header, int headerLength, ByteBuf out) {
+    if (out.nioBufferCount() != 1) {
+      out.writeBytes(header.toByteArray());
+      return;
+    }
+    ByteBuffer target = out.internalNioBuffer(out.writerIndex(), headerLength);
+    try {
+      CodedOutputStream output = CodedOutputStream.newInstance(target);
+      header.writeTo(output);
+      output.flush();
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to write packet header", e);
+    }
+    out.writerIndex(out.writerIndex() + headerLength);
+  }
+}
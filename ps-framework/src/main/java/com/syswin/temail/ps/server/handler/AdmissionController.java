@@ -0,0 +1,255 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.syswin.temail.ps.server.handler;
+
+import static com.syswin.temail.ps.common.entity.CommandSpaceType.CHANNEL_CODE;
+import static com.syswin.temail.ps.common.entity.CommandType.LOGIN_CODE;
+import static com.syswin.temail.ps.server.utils.SignatureUtil.resetSignature;
+
+import com.syswin.temail.ps.common.entity.CDTPPacket;
+import com.syswin.temail.ps.common.entity.CDTPProtoBuf.CDTPLoginResp;
+import com.syswin.temail.ps.server.Constants;
+import com.syswin.temail.ps.server.metrics.GatewayMetrics;
+import com.syswin.temail.ps.server.metrics.SessionEvent;
+import com.syswin.temail.ps.server.utils.TokenBucket;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.concurrent.EventExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 过载保护：
+ * <ul>
+ * <li>{@link #acceptHandler()}放在监听channel上，连接数达到上限或超过accept速率时直接关闭新接受的连接，不注册到EventLoop</li>
+ * <li>{@link #loginHandler()}放在解码器之后，网关压力过大（EventLoop调度延迟或全局在途请求数超过阈值）时，
+ * 不经过登录认证直接以{@link Constants#HTTP_STATUS_SERVICE_UNAVAILABLE}应答LOGIN，客户端可以据此退避重试</li>
+ * </ul>
+ * EventLoop调度延迟来自{@link EventLoopMonitor}，在途请求数来自{@link InFlightLimiter}，没有开启时对应的条件不生效
+ */
+@Slf4j
+public class AdmissionController {
+
+  private static final String BUSY = "Server busy, please retry later";
+  static final long REGISTRATION_CHECK_MILLIS = 100;
+
+  private final int maxConnections;
+  private final AtomicInteger connections = new AtomicInteger();
+  private final LongAdder rejectedConnections = new LongAdder();
+  private final LongAdder shedLogins = new LongAdder();
+  private final ChannelHandler acceptHandler = new AcceptHandler();
+  private final ChannelHandler loginHandler = new LoginHandler();
+  private TokenBucket acceptLimiter;
+  private long maxLoopLagNanos = Long.MAX_VALUE;
+  private int maxInFlight = Integer.MAX_VALUE;
+  private volatile EventLoopMonitor eventLoopMonitor;
+  private volatile InFlightLimiter inFlightLimiter;
+  private volatile GatewayMetrics metrics = GatewayMetrics.NOOP;
+
+  /**
+   * @param maxConnections 全局最大连接数
+   */
+  public AdmissionController(int maxConnections) {
+    if (maxConnections < 1) {
+      throw new IllegalArgumentException("Max connections must be positive: " + maxConnections);
+    }
+    this.maxConnections = maxConnections;
+  }
+
+  /**
+   * 限制接受新连接的速率
+   *
+   * @param permitsPerSecond 每秒接受的连接数
+   * @param burst 允许的突发连接数
+   * @return 当前AdmissionController
+   */
+  public AdmissionController acceptRate(double permitsPerSecond, int burst) {
+    this.acceptLimiter = new TokenBucket(permitsPerSecond, burst);
+    return this;
+  }
+
+  /**
+   * 开启LOGIN降级：任一EventLoop的调度延迟超过maxLoopLag，或全局在途请求数达到maxInFlight时，直接拒绝新的LOGIN
+   *
+   * @param maxLoopLag EventLoop调度延迟的阈值，需要开启EventLoop监控
+   * @param unit maxLoopLag的单位
+   * @param maxInFlight 全局在途请求数的阈值，需要开启在途请求限制
+   * @return 当前AdmissionController
+   */
+  public AdmissionController shedLogins(long maxLoopLag, TimeUnit unit, int maxInFlight) {
+    if (maxLoopLag < 0 || maxInFlight < 1) {
+      throw new IllegalArgumentException(
+          "Invalid login shedding thresholds: maxLoopLag=" + maxLoopLag + ", maxInFlight=" + maxInFlight);
+    }
+    this.maxLoopLagNanos = unit.toNanos(maxLoopLag);
+    this.maxInFlight = maxInFlight;
+    return this;
+  }
+
+  /**
+   * 设置压力来源与指标，由{@link com.syswin.temail.ps.server.GatewayServer}在启动时调用，参数均可以为null
+   */
+  public void bind(EventLoopMonitor eventLoopMonitor, InFlightLimiter inFlightLimiter, GatewayMetrics metrics) {
+    this.eventLoopMonitor = eventLoopMonitor;
+    this.inFlightLimiter = inFlightLimiter;
+    this.metrics = metrics == null ? GatewayMetrics.NOOP : metrics;
+  }
+
+  public ChannelHandler acceptHandler() {
+    return acceptHandler;
+  }
+
+  public ChannelHandler loginHandler() {
+    return loginHandler;
+  }
+
+  /**
+   * @return 当前是否需要拒绝新的LOGIN
+   */
+  public boolean overloaded() {
+    EventLoopMonitor monitor = eventLoopMonitor;
+    if (monitor != null && monitor.maxLagNanos() > maxLoopLagNanos) {
+      return true;
+    }
+    InFlightLimiter limiter = inFlightLimiter;
+    return limiter != null && limiter.globalInFlight() >= maxInFlight;
+  }
+
+  public int connections() {
+    return connections.get();
+  }
+
+  public long rejectedConnections() {
+    return rejectedConnections.sum();
+  }
+
+  public long shedLogins() {
+    return shedLogins.sum();
+  }
+
+  private boolean admit() {
+    if (acceptLimiter != null && !acceptLimiter.tryAcquire()) {
+      return false;
+    }
+    if (connections.incrementAndGet() > maxConnections) {
+      connections.decrementAndGet();
+      return false;
+    }
+    return true;
+  }
+
+  private CDTPPacket busyResponse(CDTPPacket reqPacket) {
+    CDTPPacket respPacket = new CDTPPacket(reqPacket);
+    respPacket.setData(CDTPLoginResp.newBuilder()
+        .setCode(Constants.HTTP_STATUS_SERVICE_UNAVAILABLE)
+        .setDesc(BUSY)
+        .build()
+        .toByteArray());
+    if (respPacket.getHeader() != null) {
+      resetSignature(respPacket);
+    }
+    return respPacket;
+  }
+
+  @Sharable
+  private final class AcceptHandler extends ChannelInboundHandlerAdapter {
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+      Channel child = (Channel) msg;
+      if (!admit()) {
+        rejectedConnections.increment();
+        log.debug("Rejected connection {} with {} active connections", child, connections.get());
+        child.unsafe().closeForcibly();
+        return;
+      }
+      ConnectionSlot slot = new ConnectionSlot(child);
+      child.closeFuture().addListener(slot);
+      ctx.fireChannelRead(child);
+      slot.awaitRegistration(ctx.executor());
+    }
+  }
+
+  /**
+   * 已接受连接占用的连接数，只释放一次。注册失败时ServerBootstrapAcceptor只调用closeForcibly，
+   * 不会完成closeFuture，因此在注册完成之前定期检查，连接已关闭且没有注册时释放
+   */
+  private final class ConnectionSlot extends AtomicBoolean implements ChannelFutureListener {
+
+    private final Channel channel;
+
+    private ConnectionSlot(Channel channel) {
+      this.channel = channel;
+    }
+
+    @Override
+    public void operationComplete(ChannelFuture future) {
+      release();
+    }
+
+    private void awaitRegistration(EventExecutor executor) {
+      if (get() || channel.isRegistered()) {
+        return;
+      }
+      if (!channel.isOpen()) {
+        release();
+        return;
+      }
+      executor.schedule(() -> awaitRegistration(executor), REGISTRATION_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void release() {
+      if (compareAndSet(false, true)) {
+        connections.decrementAndGet();
+      }
+    }
+  }
+
+  @Sharable
+  private final class LoginHandler extends ChannelInboundHandlerAdapter {
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+      if (msg instanceof CDTPPacket) {
+        CDTPPacket packet = (CDTPPacket) msg;
+        if (packet.getCommandSpace() == CHANNEL_CODE && packet.getCommand() == LOGIN_CODE && overloaded()) {
+          shedLogins.increment();
+          metrics.sessionEvent(SessionEvent.LOGIN_SHED);
+          ctx.writeAndFlush(busyResponse(packet), ctx.voidPromise());
+          return;
+        }
+      }
+      ctx.fireChannelRead(msg);
+    }
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.syswin.temail.ps.server.handler;
+
+import static com.syswin.temail.ps.common.Constants.LENGTH_FIELD_LENGTH;
+
+import com.syswin.temail.ps.server.metrics.GatewayMetrics;
+import com.syswin.temail.ps.server.metrics.Stage;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+/**
+ * 统计连接数与flush耗时：从上次flush之后第一个数据包写入开始计时，到flush交给传输层结束，按第一个数据包的命令记录到
+ * {@link Stage#FLUSH}。
+ * <p>
+ * 需要放在管道的最前端（flush合并之前），此时写出的是包含长度前缀的已编码帧，命令直接从帧中读取。保存了channel的待flush状态，不可共享
+ */
+public class ChannelMetricsHandler extends ChannelDuplexHandler {
+
+  private static final int FRAME_PREFIX_LENGTH = LENGTH_FIELD_LENGTH + 4;
+
+  private final GatewayMetrics metrics;
+  private long firstWriteNanos;
+  private short commandSpace;
+  private short command;
+  private boolean writePending;
+
+  public ChannelMetricsHandler(GatewayMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  @Override
+  public void channelActive(ChannelHandlerContext ctx) throws Exception {
+    metrics.channelActive();
+    super.channelActive(ctx);
+  }
+
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+    metrics.channelInactive();
+    super.channelInactive(ctx);
+  }
+
+  @Override
+  public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+    if (!writePending && msg instanceof ByteBuf && ((ByteBuf) msg).readableBytes() >= FRAME_PREFIX_LENGTH) {
+      ByteBuf frame = (ByteBuf) msg;
+      int prefixIndex = frame.readerIndex() + LENGTH_FIELD_LENGTH;
+      commandSpace = frame.getShort(prefixIndex);
+      command = frame.getShort(prefixIndex + 2);
+      firstWriteNanos = System.nanoTime();
+      writePending = true;
+    }
+    super.write(ctx, msg, promise);
+  }
+
+  @Override
+  public void flush(ChannelHandlerContext ctx) throws Exception {
+    super.flush(ctx);
+    if (writePending) {
+      writePending = false;
+      metrics.recordLatency(Stage.FLUSH, commandSpace, command, System.nanoTime() - firstWriteNanos);
+    }
+  }
+}
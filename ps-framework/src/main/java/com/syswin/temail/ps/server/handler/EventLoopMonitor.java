@@ -0,0 +1,206 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.syswin.temail.ps.server.handler;
+
+import com.syswin.temail.ps.server.Stoppable;
+import com.syswin.temail.ps.server.metrics.EventLoopSample;
+import com.syswin.temail.ps.server.metrics.GatewayMetrics;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * EventLoop健康监控：由一个后台线程定期采样每个EventLoop的待执行任务数、调度延迟和活跃channel数，输出到{@link GatewayMetrics}，
+ * 也可以通过{@link #snapshot()}随时读取，用于发现个别EventLoop被热点channel拖慢或整个EventLoopGroup饱和。
+ * <p>
+ * 调度延迟由探测任务测量：每次采样向EventLoop提交一个空任务，记录从提交到执行的时间。同一EventLoop同时只有一个探测任务，
+ * 上次的探测任务还未执行时，以已等待的时间作为延迟，不再提交新的探测任务。
+ * <p>
+ * 待执行任务数也由探测任务在EventLoop线程中读取，是最近一次探测执行时排在其后的任务数。
+ * Nio、epoll的EventLoop在其他线程中读取任务数时会提交任务并同步等待，在采样线程中读取会被阻塞的EventLoop卡住。
+ * <p>
+ * 作为共享的handler加入管道，按channel所在的EventLoop统计活跃channel数
+ */
+@Slf4j
+@Sharable
+public class EventLoopMonitor extends ChannelInboundHandlerAdapter implements Stoppable {
+
+  private final GatewayMetrics metrics;
+  private final long intervalMillis;
+  private volatile Map<EventExecutor, Loop> loops = Collections.emptyMap();
+  private ScheduledExecutorService sampler;
+  private volatile long maxLagNanos;
+
+  /**
+   * @param metrics 接收采样的指标
+   * @param intervalMillis 采样间隔
+   */
+  public EventLoopMonitor(GatewayMetrics metrics, long intervalMillis) {
+    if (intervalMillis < 1) {
+      throw new IllegalArgumentException("Sample interval must be positive: " + intervalMillis);
+    }
+    this.metrics = metrics;
+    this.intervalMillis = intervalMillis;
+  }
+
+  /**
+   * 开始监控group中的所有EventLoop
+   */
+  public EventLoopMonitor start(EventExecutorGroup group) {
+    Map<EventExecutor, Loop> loops = new IdentityHashMap<>();
+    for (EventExecutor executor : group) {
+      loops.put(executor, new Loop(loops.size(), executor));
+    }
+    this.loops = loops;
+    sampler = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("event-loop-monitor", true));
+    sampler.scheduleAtFixedRate(this::sample, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    return this;
+  }
+
+  @Override
+  public void stop() {
+    if (sampler != null) {
+      sampler.shutdownNow();
+    }
+  }
+
+  /**
+   * 读取每个EventLoop当前的状态，不提交探测任务，调度延迟为最近一次探测的结果
+   *
+   * @return 按序号排列的采样
+   */
+  public List<EventLoopSample> snapshot() {
+    long now = System.nanoTime();
+    List<EventLoopSample> samples = new ArrayList<>(loops.size());
+    for (Loop loop : loops.values()) {
+      samples.add(loop.sample(now));
+    }
+    samples.sort((a, b) -> Integer.compare(a.getIndex(), b.getIndex()));
+    return samples;
+  }
+
+  /**
+   * @return 最近一次采样中各EventLoop调度延迟的最大值（纳秒）
+   */
+  public long maxLagNanos() {
+    return maxLagNanos;
+  }
+
+  @Override
+  public void channelActive(ChannelHandlerContext ctx) throws Exception {
+    Loop loop = loops.get(ctx.channel().eventLoop());
+    if (loop != null) {
+      loop.channels.incrementAndGet();
+    }
+    super.channelActive(ctx);
+  }
+
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+    Loop loop = loops.get(ctx.channel().eventLoop());
+    if (loop != null) {
+      loop.channels.decrementAndGet();
+    }
+    super.channelInactive(ctx);
+  }
+
+  /**
+   * 采样所有EventLoop并提交新的探测任务
+   */
+  void sample() {
+    try {
+      long now = System.nanoTime();
+      long maxLag = 0;
+      for (Loop loop : loops.values()) {
+        EventLoopSample sample = loop.sample(now);
+        loop.probe(now);
+        maxLag = Math.max(maxLag, sample.getLagNanos());
+        metrics.recordEventLoop(sample);
+      }
+      maxLagNanos = maxLag;
+    } catch (Exception e) {
+      log.error("Failed to sample event loops", e);
+    }
+  }
+
+  private static final class Loop implements Runnable {
+
+    private final int index;
+    private final EventExecutor executor;
+    private final AtomicInteger channels = new AtomicInteger();
+    // 未执行的探测任务的提交时间，0表示没有
+    private volatile long probeSubmittedNanos;
+    private volatile long lagNanos;
+    private volatile int pendingTasks = -1;
+
+    private Loop(int index, EventExecutor executor) {
+      this.index = index;
+      this.executor = executor;
+    }
+
+    private EventLoopSample sample(long now) {
+      long submitted = probeSubmittedNanos;
+      long lag = submitted != 0 ? Math.max(lagNanos, now - submitted) : lagNanos;
+      return new EventLoopSample(index, pendingTasks, lag, channels.get());
+    }
+
+    private void probe(long now) {
+      if (probeSubmittedNanos != 0 || executor.isShuttingDown()) {
+        return;
+      }
+      probeSubmittedNanos = now;
+      try {
+        executor.execute(this);
+      } catch (RejectedExecutionException e) {
+        probeSubmittedNanos = 0;
+      }
+    }
+
+    @Override
+    public void run() {
+      lagNanos = System.nanoTime() - probeSubmittedNanos;
+      if (executor instanceof SingleThreadEventExecutor) {
+        // 在EventLoop线程中读取，不会提交任务等待
+        pendingTasks = ((SingleThreadEventExecutor) executor).pendingTasks();
+      }
+      probeSubmittedNanos = 0;
+    }
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.syswin.temail.ps.server.handler;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 合并flush，减少write系统调用：
+ * <ul>
+ * <li>读取过程中的flush推迟到本轮读取结束（channelReadComplete）时统一执行</li>
+ * <li>其他时候的flush推迟到EventLoop的下一轮任务，或不超过maxDelay的时间后执行</li>
+ * <li>待发送数据达到maxPendingBytes、channel不可写或关闭时立即flush</li>
+ * </ul>
+ * 需要放在管道的最前端，以便按编码后的字节数统计待发送数据。保存了channel的待flush状态，不可共享
+ */
+public class FlushCoalescingHandler extends ChannelDuplexHandler {
+
+  private final long maxDelayNanos;
+  private final int maxPendingBytes;
+  private final Runnable flushTask;
+  private ChannelHandlerContext ctx;
+  private boolean readInProgress;
+  private boolean flushPending;
+  private long pendingBytes;
+  private ScheduledFuture<?> scheduledFlush;
+  private boolean flushSubmitted;
+
+  /**
+   * @param maxDelay flush的最大推迟时间，为0时推迟到EventLoop的下一轮任务
+   * @param maxPendingBytes 待发送数据达到该字节数时立即flush
+   */
+  public FlushCoalescingHandler(long maxDelay, TimeUnit unit, int maxPendingBytes) {
+    if (maxDelay < 0 || maxPendingBytes < 1) {
+      throw new IllegalArgumentException(
+          "Invalid flush consolidation: maxDelay=" + maxDelay + ", maxPendingBytes=" + maxPendingBytes);
+    }
+    this.maxDelayNanos = unit.toNanos(maxDelay);
+    this.maxPendingBytes = maxPendingBytes;
+    this.flushTask = () -> {
+      scheduledFlush = null;
+      flushSubmitted = false;
+      if (flushPending && !readInProgress) {
+        flushNow();
+      }
+    };
+  }
+
+  @Override
+  public void handlerAdded(ChannelHandlerContext ctx) {
+    this.ctx = ctx;
+  }
+
+  @Override
+  public void channelRead(ChannelHandlerContext ctx, Object msg) {
+    readInProgress = true;
+    ctx.fireChannelRead(msg);
+  }
+
+  @Override
+  public void channelReadComplete(ChannelHandlerContext ctx) {
+    readInProgress = false;
+    if (flushPending) {
+      flushNow();
+    }
+    ctx.fireChannelReadComplete();
+  }
+
+  @Override
+  public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+    if (msg instanceof ByteBuf) {
+      pendingBytes += ((ByteBuf) msg).readableBytes();
+    } else if (msg instanceof ByteBufHolder) {
+      pendingBytes += ((ByteBufHolder) msg).content().readableBytes();
+    }
+    ctx.write(msg, promise);
+  }
+
+  @Override
+  public void flush(ChannelHandlerContext ctx) {
+    flushPending = true;
+    if (pendingBytes >= maxPendingBytes || !ctx.channel().isWritable()) {
+      flushNow();
+    } else if (!readInProgress) {
+      scheduleFlush();
+    }
+  }
+
+  @Override
+  public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+    if (!ctx.channel().isWritable() && flushPending) {
+      flushNow();
+    }
+    ctx.fireChannelWritabilityChanged();
+  }
+
+  @Override
+  public void close(ChannelHandlerContext ctx, ChannelPromise promise) {
+    flushIfPending();
+    ctx.close(promise);
+  }
+
+  @Override
+  public void disconnect(ChannelHandlerContext ctx, ChannelPromise promise) {
+    flushIfPending();
+    ctx.disconnect(promise);
+  }
+
+  @Override
+  public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+    flushIfPending();
+    ctx.fireExceptionCaught(cause);
+  }
+
+  @Override
+  public void handlerRemoved(ChannelHandlerContext ctx) {
+    flushIfPending();
+  }
+
+  private void scheduleFlush() {
+    if (maxDelayNanos == 0) {
+      if (!flushSubmitted) {
+        flushSubmitted = true;
+        ctx.channel().eventLoop().execute(flushTask);
+      }
+    } else if (scheduledFlush == null) {
+      scheduledFlush = ctx.executor().schedule(flushTask, maxDelayNanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  private void flushIfPending() {
+    if (flushPending) {
+      flushNow();
+    }
+  }
+
+  private void flushNow() {
+    if (scheduledFlush != null) {
+      scheduledFlush.cancel(false);
+      scheduledFlush = null;
+    }
+    flushPending = false;
+    pendingBytes = 0;
+    ctx.flush();
+  }
+}
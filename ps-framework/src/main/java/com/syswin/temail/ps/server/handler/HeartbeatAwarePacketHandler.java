@@ -28,6 +28,7 @@ import static com.syswin.temail.ps.common.entity.CommandSpaceType.CHANNEL_CODE;
 import static com.syswin.temail.ps.common.entity.CommandType.PING;
 
 import com.syswin.temail.ps.common.entity.CDTPPacket;
+import com.syswin.temail.ps.server.metrics.GatewayMetrics;
 import com.syswin.temail.ps.server.service.HeartBeatService;
 import com.syswin.temail.ps.server.service.RequestService;
 import com.syswin.temail.ps.server.service.SessionService;
@@ -45,7 +46,26 @@ public class HeartbeatAwarePacketHandler extends PacketHandler {
       RequestService requestService,
       HeartBeatService heartBeatService) {
 
-    super(sessionService, requestService);
+    this(sessionService, requestService, heartBeatService, null);
+  }
+
+  public HeartbeatAwarePacketHandler(
+      SessionService sessionService,
+      RequestService requestService,
+      HeartBeatService heartBeatService,
+      InFlightLimiter inFlightLimiter) {
+
+    this(sessionService, requestService, heartBeatService, inFlightLimiter, GatewayMetrics.NOOP);
+  }
+
+  public HeartbeatAwarePacketHandler(
+      SessionService sessionService,
+      RequestService requestService,
+      HeartBeatService heartBeatService,
+      InFlightLimiter inFlightLimiter,
+      GatewayMetrics metrics) {
+
+    super(sessionService, requestService, inFlightLimiter, metrics);
     this.heartBeatService = heartBeatService;
   }
 
@@ -60,6 +60,8 @@ public class IdleHandler extends SimpleUserEventChannelHandler<IdleStateEvent> {
     log.debug("Client closed channel {}", ctx.channel());
     sessionService.disconnect(ctx.channel());
     ctx.channel().close();
+    // 之后的handler（如在途请求限制）也需要在断开时释放资源
+    ctx.fireChannelInactive();
   }
 
 }
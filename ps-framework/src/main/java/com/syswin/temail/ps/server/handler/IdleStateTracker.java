@@ -0,0 +1,179 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.syswin.temail.ps.server.handler;
+
+import com.syswin.temail.ps.server.Stoppable;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.internal.MathUtil;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 所有channel共享的读空闲检测，替代每个channel一个的{@link io.netty.handler.timeout.IdleStateHandler}。
+ * <p>
+ * 读取数据时只记录当前的时间刻度，不调度任何任务；由一个后台线程按刻度推进时间轮，只检查到期槽位中的channel：
+ * 已空闲满超时时间的channel触发与IdleStateHandler相同的READER_IDLE事件，否则按最后读取时间放入新的槽位。
+ * 检测精度为一个刻度。
+ */
+@Slf4j
+@Sharable
+public class IdleStateTracker extends ChannelInboundHandlerAdapter implements Stoppable {
+
+  private static final AttributeKey<Entry> ENTRY = AttributeKey.valueOf("idleStateTrackerEntry");
+
+  private final long tickMillis;
+  private final long timeoutTicks;
+  private final Queue<Entry>[] wheel;
+  private final int mask;
+  private volatile long currentTick;
+  private ScheduledExecutorService sweeper;
+
+  /**
+   * @param idleTimeSeconds 读空闲超时时间
+   * @param tickMillis 时间轮刻度
+   */
+  @SuppressWarnings("unchecked")
+  public IdleStateTracker(int idleTimeSeconds, long tickMillis) {
+    if (idleTimeSeconds < 1 || tickMillis < 1) {
+      throw new IllegalArgumentException(
+          "Idle time and tick must be positive: idleTimeSeconds=" + idleTimeSeconds + ", tickMillis=" + tickMillis);
+    }
+    this.tickMillis = tickMillis;
+    this.timeoutTicks = Math.max(1, (TimeUnit.SECONDS.toMillis(idleTimeSeconds) + tickMillis - 1) / tickMillis);
+    int wheelSize = MathUtil.findNextPositivePowerOfTwo((int) Math.min(timeoutTicks + 1, 1 << 20));
+    this.wheel = new Queue[wheelSize];
+    for (int i = 0; i < wheelSize; i++) {
+      wheel[i] = new ConcurrentLinkedQueue<>();
+    }
+    this.mask = wheelSize - 1;
+  }
+
+  public IdleStateTracker start() {
+    sweeper = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("idle-state-tracker", true));
+    sweeper.scheduleAtFixedRate(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    return this;
+  }
+
+  @Override
+  public void stop() {
+    if (sweeper != null) {
+      sweeper.shutdownNow();
+    }
+  }
+
+  @Override
+  public void channelActive(ChannelHandlerContext ctx) throws Exception {
+    Entry entry = new Entry(ctx, currentTick);
+    ctx.channel().attr(ENTRY).set(entry);
+    schedule(entry, entry.lastReadTick + timeoutTicks);
+    super.channelActive(ctx);
+  }
+
+  @Override
+  public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+    Entry entry = ctx.channel().attr(ENTRY).get();
+    if (entry != null) {
+      entry.lastReadTick = currentTick;
+    }
+    super.channelRead(ctx, msg);
+  }
+
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+    Entry entry = ctx.channel().attr(ENTRY).getAndSet(null);
+    if (entry != null) {
+      entry.closed = true;
+    }
+    super.channelInactive(ctx);
+  }
+
+  /**
+   * 推进一个刻度，检查到期槽位中的channel
+   */
+  void tick() {
+    try {
+      long tick = ++currentTick;
+      Queue<Entry> bucket = wheel[(int) (tick & mask)];
+      for (int i = bucket.size(); i > 0; i--) {
+        Entry entry = bucket.poll();
+        if (entry == null) {
+          break;
+        }
+        if (entry.closed) {
+          continue;
+        }
+
+        long deadline = entry.lastReadTick + timeoutTicks;
+        if (deadline <= tick) {
+          fireReaderIdle(entry);
+          deadline = tick + timeoutTicks;
+        }
+        schedule(entry, deadline);
+      }
+    } catch (Exception e) {
+      log.error("Failed to check idle channels", e);
+    }
+  }
+
+  private void schedule(Entry entry, long deadline) {
+    wheel[(int) (deadline & mask)].offer(entry);
+  }
+
+  private void fireReaderIdle(Entry entry) {
+    ChannelHandlerContext ctx = entry.ctx;
+    try {
+      ctx.executor().execute(() -> {
+        if (!entry.closed) {
+          ctx.fireUserEventTriggered(IdleStateEvent.FIRST_READER_IDLE_STATE_EVENT);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      log.debug("Event loop of channel {} is shutting down, skipped idle event", ctx.channel());
+    }
+  }
+
+  private static final class Entry {
+
+    private final ChannelHandlerContext ctx;
+    private volatile long lastReadTick;
+    private volatile boolean closed;
+
+    private Entry(ChannelHandlerContext ctx, long lastReadTick) {
+      this.ctx = ctx;
+      this.lastReadTick = lastReadTick;
+    }
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.syswin.temail.ps.server.handler;
+
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 限制每个channel及全局的在途请求数。达到上限时关闭channel的autoRead，由TCP背压让客户端放慢发送，而不是在网关堆积请求；
+ * 在途请求完成、数量回落到上限以下后恢复读取。
+ * <p>
+ * 关闭autoRead前已经读入的数据仍会被解码处理，实际在途数量可能略超过上限，超出部分不超过一次读取的数据量。
+ * 请求超过{@link #permitTimeoutMillis()}仍未完成时释放名额，channel断开时释放其全部名额，
+ * 不会因为业务实现没有应答而永久占用名额、使channel停止读取
+ */
+public class InFlightLimiter {
+
+  public static final long DEFAULT_PERMIT_TIMEOUT_SECONDS = 60;
+
+  private static final AttributeKey<AtomicInteger> IN_FLIGHT = AttributeKey.valueOf("inFlightRequests");
+
+  /**
+   * channel断开、名额已全部释放后的在途数量，之后的acquire和release都被忽略
+   */
+  private static final int RELEASED = Integer.MIN_VALUE;
+
+  private final int maxPerChannel;
+  private final int maxGlobal;
+  private final long permitTimeoutMillis;
+  private final AtomicInteger globalInFlight = new AtomicInteger();
+  private final Set<Channel> suspendedChannels = ConcurrentHashMap.newKeySet();
+
+  /**
+   * @param maxPerChannel 每个channel的最大在途请求数
+   * @param maxGlobal 全局最大在途请求数
+   */
+  public InFlightLimiter(int maxPerChannel, int maxGlobal) {
+    this(maxPerChannel, maxGlobal, DEFAULT_PERMIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+  }
+
+  /**
+   * @param maxPerChannel 每个channel的最大在途请求数
+   * @param maxGlobal 全局最大在途请求数
+   * @param permitTimeout 请求最长占用名额的时间，超时后释放名额，请求之后完成时仍会写出响应
+   */
+  public InFlightLimiter(int maxPerChannel, int maxGlobal, long permitTimeout, TimeUnit unit) {
+    if (maxPerChannel < 1 || maxGlobal < 1 || permitTimeout < 1) {
+      throw new IllegalArgumentException("In-flight limits must be positive: perChannel=" + maxPerChannel
+          + ", global=" + maxGlobal + ", permitTimeout=" + permitTimeout);
+    }
+    this.maxPerChannel = maxPerChannel;
+    this.maxGlobal = maxGlobal;
+    this.permitTimeoutMillis = unit.toMillis(permitTimeout);
+  }
+
+  /**
+   * @return 是否占用了名额，channel已经断开时返回false，此时不需要release
+   */
+  public boolean acquire(Channel channel) {
+    AtomicInteger inFlight = inFlight(channel);
+    int channelInFlight;
+    do {
+      int current = inFlight.get();
+      if (current == RELEASED) {
+        return false;
+      }
+      channelInFlight = current + 1;
+    } while (!inFlight.compareAndSet(channelInFlight - 1, channelInFlight));
+
+    int global = globalInFlight.incrementAndGet();
+    if (channelInFlight >= maxPerChannel || global >= maxGlobal) {
+      suspend(channel);
+    }
+    return true;
+  }
+
+  public void release(Channel channel) {
+    AtomicInteger inFlight = inFlight(channel);
+    int channelInFlight;
+    do {
+      int current = inFlight.get();
+      if (current <= 0) {
+        // channel断开时已经释放
+        return;
+      }
+      channelInFlight = current - 1;
+    } while (!inFlight.compareAndSet(channelInFlight + 1, channelInFlight));
+
+    int global = globalInFlight.decrementAndGet();
+    if (global == maxGlobal - 1) {
+      resumeSuspendedChannels();
+    } else if (channelInFlight < maxPerChannel && global < maxGlobal) {
+      resume(channel);
+    }
+  }
+
+  /**
+   * channel断开时释放其全部名额，之后完成的请求不再重复释放
+   */
+  public void releaseAll(Channel channel) {
+    int channelInFlight = inFlight(channel).getAndSet(RELEASED);
+    suspendedChannels.remove(channel);
+    if (channelInFlight > 0) {
+      int global = globalInFlight.addAndGet(-channelInFlight);
+      if (global < maxGlobal && global + channelInFlight >= maxGlobal) {
+        resumeSuspendedChannels();
+      }
+    }
+  }
+
+  public long permitTimeoutMillis() {
+    return permitTimeoutMillis;
+  }
+
+  public int globalInFlight() {
+    return globalInFlight.get();
+  }
+
+  public int inFlightOf(Channel channel) {
+    return Math.max(0, inFlight(channel).get());
+  }
+
+  private void resumeSuspendedChannels() {
+    // 刚回落到全局上限以下，恢复因全局上限暂停的channel
+    for (Channel suspended : suspendedChannels) {
+      if (inFlight(suspended).get() < maxPerChannel) {
+        resume(suspended);
+      }
+    }
+  }
+
+  private void suspend(Channel channel) {
+    if (suspendedChannels.add(channel)) {
+      ReadSuspension.suspend(channel, ReadSuspension.IN_FLIGHT);
+    }
+    // 与release并发时，对方可能在暂停前已完成检查，此处再检查一次避免channel永远暂停
+    if (inFlight(channel).get() < maxPerChannel && globalInFlight.get() < maxGlobal) {
+      resume(channel);
+    }
+  }
+
+  private void resume(Channel channel) {
+    if (suspendedChannels.remove(channel)) {
+      ReadSuspension.resume(channel, ReadSuspension.IN_FLIGHT);
+    }
+  }
+
+  private static AtomicInteger inFlight(Channel channel) {
+    AtomicInteger inFlight = channel.attr(IN_FLIGHT).get();
+    if (inFlight == null) {
+      AtomicInteger created = new AtomicInteger();
+      inFlight = channel.attr(IN_FLIGHT).setIfAbsent(created);
+      if (inFlight == null) {
+        inFlight = created;
+      }
+    }
+    return inFlight;
+  }
+}
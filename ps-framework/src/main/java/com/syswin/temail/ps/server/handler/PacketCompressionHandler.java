@@ -0,0 +1,93 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.syswin.temail.ps.server.handler;
+
+import com.syswin.temail.ps.common.entity.CDTPPacket;
+import com.syswin.temail.ps.common.entity.CompressionType;
+import com.syswin.temail.ps.common.packet.PacketCompressor;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageCodec;
+import io.netty.util.AttributeKey;
+import java.util.List;
+
+/**
+ * 包体压缩：解压收到的已压缩明文包体，压缩发送的不小于阈值的明文包体。
+ * <p>
+ * 只对声明支持压缩的连接压缩发送的数据包：客户端以压缩的包体（头部compressionMethod不为NONE）发送LOGIN或其他数据包后，
+ * 该连接才会收到压缩的数据包；业务也可以按自己的协商结果调用{@link #enableCompression(Channel)}。
+ * 不认识压缩字段的旧客户端不会收到压缩的包体。
+ * <p>
+ * 需要放在验签handler之后，保证验签使用的是网络上收到的包体。发送的数据包不会被修改，压缩时使用副本；
+ * 已加密或已签名的包体保持原样。
+ */
+@Sharable
+public class PacketCompressionHandler extends MessageToMessageCodec<CDTPPacket, CDTPPacket> {
+
+  private static final AttributeKey<Boolean> COMPRESSION_SUPPORTED = AttributeKey.valueOf("compressionSupported");
+
+  private final PacketCompressor compressor;
+
+  public PacketCompressionHandler(PacketCompressor compressor) {
+    this.compressor = compressor;
+  }
+
+  /**
+   * 允许向该连接发送压缩的数据包
+   */
+  public static void enableCompression(Channel channel) {
+    channel.attr(COMPRESSION_SUPPORTED).set(Boolean.TRUE);
+  }
+
+  /**
+   * @return 客户端是否声明了支持压缩
+   */
+  public static boolean supportsCompression(Channel channel) {
+    return Boolean.TRUE.equals(channel.attr(COMPRESSION_SUPPORTED).get());
+  }
+
+  @Override
+  protected void encode(ChannelHandlerContext ctx, CDTPPacket packet, List<Object> out) {
+    if (packet.getHeader() == null || !supportsCompression(ctx.channel())) {
+      out.add(packet);
+      return;
+    }
+    CDTPPacket compressed = new CDTPPacket(packet.getCommandSpace(), packet.getCommand(), packet.getVersion(),
+        packet.getHeader().clone(), packet.getData());
+    out.add(compressor.compress(compressed) ? compressed : packet);
+  }
+
+  @Override
+  protected void decode(ChannelHandlerContext ctx, CDTPPacket packet, List<Object> out) {
+    if (packet.getHeader() != null && packet.getHeader().getCompressionMethod() != CompressionType.NONE_CODE
+        && !supportsCompression(ctx.channel())) {
+      enableCompression(ctx.channel());
+    }
+    compressor.decompress(packet);
+    out.add(packet);
+  }
+}
@@ -34,13 +34,21 @@ import com.syswin.temail.ps.common.entity.CDTPHeader;
 import com.syswin.temail.ps.common.entity.CDTPPacket;
 import com.syswin.temail.ps.common.entity.CDTPProtoBuf.CDTPServerError;
 import com.syswin.temail.ps.common.exception.PacketException;
+import com.syswin.temail.ps.server.metrics.GatewayMetrics;
+import com.syswin.temail.ps.server.metrics.Stage;
 import com.syswin.temail.ps.server.service.RequestService;
 import com.syswin.temail.ps.server.service.SessionService;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.util.concurrent.ScheduledFuture;
 import io.netty.util.internal.StringUtil;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
@@ -49,12 +57,42 @@ public class PacketHandler extends SimpleChannelInboundHandler<CDTPPacket> {
 
   private final SessionService sessionService;
   private final RequestService requestService;
+  private final InFlightLimiter inFlightLimiter;
+  private final GatewayMetrics metrics;
+  private final boolean timed;
+  private final boolean asyncRequestService;
 
   public PacketHandler(
       SessionService sessionService,
       RequestService requestService) {
+    this(sessionService, requestService, null);
+  }
+
+  /**
+   * @param inFlightLimiter 在途请求限制，不为null时异步处理请求，见{@link RequestService#handleRequestAsync(CDTPPacket)}
+   */
+  public PacketHandler(
+      SessionService sessionService,
+      RequestService requestService,
+      InFlightLimiter inFlightLimiter) {
+    this(sessionService, requestService, inFlightLimiter, GatewayMetrics.NOOP);
+  }
+
+  /**
+   * @param inFlightLimiter 在途请求限制，不为null时异步处理请求，见{@link RequestService#handleRequestAsync(CDTPPacket)}
+   * @param metrics 按命令记录会话与请求的处理耗时，以及exceptionCaught次数
+   */
+  public PacketHandler(
+      SessionService sessionService,
+      RequestService requestService,
+      InFlightLimiter inFlightLimiter,
+      GatewayMetrics metrics) {
     this.sessionService = sessionService;
     this.requestService = requestService;
+    this.inFlightLimiter = inFlightLimiter;
+    this.metrics = metrics;
+    this.timed = metrics != GatewayMetrics.NOOP;
+    this.asyncRequestService = overridesHandleRequestAsync(requestService);
   }
 
   @Override
@@ -66,18 +104,28 @@ public class PacketHandler extends SimpleChannelInboundHandler<CDTPPacket> {
 
       validateHeader(packet);
 
+      long start = startTime();
       if (commandSpace == CHANNEL_CODE) {
         if (command == LOGIN.getCode()) {
           sessionService.login(channel, packet);
+          recordLatency(Stage.SESSION, commandSpace, command, start);
         } else if (command == LOGOUT.getCode()) {
           sessionService.logout(channel, packet);
+          recordLatency(Stage.SESSION, commandSpace, command, start);
         } else {
           log.warn("Received unknown command {} {}", Integer.toHexString(commandSpace),
               Integer.toHexString(command));
         }
       } else {
         sessionService.bind(channel, packet);
-        requestService.handleRequest(packet, msg -> ctx.writeAndFlush(msg, ctx.voidPromise()));
+        recordLatency(Stage.SESSION, commandSpace, command, start);
+        if (inFlightLimiter == null) {
+          start = startTime();
+          requestService.handleRequest(packet, msg -> ctx.writeAndFlush(msg, ctx.voidPromise()));
+          recordLatency(Stage.REQUEST, commandSpace, command, start);
+        } else {
+          handleRequestAsync(ctx, packet);
+        }
       }
     } catch (Exception e) {
       throw new PacketException(e, packet);
@@ -86,6 +134,7 @@ public class PacketHandler extends SimpleChannelInboundHandler<CDTPPacket> {
 
   @Override
   public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+    metrics.exceptionCaught();
     log.error("Failed to handle packet on channel: {}", ctx.channel(), cause);
     if (ctx.channel().isActive()) {
       CDTPPacket packet;
@@ -106,7 +155,86 @@ public class PacketHandler extends SimpleChannelInboundHandler<CDTPPacket> {
         builder.setDesc(cause.getMessage());
       }
       packet.setData(builder.build().toByteArray());
-      ctx.writeAndFlush(packet, ctx.voidPromise());
+      if (cause instanceof TooLongFrameException) {
+        // 超长帧之后的数据无法再分帧，应答后关闭连接
+        ctx.writeAndFlush(packet).addListener(ChannelFutureListener.CLOSE);
+      } else {
+        ctx.writeAndFlush(packet, ctx.voidPromise());
+      }
+    }
+  }
+
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+    if (inFlightLimiter != null) {
+      inFlightLimiter.releaseAll(ctx.channel());
+    }
+    super.channelInactive(ctx);
+  }
+
+  private void handleRequestAsync(ChannelHandlerContext ctx, CDTPPacket packet) {
+    Channel channel = ctx.channel();
+    Permit permit = new Permit(channel);
+    long start = startTime();
+    CompletableFuture<CDTPPacket> response = new CompletableFuture<>();
+    ScheduledFuture<?> timeout = ctx.executor().schedule(() -> {
+      if (permit.release()) {
+        log.warn("Request {} on channel {} did not complete in {} ms, released its in-flight permit",
+            packet.getHeader().getPacketId(), channel, inFlightLimiter.permitTimeoutMillis());
+      }
+    }, inFlightLimiter.permitTimeoutMillis(), TimeUnit.MILLISECONDS);
+
+    response.whenComplete((msg, cause) -> {
+      timeout.cancel(false);
+      permit.release();
+      recordLatency(Stage.REQUEST, packet.getCommandSpace(), packet.getCommand(), start);
+      if (cause != null) {
+        ctx.executor().execute(() -> exceptionCaught(ctx, new PacketException(cause, packet)));
+      } else if (msg != null) {
+        ctx.writeAndFlush(msg, ctx.voidPromise());
+      }
+    });
+
+    try {
+      if (asyncRequestService) {
+        requestService.handleRequestAsync(packet).whenComplete((msg, cause) -> {
+          if (cause != null) {
+            response.completeExceptionally(cause);
+          } else {
+            response.complete(msg);
+          }
+        });
+      } else {
+        // 只实现了handleRequest的服务可能多次应答：第一次应答结束请求，之后的应答直接写出
+        requestService.handleRequest(packet, msg -> {
+          if (!response.complete(msg)) {
+            ctx.writeAndFlush(msg, ctx.voidPromise());
+          }
+        });
+      }
+    } catch (Exception e) {
+      timeout.cancel(false);
+      permit.release();
+      throw e;
+    }
+  }
+
+  private long startTime() {
+    return timed ? System.nanoTime() : 0;
+  }
+
+  private void recordLatency(Stage stage, short commandSpace, short command, long start) {
+    if (timed) {
+      metrics.recordLatency(stage, commandSpace, command, System.nanoTime() - start);
+    }
+  }
+
+  private static boolean overridesHandleRequestAsync(RequestService requestService) {
+    try {
+      return requestService.getClass().getMethod("handleRequestAsync", CDTPPacket.class).getDeclaringClass()
+          != RequestService.class;
+    } catch (NoSuchMethodException e) {
+      return false;
     }
   }
 
@@ -117,4 +245,27 @@ public class PacketHandler extends SimpleChannelInboundHandler<CDTPPacket> {
       throw new IllegalArgumentException("Sender and device ID must not be empty");
     }
   }
+
+  /**
+   * 一个请求占用的在途名额，请求完成、超时或出错时释放，只释放一次
+   */
+  private final class Permit {
+
+    private final Channel channel;
+    private final boolean acquired;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    private Permit(Channel channel) {
+      this.channel = channel;
+      this.acquired = inFlightLimiter.acquire(channel);
+    }
+
+    private boolean release() {
+      if (acquired && released.compareAndSet(false, true)) {
+        inFlightLimiter.release(channel);
+        return true;
+      }
+      return false;
+    }
+  }
 }
@@ -0,0 +1,157 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.syswin.temail.ps.server.handler;
+
+import static com.syswin.temail.ps.common.entity.CommandSpaceType.CHANNEL_CODE;
+import static com.syswin.temail.ps.common.entity.CommandType.INTERNAL_ERROR_CODE;
+
+import com.syswin.temail.ps.common.entity.CDTPPacket;
+import com.syswin.temail.ps.common.entity.CDTPProtoBuf.CDTPServerError;
+import com.syswin.temail.ps.common.exception.PacketException;
+import com.syswin.temail.ps.server.Constants;
+import com.syswin.temail.ps.server.service.AsyncPacketVerifier;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 异步验签阶段：验签在{@link AsyncPacketVerifier}的线程池中进行，I/O线程继续读取；验签结果回到channel所在的EventLoop，
+ * 按接收顺序依次放行，验签失败的数据包以{@link PacketException}交给后续handler处理，不会到达RequestService；
+ * 验签线程池已满而被拒绝的数据包直接以服务繁忙应答。
+ * 每个channel等待验签的数据包达到上限时暂停读取，降到一半以下时恢复。
+ * <p>
+ * 保存了channel的待验签队列，不可共享，每个channel一个实例
+ */
+@Slf4j
+public class PacketVerifyHandler extends ChannelInboundHandlerAdapter {
+
+  private final AsyncPacketVerifier packetVerifier;
+  private final int maxPendingPackets;
+  private final Deque<PendingPacket> pendingPackets = new ArrayDeque<>();
+
+  public PacketVerifyHandler(AsyncPacketVerifier packetVerifier, int maxPendingPackets) {
+    if (maxPendingPackets < 1) {
+      throw new IllegalArgumentException("Max pending packets must be positive: " + maxPendingPackets);
+    }
+    this.packetVerifier = packetVerifier;
+    this.maxPendingPackets = maxPendingPackets;
+  }
+
+  @Override
+  public void channelRead(ChannelHandlerContext ctx, Object msg) {
+    if (!(msg instanceof CDTPPacket)) {
+      ctx.fireChannelRead(msg);
+      return;
+    }
+
+    CDTPPacket packet = (CDTPPacket) msg;
+    CompletableFuture<Boolean> result = packetVerifier.verify(packet).toCompletableFuture();
+    if (pendingPackets.isEmpty() && result.isDone()) {
+      deliver(ctx, packet, result);
+      return;
+    }
+
+    pendingPackets.addLast(new PendingPacket(packet, result));
+    if (pendingPackets.size() >= maxPendingPackets) {
+      ReadSuspension.suspend(ctx.channel(), ReadSuspension.VERIFICATION);
+    }
+    result.whenComplete((verified, cause) -> drainLater(ctx));
+  }
+
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) {
+    pendingPackets.clear();
+    ctx.fireChannelInactive();
+  }
+
+  private void drainLater(ChannelHandlerContext ctx) {
+    try {
+      ctx.executor().execute(() -> drain(ctx));
+    } catch (RejectedExecutionException e) {
+      log.debug("Event loop of channel {} is shutting down, dropped pending packets", ctx.channel());
+    }
+  }
+
+  private void drain(ChannelHandlerContext ctx) {
+    PendingPacket head;
+    while ((head = pendingPackets.peekFirst()) != null && head.result.isDone()) {
+      pendingPackets.removeFirst();
+      deliver(ctx, head.packet, head.result);
+    }
+
+    if (pendingPackets.size() <= maxPendingPackets / 2) {
+      ReadSuspension.resume(ctx.channel(), ReadSuspension.VERIFICATION);
+    }
+  }
+
+  private void deliver(ChannelHandlerContext ctx, CDTPPacket packet, CompletableFuture<Boolean> result) {
+    try {
+      if (result.join()) {
+        ctx.fireChannelRead(packet);
+      } else {
+        ctx.fireExceptionCaught(new PacketException("Failed to verify packet signature", packet));
+      }
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RejectedExecutionException) {
+        rejectBusy(ctx, packet);
+      } else {
+        ctx.fireExceptionCaught(new PacketException("Failed to verify packet signature", e.getCause(), packet));
+      }
+    }
+  }
+
+  /**
+   * 验签线程池已满时没有验签，不能当作签名错误，以{@link Constants#HTTP_STATUS_SERVICE_UNAVAILABLE}应答，客户端稍后重试
+   */
+  private void rejectBusy(ChannelHandlerContext ctx, CDTPPacket packet) {
+    log.debug("Packet verifier is overloaded, rejected packet {} on channel {}",
+        packet.getHeader().getPacketId(), ctx.channel());
+    packet.setCommandSpace(CHANNEL_CODE);
+    packet.setCommand(INTERNAL_ERROR_CODE);
+    packet.setData(CDTPServerError.newBuilder()
+        .setCode(Constants.HTTP_STATUS_SERVICE_UNAVAILABLE)
+        .setDesc("Signature verification is overloaded, retry later")
+        .build()
+        .toByteArray());
+    ctx.writeAndFlush(packet, ctx.voidPromise());
+  }
+
+  private static final class PendingPacket {
+
+    private final CDTPPacket packet;
+    private final CompletableFuture<Boolean> result;
+
+    private PendingPacket(CDTPPacket packet, CompletableFuture<Boolean> result) {
+      this.packet = packet;
+      this.result = result;
+    }
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.syswin.temail.ps.server.handler;
+
+import io.netty.util.internal.MathUtil;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 无锁的限流状态表：每个键只占两个long，一个是键的64位指纹，一个是GCRA（通用信元速率算法，与令牌桶等价）的理论到达时间。
+ * 开放寻址，最多探测{@link #MAX_PROBES}个槽位。
+ * <p>
+ * 理论到达时间早于当前时间说明令牌桶已满，空闲超过idleNanos的槽位可以被新的键直接占用，不丢失任何限流状态，
+ * 因此不需要单独的过期清理。探测范围内没有可用槽位时返回{@link #NO_SLOT}，由调用方改用其他方式限流。
+ * 指纹相同的不同键共用一个令牌桶
+ */
+final class RateLimitTable {
+
+  static final int MAX_PROBES = 16;
+  static final long NO_SLOT = -1;
+
+  private final AtomicLongArray keys;
+  private final AtomicLongArray arrivals;
+  private final int mask;
+  private final long idleNanos;
+  // 使相对时间始终大于idleNanos，空槽位（到达时间为0）总是可以占用
+  private final long originNanos;
+
+  RateLimitTable(int capacity, long idleNanos) {
+    int size = MathUtil.findNextPositivePowerOfTwo(Math.max(capacity, MAX_PROBES));
+    this.keys = new AtomicLongArray(size);
+    this.arrivals = new AtomicLongArray(size);
+    this.mask = size - 1;
+    this.idleNanos = idleNanos;
+    this.originNanos = System.nanoTime() - idleNanos - 1;
+  }
+
+  /**
+   * @param key 键的指纹，不能为0
+   * @param intervalNanos 两个令牌之间的间隔
+   * @param toleranceNanos 允许的突发量对应的时间，即(burst - 1) * intervalNanos
+   * @return 0表示放行，{@link #NO_SLOT}表示探测范围内没有可用槽位，否则为获得下一个令牌需要等待的纳秒数
+   */
+  long acquire(long key, long intervalNanos, long toleranceNanos) {
+    return acquire(key, intervalNanos, toleranceNanos, System.nanoTime() - originNanos);
+  }
+
+  long acquire(long key, long intervalNanos, long toleranceNanos, long now) {
+    while (true) {
+      int slot = find(key, now);
+      if (slot < 0) {
+        return NO_SLOT;
+      }
+      long arrival = arrivals.get(slot);
+      long next = Math.max(arrival, now);
+      if (next - now > toleranceNanos) {
+        if (keys.get(slot) == key) {
+          return next - now - toleranceNanos;
+        }
+      } else if (arrivals.compareAndSet(slot, arrival, next + intervalNanos)) {
+        if (keys.get(slot) == key) {
+          return 0;
+        }
+        // 槽位在find之后被其他键复用，撤销对新键令牌桶的修改后重新查找
+        arrivals.compareAndSet(slot, next + intervalNanos, arrival);
+      }
+    }
+  }
+
+  private int find(long key, long now) {
+    int start = (int) (key ^ (key >>> 32)) & mask;
+    // 先找已有的槽位，避免同一个键占用两个槽位而绕过限流
+    for (int i = 0; i < MAX_PROBES; i++) {
+      int index = (start + i) & mask;
+      if (keys.get(index) == key) {
+        return index;
+      }
+    }
+    for (int i = 0; i < MAX_PROBES; i++) {
+      int index = (start + i) & mask;
+      long current = keys.get(index);
+      if ((current == 0 || arrivals.get(index) < now - idleNanos) && keys.compareAndSet(index, current, key)) {
+        return index;
+      }
+      if (keys.get(index) == key) {
+        return index;
+      }
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.syswin.temail.ps.server.handler;
+
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 多个handler共同控制channel的autoRead。每个暂停原因占一位，重复暂停或恢复同一原因没有副作用；
+ * 任一原因暂停时关闭读取，所有原因都解除后才恢复，一个handler不会恢复被另一个handler暂停的channel。
+ * <p>
+ * autoRead总在channel的EventLoop上按最新的暂停状态设置，不同线程并发暂停、恢复时不会因执行顺序交错而停留在错误的状态
+ */
+final class ReadSuspension {
+
+  static final int IN_FLIGHT = 1;
+  static final int VERIFICATION = 1 << 1;
+  static final int RATE_LIMIT = 1 << 2;
+
+  private static final AttributeKey<AtomicInteger> REASONS = AttributeKey.valueOf("readSuspensionReasons");
+
+  private ReadSuspension() {
+  }
+
+  /**
+   * @return 该原因之前是否没有暂停读取
+   */
+  static boolean suspend(Channel channel, int reason) {
+    AtomicInteger reasons = reasons(channel);
+    int previous = reasons.getAndAccumulate(reason, (current, bit) -> current | bit);
+    if ((previous & reason) != 0) {
+      return false;
+    }
+    if (previous == 0) {
+      apply(channel, reasons);
+    }
+    return true;
+  }
+
+  /**
+   * @return 该原因之前是否暂停了读取
+   */
+  static boolean resume(Channel channel, int reason) {
+    AtomicInteger reasons = reasons(channel);
+    int previous = reasons.getAndAccumulate(reason, (current, bit) -> current & ~bit);
+    if ((previous & reason) == 0) {
+      return false;
+    }
+    if (previous == reason) {
+      apply(channel, reasons);
+    }
+    return true;
+  }
+
+  static boolean isSuspended(Channel channel, int reason) {
+    return (reasons(channel).get() & reason) != 0;
+  }
+
+  private static void apply(Channel channel, AtomicInteger reasons) {
+    if (channel.eventLoop().inEventLoop()) {
+      channel.config().setAutoRead(reasons.get() == 0);
+      return;
+    }
+    try {
+      channel.eventLoop().execute(() -> channel.config().setAutoRead(reasons.get() == 0));
+    } catch (RejectedExecutionException e) {
+      // EventLoop正在关闭，channel随之关闭，无需再设置
+    }
+  }
+
+  private static AtomicInteger reasons(Channel channel) {
+    AtomicInteger reasons = channel.attr(REASONS).get();
+    if (reasons == null) {
+      AtomicInteger created = new AtomicInteger();
+      reasons = channel.attr(REASONS).setIfAbsent(created);
+      if (reasons == null) {
+        reasons = created;
+      }
+    }
+    return reasons;
+  }
+}
@@ -0,0 +1,273 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.syswin.temail.ps.server.handler;
+
+import static com.syswin.temail.ps.common.entity.CommandSpaceType.CHANNEL_CODE;
+import static com.syswin.temail.ps.common.entity.CommandType.INTERNAL_ERROR_CODE;
+
+import com.syswin.temail.ps.common.entity.CDTPHeader;
+import com.syswin.temail.ps.common.entity.CDTPPacket;
+import com.syswin.temail.ps.common.entity.CDTPProtoBuf.CDTPServerError;
+import com.syswin.temail.ps.common.entity.CommandSpaceType;
+import com.syswin.temail.ps.server.Constants;
+import com.syswin.temail.ps.server.service.channels.strategy.ChannelManager;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.AttributeKey;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 按会话（temail与设备）和commandSpace做令牌桶限流，各commandSpace的速率单独配置，没有配置的不限流；
+ * CHANNEL（登录、登出、心跳）始终不限流。
+ * <p>
+ * 头部中的发送方在验签之前不可信，只有已绑定到当前channel的会话（见{@link #sessions(ChannelManager)}）按temail和设备计算，
+ * 其余数据包按channel计算，伪造的发送方只会消耗自己channel的令牌。限流表在探测范围内没有可用槽位时同样改为按channel计算，
+ * 表满时不会放行。
+ * <p>
+ * 超过速率的数据包不再交给后续handler处理，直接以INTERNAL_ERROR应答，错误码为{@link Constants#HTTP_STATUS_TOO_MANY_REQUESTS}；
+ * 开启{@link #pauseReads(boolean)}时同时暂停读取该channel，直到下一个令牌可用。
+ * 限流状态保存在紧凑的无锁表中，长时间空闲的条目自动被新的键复用。
+ * <p>
+ * 放在解码器之后、验签和业务处理之前，在EventLoop上直接拒绝，不占用验签和业务线程
+ */
+@Slf4j
+@Sharable
+public class RequestRateLimiter extends ChannelInboundHandlerAdapter {
+
+  public static final int DEFAULT_MAX_ENTRIES = 1 << 16;
+  public static final long DEFAULT_IDLE_TIMEOUT_SECONDS = 60;
+  // 区分按channel计算的键与按会话计算的键
+  private static final long CHANNEL_KEY_SEED = 0x5bd1e9955bd1e995L;
+  private static final AttributeKey<long[]> CHANNEL_ARRIVALS = AttributeKey.valueOf("rateLimitChannelArrivals");
+
+  private final RateLimitTable table;
+  private final Limit[] limits = new Limit[CommandSpaceType.values().length];
+  private final LongAdder rejected = new LongAdder();
+  private final long originNanos = System.nanoTime();
+  // 字符串哈希的随机种子，使客户端无法离线构造与其他会话相同的键
+  private final long hashSeed = ThreadLocalRandom.current().nextLong();
+  private Limit otherLimit;
+  private boolean pauseReads;
+  private ChannelManager sessions;
+
+  public RequestRateLimiter() {
+    this(DEFAULT_MAX_ENTRIES, DEFAULT_IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+  }
+
+  /**
+   * @param maxEntries 限流表的槽位数，会向上取整为2的幂，每个槽位占16字节
+   * @param idleTimeout 空闲多久之后条目可以被其他键复用
+   */
+  public RequestRateLimiter(int maxEntries, long idleTimeout, TimeUnit unit) {
+    if (maxEntries < 1 || idleTimeout < 0) {
+      throw new IllegalArgumentException(
+          "Invalid rate limiter: maxEntries=" + maxEntries + ", idleTimeout=" + idleTimeout);
+    }
+    this.table = new RateLimitTable(maxEntries, unit.toNanos(idleTimeout));
+  }
+
+  /**
+   * 限制每个temail的每个设备在该commandSpace上的请求速率
+   *
+   * @param commandSpace 命令空间，不能是CHANNEL
+   * @param permitsPerSecond 每秒允许的请求数
+   * @param burst 允许的突发请求数
+   * @return 当前RequestRateLimiter
+   */
+  public RequestRateLimiter limit(CommandSpaceType commandSpace, double permitsPerSecond, int burst) {
+    if (commandSpace.getCode() == CHANNEL_CODE) {
+      throw new IllegalArgumentException("Command space CHANNEL is never rate limited");
+    }
+    limits[commandSpace.getCode()] = new Limit(permitsPerSecond, burst);
+    return this;
+  }
+
+  /**
+   * 限制{@link CommandSpaceType}中没有单独配置的（CHANNEL除外）以及自定义的commandSpace，每个commandSpace分别计算
+   *
+   * @return 当前RequestRateLimiter
+   */
+  public RequestRateLimiter limitOthers(double permitsPerSecond, int burst) {
+    this.otherLimit = new Limit(permitsPerSecond, burst);
+    return this;
+  }
+
+  /**
+   * @param pauseReads 超过速率时是否暂停读取该channel，直到下一个令牌可用
+   * @return 当前RequestRateLimiter
+   */
+  public RequestRateLimiter pauseReads(boolean pauseReads) {
+    this.pauseReads = pauseReads;
+    return this;
+  }
+
+  /**
+   * 通过{@link com.syswin.temail.ps.server.GatewayServer#rateLimitRequests(RequestRateLimiter)}开启限流时，
+   * sessionService为{@link com.syswin.temail.ps.server.service.AbstractSessionService}则自动设置
+   *
+   * @param sessions 会话管理，用于判断数据包的发送方是否已绑定到当前channel，不设置时全部按channel计算
+   * @return 当前RequestRateLimiter
+   */
+  public RequestRateLimiter sessions(ChannelManager sessions) {
+    this.sessions = sessions;
+    return this;
+  }
+
+  /**
+   * @return 被拒绝的数据包数量
+   */
+  public long rejected() {
+    return rejected.sum();
+  }
+
+  @Override
+  public void channelRead(ChannelHandlerContext ctx, Object msg) {
+    if (msg instanceof CDTPPacket) {
+      CDTPPacket packet = (CDTPPacket) msg;
+      Limit limit = limitOf(packet.getCommandSpace());
+      if (limit != null) {
+        long waitNanos = acquire(ctx.channel(), packet, limit);
+        if (waitNanos > 0) {
+          reject(ctx, packet, waitNanos);
+          return;
+        }
+      }
+    }
+    ctx.fireChannelRead(msg);
+  }
+
+  private Limit limitOf(short commandSpace) {
+    if (commandSpace == CHANNEL_CODE) {
+      return null;
+    }
+    Limit limit = commandSpace >= 0 && commandSpace < limits.length ? limits[commandSpace] : null;
+    return limit == null ? otherLimit : limit;
+  }
+
+  private long acquire(Channel channel, CDTPPacket packet, Limit limit) {
+    short commandSpace = packet.getCommandSpace();
+    long waitNanos = table.acquire(keyOf(channel, packet.getHeader(), commandSpace),
+        limit.intervalNanos, limit.toleranceNanos);
+    return waitNanos == RateLimitTable.NO_SLOT ? acquireOnChannel(channel, commandSpace, limit) : waitNanos;
+  }
+
+  private long keyOf(Channel channel, CDTPHeader header, short commandSpace) {
+    ChannelManager sessions = this.sessions;
+    if (sessions != null && header != null && header.getSender() != null && header.getDeviceId() != null
+        && sessions.hasSession(header.getSender(), header.getDeviceId(), channel)) {
+      return keyOf(hash64(header.getSender()), hash64(header.getDeviceId()), commandSpace);
+    }
+    return keyOf(System.identityHashCode(channel), CHANNEL_KEY_SEED, commandSpace);
+  }
+
+  /**
+   * 限流表没有可用槽位时的后备令牌桶，保存在channel上。本handler只在channel的EventLoop上调用，不需要同步
+   */
+  private long acquireOnChannel(Channel channel, short commandSpace, Limit limit) {
+    long[] arrivals = channel.attr(CHANNEL_ARRIVALS).get();
+    if (arrivals == null) {
+      arrivals = new long[limits.length + 1];
+      channel.attr(CHANNEL_ARRIVALS).set(arrivals);
+    }
+    // 自定义的commandSpace共用最后一个令牌桶
+    int index = commandSpace >= 0 && commandSpace < limits.length ? commandSpace : limits.length;
+    long now = System.nanoTime() - originNanos;
+    long next = Math.max(arrivals[index], now);
+    if (next - now > limit.toleranceNanos) {
+      return next - now - limit.toleranceNanos;
+    }
+    arrivals[index] = next + limit.intervalNanos;
+    return 0;
+  }
+
+  private void reject(ChannelHandlerContext ctx, CDTPPacket packet, long waitNanos) {
+    rejected.increment();
+    long waitMillis = TimeUnit.NANOSECONDS.toMillis(waitNanos) + 1;
+    log.debug("Rate limited packet in command space {} on channel {}, retry after {} ms",
+        packet.getCommandSpace(), ctx.channel(), waitMillis);
+
+    packet.setCommandSpace(CHANNEL_CODE);
+    packet.setCommand(INTERNAL_ERROR_CODE);
+    packet.setData(CDTPServerError.newBuilder()
+        .setCode(Constants.HTTP_STATUS_TOO_MANY_REQUESTS)
+        .setDesc("Too many requests, retry after " + waitMillis + " ms")
+        .build()
+        .toByteArray());
+    ctx.writeAndFlush(packet, ctx.voidPromise());
+
+    Channel channel = ctx.channel();
+    if (pauseReads && ReadSuspension.suspend(channel, ReadSuspension.RATE_LIMIT)) {
+      ctx.executor().schedule(() -> ReadSuspension.resume(channel, ReadSuspension.RATE_LIMIT),
+          waitNanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * 带种子的64位字符串哈希，逐个字符混合，不使用碰撞容易构造的{@link String#hashCode()}
+   */
+  private long hash64(String value) {
+    long h = hashSeed ^ value.length();
+    for (int i = 0; i < value.length(); i++) {
+      h = fmix64(h ^ value.charAt(i));
+    }
+    return h;
+  }
+
+  private static long keyOf(long first, long second, short commandSpace) {
+    long h = fmix64(first) * 0x9E3779B97F4A7C15L + second;
+    h = fmix64(h ^ commandSpace * 0xC2B2AE3D27D4EB4FL);
+    return h == 0 ? 1 : h;
+  }
+
+  // MurmurHash3的fmix64
+  private static long fmix64(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  private static final class Limit {
+
+    private final long intervalNanos;
+    private final long toleranceNanos;
+
+    private Limit(double permitsPerSecond, int burst) {
+      if (!(permitsPerSecond > 0) || burst < 1) {
+        throw new IllegalArgumentException(
+            "Invalid rate limit: permitsPerSecond=" + permitsPerSecond + ", burst=" + burst);
+      }
+      this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+      this.toleranceNanos = intervalNanos * (burst - 1);
+    }
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.syswin.temail.ps.server.metrics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 以(commandSpace, command)为键的无锁开放寻址表，查找已有的值时不分配对象。
+ * 键的数量达到上限后，新的命令都归入同一个溢出值（commandSpace与command均为-1），避免客户端发送任意命令导致指标无限增长
+ */
+final class CommandTable<T> {
+
+  static final short OVERFLOW = -1;
+  static final int DEFAULT_MAX_COMMANDS = 1024;
+
+  private final AtomicReferenceArray<Entry<T>> entries;
+  private final int mask;
+  private final int maxCommands;
+  private final AtomicInteger size = new AtomicInteger();
+  private final Factory<T> factory;
+  private volatile T overflow;
+
+  CommandTable(Factory<T> factory) {
+    this(DEFAULT_MAX_COMMANDS, factory);
+  }
+
+  CommandTable(int maxCommands, Factory<T> factory) {
+    // 负载因子不超过0.5，并发插入略微超出上限时仍有空槽
+    int capacity = Integer.highestOneBit(Math.max(2, maxCommands) - 1) << 2;
+    this.entries = new AtomicReferenceArray<>(capacity);
+    this.mask = capacity - 1;
+    this.maxCommands = maxCommands;
+    this.factory = factory;
+  }
+
+  T get(short commandSpace, short command) {
+    int key = commandSpace << 16 | command & 0xffff;
+    int index = mix(key) & mask;
+    while (true) {
+      Entry<T> entry = entries.get(index);
+      if (entry == null) {
+        if (size.get() >= maxCommands) {
+          return overflow();
+        }
+        entry = new Entry<>(key, factory.create(commandSpace, command));
+        if (entries.compareAndSet(index, null, entry)) {
+          size.incrementAndGet();
+          return entry.value;
+        }
+        entry = entries.get(index);
+      }
+      if (entry.key == key) {
+        return entry.value;
+      }
+      index = (index + 1) & mask;
+    }
+  }
+
+  /**
+   * 遍历所有的值，包括溢出值
+   */
+  void forEach(Visitor<T> visitor) {
+    for (int i = 0; i < entries.length(); i++) {
+      Entry<T> entry = entries.get(i);
+      if (entry != null) {
+        visitor.visit((short) (entry.key >> 16), (short) entry.key, entry.value);
+      }
+    }
+    T value = overflow;
+    if (value != null) {
+      visitor.visit(OVERFLOW, OVERFLOW, value);
+    }
+  }
+
+  private T overflow() {
+    T value = overflow;
+    if (value == null) {
+      synchronized (this) {
+        value = overflow;
+        if (value == null) {
+          value = factory.create(OVERFLOW, OVERFLOW);
+          overflow = value;
+        }
+      }
+    }
+    return value;
+  }
+
+  private static int mix(int key) {
+    int h = key * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  @FunctionalInterface
+  interface Factory<T> {
+
+    T create(short commandSpace, short command);
+  }
+
+  @FunctionalInterface
+  interface Visitor<T> {
+
+    void visit(short commandSpace, short command, T value);
+  }
+
+  private static final class Entry<T> {
+
+    private final int key;
+    private final T value;
+
+    private Entry(int key, T value) {
+      this.key = key;
+      this.value = value;
+    }
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.syswin.temail.ps.server.metrics;
+
+import com.syswin.temail.ps.server.service.channels.strategy.ChannelManager;
+
+/**
+ * 网关指标的SPI，默认为{@link #NOOP}。
+ * <p>
+ * 除register开头的方法外，其余方法都在EventLoop或业务线程的热路径上调用，实现不能阻塞，也不应分配对象，
+ * 如{@link StripedGatewayMetrics}和{@link MicrometerGatewayMetrics}按命令缓存统计对象，计数使用分段计数器
+ */
+public interface GatewayMetrics {
+
+  /**
+   * 不记录任何指标，框架在使用NOOP时不读取时钟
+   */
+  GatewayMetrics NOOP = new GatewayMetrics() {
+  };
+
+  /**
+   * 记录一次处理耗时
+   *
+   * @param stage 处理阶段
+   * @param commandSpace 命令空间
+   * @param command 命令
+   * @param nanos 耗时（纳秒）
+   */
+  default void recordLatency(Stage stage, short commandSpace, short command, long nanos) {
+  }
+
+  default void channelActive() {
+  }
+
+  default void channelInactive() {
+  }
+
+  default void sessionEvent(SessionEvent event) {
+  }
+
+  /**
+   * 记录一次{@link io.netty.channel.ChannelInboundHandler#exceptionCaught}
+   */
+  default void exceptionCaught() {
+  }
+
+  /**
+   * 记录一个EventLoop的采样，由{@link com.syswin.temail.ps.server.handler.EventLoopMonitor}在后台线程中定期调用
+   */
+  default void recordEventLoop(EventLoopSample sample) {
+  }
+
+  /**
+   * 注册会话管理器，以{@link ChannelManager#sessionCount()}作为会话数量的指标
+   *
+   * @param name 会话管理器的名称
+   * @param channelManager 会话管理器
+   */
+  default void registerChannelManager(String name, ChannelManager channelManager) {
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.syswin.temail.ps.server.metrics;
+
+import com.syswin.temail.ps.server.service.channels.strategy.ChannelManager;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.Timer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 将网关指标输出到Micrometer，需要自行引入micrometer-core依赖。
+ * <ul>
+ * <li>temail.gateway.latency：Timer，标签为stage、commandSpace、command（16进制），发布百分位直方图</li>
+ * <li>temail.gateway.channels.active：当前连接数</li>
+ * <li>temail.gateway.sessions：会话数量，标签为manager</li>
+ * <li>temail.gateway.session.events：会话事件计数，标签为event</li>
+ * <li>temail.gateway.exceptions：exceptionCaught次数</li>
+ * <li>temail.gateway.eventloop.pending、temail.gateway.eventloop.lag、temail.gateway.eventloop.channels：
+ * 每个EventLoop最近一次采样的待执行任务数、调度延迟和活跃channel数，标签为loop</li>
+ * </ul>
+ * Timer和Counter在首次使用时创建并按命令缓存，之后记录时不再查找注册表；超过上限的命令合并为command=other
+ */
+public class MicrometerGatewayMetrics implements GatewayMetrics {
+
+  public static final String LATENCY = "temail.gateway.latency";
+  public static final String ACTIVE_CHANNELS = "temail.gateway.channels.active";
+  public static final String SESSIONS = "temail.gateway.sessions";
+  public static final String SESSION_EVENTS = "temail.gateway.session.events";
+  public static final String EXCEPTIONS = "temail.gateway.exceptions";
+  public static final String EVENT_LOOP_PENDING = "temail.gateway.eventloop.pending";
+  public static final String EVENT_LOOP_LAG = "temail.gateway.eventloop.lag";
+  public static final String EVENT_LOOP_CHANNELS = "temail.gateway.eventloop.channels";
+
+  private static final String OTHER = "other";
+
+  private final MeterRegistry registry;
+  private final CommandTable<Timer>[] timers;
+  private final LongAdder activeChannels = new LongAdder();
+  private final Counter[] sessionEvents = new Counter[SessionEvent.values().length];
+  private final Counter exceptions;
+  private final Map<Integer, AtomicReference<EventLoopSample>> eventLoops = new ConcurrentHashMap<>();
+
+  @SuppressWarnings("unchecked")
+  public MicrometerGatewayMetrics(MeterRegistry registry) {
+    this.registry = registry;
+    Stage[] stages = Stage.values();
+    timers = new CommandTable[stages.length];
+    for (Stage stage : stages) {
+      String stageName = stage.name().toLowerCase(Locale.ROOT);
+      timers[stage.ordinal()] = new CommandTable<>((commandSpace, command) -> Timer.builder(LATENCY)
+          .tag("stage", stageName)
+          .tag("commandSpace", tagOf(commandSpace))
+          .tag("command", tagOf(command))
+          .publishPercentileHistogram()
+          .register(registry));
+    }
+    Gauge.builder(ACTIVE_CHANNELS, activeChannels, LongAdder::sum).register(registry);
+    for (SessionEvent event : SessionEvent.values()) {
+      sessionEvents[event.ordinal()] = Counter.builder(SESSION_EVENTS)
+          .tag("event", event.name().toLowerCase(Locale.ROOT))
+          .register(registry);
+    }
+    exceptions = Counter.builder(EXCEPTIONS).register(registry);
+  }
+
+  @Override
+  public void recordLatency(Stage stage, short commandSpace, short command, long nanos) {
+    timers[stage.ordinal()].get(commandSpace, command).record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public void channelActive() {
+    activeChannels.increment();
+  }
+
+  @Override
+  public void channelInactive() {
+    activeChannels.decrement();
+  }
+
+  @Override
+  public void sessionEvent(SessionEvent event) {
+    sessionEvents[event.ordinal()].increment();
+  }
+
+  @Override
+  public void exceptionCaught() {
+    exceptions.increment();
+  }
+
+  @Override
+  public void recordEventLoop(EventLoopSample sample) {
+    eventLoops.computeIfAbsent(sample.getIndex(), this::registerEventLoop).set(sample);
+  }
+
+  @Override
+  public void registerChannelManager(String name, ChannelManager channelManager) {
+    Gauge.builder(SESSIONS, channelManager, ChannelManager::sessionCount)
+        .tag("manager", name)
+        .register(registry);
+  }
+
+  private AtomicReference<EventLoopSample> registerEventLoop(int index) {
+    AtomicReference<EventLoopSample> latest = new AtomicReference<>(new EventLoopSample(index, 0, 0, 0));
+    String loop = String.valueOf(index);
+    Gauge.builder(EVENT_LOOP_PENDING, latest, ref -> ref.get().getPendingTasks())
+        .tag("loop", loop)
+        .register(registry);
+    TimeGauge.builder(EVENT_LOOP_LAG, latest, TimeUnit.NANOSECONDS, ref -> ref.get().getLagNanos())
+        .tag("loop", loop)
+        .register(registry);
+    Gauge.builder(EVENT_LOOP_CHANNELS, latest, ref -> ref.get().getChannels())
+        .tag("loop", loop)
+        .register(registry);
+    return latest;
+  }
+
+  private static String tagOf(short code) {
+    return code == CommandTable.OVERFLOW ? OTHER : Integer.toHexString(code);
+  }
+}
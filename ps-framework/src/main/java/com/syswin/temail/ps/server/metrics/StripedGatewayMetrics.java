@@ -0,0 +1,141 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.syswin.temail.ps.server.metrics;
+
+import com.syswin.temail.ps.server.service.channels.strategy.ChannelManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * 进程内的指标实现，不依赖第三方库：耗时按(阶段, commandSpace, command)记录到{@link LatencyHistogram}，计数使用{@link LongAdder}。
+ * 通过查询方法按需读取，可以由业务定期输出到日志或自己的监控系统
+ */
+public class StripedGatewayMetrics implements GatewayMetrics {
+
+  private final CommandTable<LatencyHistogram>[] latencies;
+  private final LongAdder activeChannels = new LongAdder();
+  private final LongAdder[] sessionEvents = new LongAdder[SessionEvent.values().length];
+  private final LongAdder exceptions = new LongAdder();
+  private final Map<String, ChannelManager> channelManagers = new ConcurrentHashMap<>();
+  private final Map<Integer, EventLoopSample> eventLoops = new ConcurrentHashMap<>();
+
+  @SuppressWarnings("unchecked")
+  public StripedGatewayMetrics() {
+    latencies = new CommandTable[Stage.values().length];
+    for (int i = 0; i < latencies.length; i++) {
+      latencies[i] = new CommandTable<>((commandSpace, command) -> new LatencyHistogram());
+    }
+    for (int i = 0; i < sessionEvents.length; i++) {
+      sessionEvents[i] = new LongAdder();
+    }
+  }
+
+  @Override
+  public void recordLatency(Stage stage, short commandSpace, short command, long nanos) {
+    latencies[stage.ordinal()].get(commandSpace, command).record(nanos);
+  }
+
+  @Override
+  public void channelActive() {
+    activeChannels.increment();
+  }
+
+  @Override
+  public void channelInactive() {
+    activeChannels.decrement();
+  }
+
+  @Override
+  public void sessionEvent(SessionEvent event) {
+    sessionEvents[event.ordinal()].increment();
+  }
+
+  @Override
+  public void exceptionCaught() {
+    exceptions.increment();
+  }
+
+  @Override
+  public void recordEventLoop(EventLoopSample sample) {
+    eventLoops.put(sample.getIndex(), sample);
+  }
+
+  @Override
+  public void registerChannelManager(String name, ChannelManager channelManager) {
+    channelManagers.put(name, channelManager);
+  }
+
+  /**
+   * @return 指定命令在该阶段的耗时直方图（纳秒），没有记录时返回空的直方图
+   */
+  public LatencyHistogram latency(Stage stage, short commandSpace, short command) {
+    return latencies[stage.ordinal()].get(commandSpace, command);
+  }
+
+  /**
+   * 遍历该阶段所有记录过的命令，命令数量超过上限后的命令合并在commandSpace、command均为-1的直方图中
+   */
+  public void forEachLatency(Stage stage, LatencyVisitor visitor) {
+    latencies[stage.ordinal()].forEach(visitor::visit);
+  }
+
+  public long activeChannels() {
+    return activeChannels.sum();
+  }
+
+  public long sessionEvents(SessionEvent event) {
+    return sessionEvents[event.ordinal()].sum();
+  }
+
+  public long exceptions() {
+    return exceptions.sum();
+  }
+
+  /**
+   * @return 每个EventLoop最近一次的采样，按序号排列
+   */
+  public List<EventLoopSample> eventLoops() {
+    List<EventLoopSample> samples = new ArrayList<>(eventLoops.values());
+    samples.sort((a, b) -> Integer.compare(a.getIndex(), b.getIndex()));
+    return samples;
+  }
+
+  /**
+   * @param consumer 接收会话管理器名称与当前会话数量
+   */
+  public void forEachSessionCount(BiConsumer<String, Long> consumer) {
+    channelManagers.forEach((name, channelManager) -> consumer.accept(name, channelManager.sessionCount()));
+  }
+
+  @FunctionalInterface
+  public interface LatencyVisitor {
+
+    void visit(short commandSpace, short command, LatencyHistogram histogram);
+  }
+}
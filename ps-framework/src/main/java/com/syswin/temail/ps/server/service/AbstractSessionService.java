@@ -29,10 +29,15 @@ import com.syswin.temail.ps.common.entity.CDTPHeader;
 import com.syswin.temail.ps.common.entity.CDTPPacket;
 import com.syswin.temail.ps.common.entity.CDTPProtoBuf.CDTPLoginResp;
 import com.syswin.temail.ps.common.entity.CDTPProtoBuf.CDTPLogoutResp;
+import com.syswin.temail.ps.common.packet.PacketCompressor;
 import com.syswin.temail.ps.server.Constants;
+import com.syswin.temail.ps.server.codec.CDTPPacketEncoder;
 import com.syswin.temail.ps.server.entity.Session;
+import com.syswin.temail.ps.server.metrics.GatewayMetrics;
+import com.syswin.temail.ps.server.metrics.SessionEvent;
 import com.syswin.temail.ps.server.service.channels.strategy.ChannelManager;
 import com.syswin.temail.ps.server.service.channels.strategy.one2one.ChannelManagerOne2One;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.Channel;
 import java.util.Collection;
 import java.util.function.Consumer;
@@ -44,7 +49,42 @@ import lombok.extern.slf4j.Slf4j;
 public abstract class AbstractSessionService implements SessionService {
 
   @Getter
-  private final ChannelManager channelHolder = new ChannelManagerOne2One();
+  private final ChannelManager channelHolder;
+  private volatile PacketBroadcaster broadcaster = new PacketBroadcaster();
+  private volatile GatewayMetrics metrics = GatewayMetrics.NOOP;
+
+  protected AbstractSessionService() {
+    this(new ChannelManagerOne2One());
+  }
+
+  /**
+   * @param channelHolder 会话管理策略，如{@link ChannelManagerOne2One}或高并发场景下的
+   * {@link com.syswin.temail.ps.server.service.channels.strategy.sharded.ChannelManagerSharded}
+   */
+  protected AbstractSessionService(ChannelManager channelHolder) {
+    this.channelHolder = channelHolder;
+  }
+
+  /**
+   * 统计登录、绑定、登出事件，并以会话管理器的类名注册会话数量指标。
+   * 通过{@link com.syswin.temail.ps.server.GatewayServer#metrics(GatewayMetrics)}开启指标时自动设置
+   *
+   * @param metrics 指标
+   */
+  public void setMetrics(GatewayMetrics metrics) {
+    this.metrics = metrics;
+    metrics.registerChannelManager(channelHolder.getClass().getSimpleName(), channelHolder);
+  }
+
+  /**
+   * 推送时压缩包体，压缩结果只写入声明支持压缩的通道。
+   * 通过{@link com.syswin.temail.ps.server.GatewayServer#compression(PacketCompressor)}开启压缩时自动设置
+   *
+   * @param compressor 包体压缩器
+   */
+  public void setCompressor(PacketCompressor compressor) {
+    this.broadcaster = new PacketBroadcaster(ByteBufAllocator.DEFAULT, CDTPPacketEncoder::writePacket, compressor);
+  }
 
   protected void loginExtAsync(CDTPPacket reqPacket, Function<CDTPPacket, Collection<Session>> successHandler,
       Consumer<CDTPPacket> failedHandler) {
@@ -74,11 +114,13 @@ public abstract class AbstractSessionService implements SessionService {
           log.info("User {} on device {} logged in on channel {} successfully", header.getSender(), header.getDeviceId(), channel);
           Collection<Session> sessions = channelHolder.addSession(header.getSender(), header.getDeviceId(), channel);
           channel.writeAndFlush(respPacket, channel.voidPromise());
+          metrics.sessionEvent(SessionEvent.LOGIN);
           return sessions;
         },
         msg -> {
           log.info("User {} on device {} logged in on channel {} failed", header.getSender(), header.getDeviceId(), channel);
           channel.writeAndFlush(msg, channel.voidPromise());
+          metrics.sessionEvent(SessionEvent.LOGIN_FAILED);
         });
   }
 
@@ -94,6 +136,7 @@ public abstract class AbstractSessionService implements SessionService {
     loginExtAsync(reqPacket,
         respPacket -> {
           log.info("User {} on device {} bound to channel {} successfully", temail, deviceId, channel);
+          metrics.sessionEvent(SessionEvent.BIND);
           return channelHolder.addSession(temail, deviceId, channel);
         },
         respPacket -> {
@@ -109,6 +152,7 @@ public abstract class AbstractSessionService implements SessionService {
     CDTPPacket respPacket = new CDTPPacket(packet);
     logoutExt(packet, respPacket);
     channel.writeAndFlush(respPacket, channel.voidPromise());
+    metrics.sessionEvent(SessionEvent.LOGOUT);
     log.info("User {} on device {} logged out on channel {} successfully", header.getSender(), header.getDeviceId(), channel);
   }
 
@@ -119,6 +163,26 @@ public abstract class AbstractSessionService implements SessionService {
     disconnectExt(sessions);
   }
 
+  /**
+   * 将数据包推送到temail登录的所有设备，数据包只编码一次
+   *
+   * @param temail 接收方temail
+   * @param packet 推送的数据包
+   * @return 实际推送的通道数量
+   */
+  public int pushToTemail(String temail, CDTPPacket packet) {
+    return broadcaster.broadcast(packet, channelHolder.getChannels(temail));
+  }
+
+  /**
+   * 将数据包推送到receiver登录的所有设备，receiver与sender相同时排除发送方设备，数据包只编码一次
+   *
+   * @return 实际推送的通道数量
+   */
+  public int pushToTemailExceptSender(String receiver, String sender, String senderDeviceId, CDTPPacket packet) {
+    return broadcaster.broadcast(packet, channelHolder.getChannelsExceptSenderN(receiver, sender, senderDeviceId));
+  }
+
   private boolean hasSession(Channel channel, String temail, String deviceId) {
     return isNotEmpty(temail) && isNotEmpty(deviceId)
         && channelHolder.hasSession(temail, deviceId, channel);
@@ -0,0 +1,95 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.syswin.temail.ps.server.service;
+
+import com.syswin.temail.ps.common.entity.CDTPHeader;
+import com.syswin.temail.ps.common.entity.CDTPPacket;
+import com.syswin.temail.ps.common.packet.PacketVerifier;
+import com.syswin.temail.ps.server.Stoppable;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在独立的有界线程池中执行验签，避免RSA/ECC/SM2等耗CPU的运算阻塞Netty I/O线程。
+ * 未签名的数据包不会提交到线程池，直接视为验签通过。
+ */
+public class AsyncPacketVerifier implements Stoppable {
+
+  private static final CompletableFuture<Boolean> UNSIGNED = CompletableFuture.completedFuture(true);
+
+  private final PacketVerifier packetVerifier;
+  private final ExecutorService executor;
+
+  /**
+   * @param workerThreads 验签线程数
+   * @param queueCapacity 等待验签的最大数据包数量，队列满时验签以{@link RejectedExecutionException}失败
+   */
+  public AsyncPacketVerifier(PacketVerifier packetVerifier, int workerThreads, int queueCapacity) {
+    this(packetVerifier, new ThreadPoolExecutor(workerThreads, workerThreads, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(queueCapacity), new DefaultThreadFactory("packet-verifier", true)));
+  }
+
+  public AsyncPacketVerifier(PacketVerifier packetVerifier, ExecutorService executor) {
+    this.packetVerifier = packetVerifier;
+    this.executor = executor;
+  }
+
+  public CompletionStage<Boolean> verify(CDTPPacket packet) {
+    if (!isSigned(packet)) {
+      return UNSIGNED;
+    }
+
+    CompletableFuture<Boolean> future = new CompletableFuture<>();
+    try {
+      executor.execute(() -> {
+        try {
+          future.complete(packetVerifier.verify(packet));
+        } catch (Throwable e) {
+          future.completeExceptionally(e);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
+  @Override
+  public void stop() {
+    executor.shutdown();
+  }
+
+  private static boolean isSigned(CDTPPacket packet) {
+    CDTPHeader header = packet.getHeader();
+    return header != null && header.getSignatureAlgorithm() != 0;
+  }
+}
@@ -0,0 +1,169 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.syswin.temail.ps.server.service;
+
+import static com.syswin.temail.ps.common.Constants.LENGTH_FIELD_LENGTH;
+
+import com.syswin.temail.ps.common.entity.CDTPPacket;
+import com.syswin.temail.ps.common.packet.PacketCompressor;
+import com.syswin.temail.ps.server.codec.CDTPPacketEncoder;
+import com.syswin.temail.ps.server.handler.PacketCompressionHandler;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 将同一个数据包推送到多个通道：数据包只编码一次，各通道写入共享缓冲区的retainedDuplicate；
+ * 目标通道按EventLoop分组，每个EventLoop只提交一个任务，在其中完成写入并各刷新一次。
+ * <p>
+ * 写入的是包含长度前缀的完整编码结果，不经过通道上的编码器，因此编码格式需要与通道上的
+ * 编码器保持一致，默认使用{@link CDTPPacketEncoder}。长度前缀由LengthFieldPrepender写入的通道
+ * （见{@link CDTPPacketEncoder#isLengthFieldPrepended(Channel)}）写入去掉前缀的切片。
+ * <p>
+ * 指定压缩器时，数据包最多压缩一次，压缩结果只写入声明支持压缩的通道（见{@link PacketCompressionHandler}），
+ * 其余通道写入未压缩的编码结果。
+ */
+@Slf4j
+public class PacketBroadcaster {
+
+  private final ByteBufAllocator allocator;
+  private final BiConsumer<CDTPPacket, ByteBuf> packetWriter;
+  private final PacketCompressor compressor;
+
+  public PacketBroadcaster() {
+    this(ByteBufAllocator.DEFAULT, CDTPPacketEncoder::writePacket);
+  }
+
+  /**
+   * @param allocator 编码缓冲区的分配器
+   * @param packetWriter 将数据包编码写入缓冲区，需与通道上的编码器格式一致
+   */
+  public PacketBroadcaster(ByteBufAllocator allocator, BiConsumer<CDTPPacket, ByteBuf> packetWriter) {
+    this(allocator, packetWriter, null);
+  }
+
+  /**
+   * @param allocator 编码缓冲区的分配器
+   * @param packetWriter 将数据包编码写入缓冲区，需与通道上的编码器格式一致
+   * @param compressor 包体压缩器，为null时不压缩
+   */
+  public PacketBroadcaster(ByteBufAllocator allocator, BiConsumer<CDTPPacket, ByteBuf> packetWriter,
+      PacketCompressor compressor) {
+    this.allocator = allocator;
+    this.packetWriter = packetWriter;
+    this.compressor = compressor;
+  }
+
+  /**
+   * 将数据包写入并刷新到所有活跃通道
+   *
+   * @param packet 待推送的数据包
+   * @param channels 目标通道
+   * @return 实际写入的通道数量
+   */
+  public int broadcast(CDTPPacket packet, Iterable<Channel> channels) {
+    Map<EventLoop, List<Channel>> plainChannels = new IdentityHashMap<>();
+    Map<EventLoop, List<Channel>> compressedChannels = compressor == null ? plainChannels : new IdentityHashMap<>();
+    int count = 0;
+    for (Channel channel : channels) {
+      if (channel.isActive()) {
+        Map<EventLoop, List<Channel>> channelsByLoop =
+            PacketCompressionHandler.supportsCompression(channel) ? compressedChannels : plainChannels;
+        channelsByLoop.computeIfAbsent(channel.eventLoop(), loop -> new ArrayList<>(4)).add(channel);
+        count++;
+      }
+    }
+    if (count == 0) {
+      return 0;
+    }
+
+    if (compressedChannels != plainChannels && !compressedChannels.isEmpty()) {
+      CDTPPacket compressed = packet.getHeader() == null ? packet : new CDTPPacket(packet.getCommandSpace(),
+          packet.getCommand(), packet.getVersion(), packet.getHeader().clone(), packet.getData());
+      if (compressed != packet && compressor.compress(compressed)) {
+        write(compressed, compressedChannels);
+      } else {
+        compressedChannels.forEach((loop, loopChannels) ->
+            plainChannels.computeIfAbsent(loop, key -> new ArrayList<>(loopChannels.size())).addAll(loopChannels));
+      }
+    }
+    if (!plainChannels.isEmpty()) {
+      write(packet, plainChannels);
+    }
+    return count;
+  }
+
+  private void write(CDTPPacket packet, Map<EventLoop, List<Channel>> channelsByLoop) {
+    ByteBuf encoded = allocator.ioBuffer();
+    try {
+      packetWriter.accept(packet, encoded);
+      for (Entry<EventLoop, List<Channel>> entry : channelsByLoop.entrySet()) {
+        writeOnLoop(entry.getKey(), entry.getValue(), encoded.retainedDuplicate());
+      }
+    } finally {
+      encoded.release();
+    }
+  }
+
+  private void writeOnLoop(EventLoop loop, List<Channel> channels, ByteBuf encoded) {
+    if (loop.inEventLoop()) {
+      writeAndFlush(channels, encoded);
+      return;
+    }
+    try {
+      loop.execute(() -> writeAndFlush(channels, encoded));
+    } catch (RejectedExecutionException e) {
+      log.warn("Failed to push packet to channels {} since event loop is shutting down", channels);
+      encoded.release();
+    }
+  }
+
+  private void writeAndFlush(List<Channel> channels, ByteBuf encoded) {
+    try {
+      for (Channel channel : channels) {
+        ByteBuf frame = CDTPPacketEncoder.isLengthFieldPrepended(channel)
+            ? encoded.retainedSlice(encoded.readerIndex() + LENGTH_FIELD_LENGTH,
+            encoded.readableBytes() - LENGTH_FIELD_LENGTH)
+            : encoded.retainedDuplicate();
+        channel.write(frame, channel.voidPromise());
+      }
+      for (Channel channel : channels) {
+        channel.flush();
+      }
+    } finally {
+      encoded.release();
+    }
+  }
+}
@@ -25,6 +25,8 @@
 package com.syswin.temail.ps.server.service;
 
 import com.syswin.temail.ps.common.entity.CDTPPacket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.function.Consumer;
 
 /**
@@ -41,4 +43,24 @@ public interface RequestService {
   default void handleRequest(CDTPPacket reqPacket, Consumer<CDTPPacket> responseHandler) {
     responseHandler.accept(reqPacket);
   }
+
+  /**
+   * 异步请求处理方法，在开启在途请求限制时使用。请求完成（返回的CompletionStage结束）后才释放在途名额，
+   * 超过{@link com.syswin.temail.ps.server.handler.InFlightLimiter#permitTimeoutMillis()}仍未结束时也会释放。
+   * <p>
+   * 默认适配{@link #handleRequest(CDTPPacket, Consumer)}，以第一次回写的数据包作为响应，之后回写的数据包被忽略。
+   * 框架处理只实现了handleRequest的服务时不经过此方法：第一次回写结束请求，之后回写的数据包直接写回channel
+   *
+   * @param reqPacket 请求的数据包
+   * @return 响应的数据包，为null时不回写
+   */
+  default CompletionStage<CDTPPacket> handleRequestAsync(CDTPPacket reqPacket) {
+    CompletableFuture<CDTPPacket> response = new CompletableFuture<>();
+    try {
+      handleRequest(reqPacket, response::complete);
+    } catch (Exception e) {
+      response.completeExceptionally(e);
+    }
+    return response;
+  }
 }
@@ -42,4 +42,12 @@ public interface ChannelManager {
 
   Iterable<Channel> getChannelsExceptSenderN(String receiver, String sender, String senderDeviceId) ;
 
+  /**
+   * 当前的会话（temail与设备的绑定）数量，用于指标统计，不在热路径上调用
+   *
+   * @return 会话数量，不支持统计时返回-1
+   */
+  default long sessionCount() {
+    return -1;
+  }
 }
@@ -121,6 +121,15 @@ public class ChannelManagerOne2One implements ChannelManager {
     return result;
   }
 
+  @Override
+  public long sessionCount() {
+    long count = 0;
+    for (Map<String, Channel> deviceIdChannels : temail2Channel.values()) {
+      count += deviceIdChannels.size();
+    }
+    return count;
+  }
+
   private Object sampleStr(List<Channel> result) {
     return result.stream().map(channel -> channel.id().toString()).collect(Collectors.toList()).toString();
   }
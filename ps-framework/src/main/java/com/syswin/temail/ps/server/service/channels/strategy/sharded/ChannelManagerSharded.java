@@ -0,0 +1,214 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.syswin.temail.ps.server.service.channels.strategy.sharded;
+
+import static java.util.Collections.emptyList;
+
+import com.syswin.temail.ps.server.entity.Session;
+import com.syswin.temail.ps.server.service.channels.strategy.ChannelManager;
+import io.netty.channel.Channel;
+import io.netty.util.internal.MathUtil;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 分片的会话管理：按temail、设备ID、通道的哈希值将会话分散到多个分片中，降低全局Map上的竞争。
+ * <p>
+ * 同一设备的所有写操作都在该设备所在分片的锁内串行执行（单写者），读操作（hasSession、getChannels等）
+ * 只访问不可变的快照，不需要加锁。与{@link com.syswin.temail.ps.server.service.channels.strategy.one2one.ChannelManagerOne2One}
+ * 的语义一致：一个设备同一时间只绑定一个通道，新通道会替换并关闭旧通道。
+ */
+@Slf4j
+public class ChannelManagerSharded implements ChannelManager {
+
+  private static final int DEFAULT_SHARDS = Runtime.getRuntime().availableProcessors() * 4;
+
+  private final Shard[] shards;
+  private final int mask;
+
+  public ChannelManagerSharded() {
+    this(DEFAULT_SHARDS);
+  }
+
+  /**
+   * @param shardCount 分片数量，会向上取整为2的幂
+   */
+  public ChannelManagerSharded(int shardCount) {
+    if (shardCount < 1) {
+      throw new IllegalArgumentException("Shard count must be positive: " + shardCount);
+    }
+    int size = MathUtil.findNextPositivePowerOfTwo(shardCount);
+    this.shards = new Shard[size];
+    this.mask = size - 1;
+    for (int i = 0; i < size; i++) {
+      shards[i] = new Shard();
+    }
+  }
+
+  @Override
+  public Collection<Session> addSession(String temail, String deviceId, Channel channel) {
+    Session session = new Session(temail, deviceId);
+    Shard deviceShard = shardOf(deviceId);
+    synchronized (deviceShard) {
+      DeviceBinding current = deviceShard.devices.get(deviceId);
+      if (current == null || channel.equals(current.channel())) {
+        deviceShard.devices.put(deviceId, current == null ? DeviceBinding.of(channel, session) : current.add(session));
+        shardOf(channel).channels.put(channel, deviceId);
+        putTemailChannel(temail, deviceId, channel);
+        log.debug("Added temail {} device {} channel {} mapping", temail, deviceId, channel);
+        return emptyList();
+      }
+
+      Channel oldChannel = current.channel();
+      deviceShard.devices.put(deviceId, DeviceBinding.of(channel, session));
+      shardOf(oldChannel).channels.remove(oldChannel, deviceId);
+      shardOf(channel).channels.put(channel, deviceId);
+
+      // close before cleaning up temail:channel mapping to avoid temail binding on old channel again on request
+      oldChannel.close();
+      log.info("Closed and replaced channel {} with {} in temail {} device {} mapping due to new connection from this device",
+          oldChannel,
+          channel,
+          temail,
+          deviceId);
+
+      Collection<Session> sessionsExpired = current.sessionsExcept(session);
+      for (Session expired : sessionsExpired) {
+        removeTemailChannel(expired.getTemail(), deviceId, oldChannel);
+      }
+      putTemailChannel(temail, deviceId, channel);
+      return sessionsExpired;
+    }
+  }
+
+  @Override
+  public void removeSession(String temail, String deviceId, Channel channel) {
+    //移除session时，即使通道没有再绑定任何session了，也不能关闭通道，因为可能client在切换账户
+    Shard deviceShard = shardOf(deviceId);
+    synchronized (deviceShard) {
+      DeviceBinding binding = deviceShard.devices.get(deviceId);
+      if (binding != null) {
+        deviceShard.devices.put(deviceId, binding.remove(new Session(temail, deviceId)));
+      }
+      removeTemailChannel(temail, deviceId, null);
+    }
+    log.debug("Removed temail {} device {} from channel {} mapping", temail, deviceId, channel);
+  }
+
+  @Override
+  public Collection<Session> removeChannel(Channel channel) {
+    Shard channelShard = shardOf(channel);
+    String deviceId = channelShard.channels.get(channel);
+    if (deviceId == null) {
+      return emptyList();
+    }
+    Shard deviceShard = shardOf(deviceId);
+    synchronized (deviceShard) {
+      if (!channelShard.channels.remove(channel, deviceId)) {
+        return emptyList();
+      }
+      DeviceBinding binding = deviceShard.devices.get(deviceId);
+      if (binding == null || !channel.equals(binding.channel())) {
+        return emptyList();
+      }
+      deviceShard.devices.remove(deviceId);
+      Collection<Session> sessions = binding.sessions();
+      for (Session session : sessions) {
+        removeTemailChannel(session.getTemail(), deviceId, channel);
+      }
+      log.debug("Removed all sessions {} on channel {}", sessions, channel);
+      return sessions;
+    }
+  }
+
+  @Override
+  public boolean hasSession(String temail, String deviceId, Channel channel) {
+    TemailChannels temailChannels = shardOf(temail).temails.get(temail);
+    return temailChannels != null && channel == temailChannels.channelOf(deviceId);
+  }
+
+  @Override
+  public Iterable<Channel> getChannels(String temail) {
+    TemailChannels temailChannels = shardOf(temail).temails.get(temail);
+    return temailChannels == null ? emptyList() : temailChannels.channels();
+  }
+
+  @Override
+  public Iterable<Channel> getChannelsExceptSenderN(String receiver, String sender, String senderDeviceId) {
+    TemailChannels temailChannels = shardOf(receiver).temails.get(receiver);
+    if (temailChannels == null) {
+      return emptyList();
+    }
+    if (!receiver.equals(sender)) {
+      return temailChannels.channels();
+    }
+    List<Channel> result = new ArrayList<>(temailChannels.size());
+    for (int i = 0; i < temailChannels.size(); i++) {
+      if (!senderDeviceId.equals(temailChannels.deviceIdAt(i))) {
+        result.add(temailChannels.channelAt(i));
+      }
+    }
+    log.debug("Receiver:{}, after filtered by sender:{}, senderDeviceId:{} is : {}",
+        receiver, sender, senderDeviceId, result);
+    return result;
+  }
+
+  @Override
+  public long sessionCount() {
+    long count = 0;
+    for (Shard shard : shards) {
+      for (TemailChannels temailChannels : shard.temails.values()) {
+        count += temailChannels.size();
+      }
+    }
+    return count;
+  }
+
+  private void putTemailChannel(String temail, String deviceId, Channel channel) {
+    shardOf(temail).temails.compute(temail,
+        (key, channels) -> (channels == null ? TemailChannels.EMPTY : channels).put(deviceId, channel));
+  }
+
+  private void removeTemailChannel(String temail, String deviceId, Channel channel) {
+    shardOf(temail).temails.computeIfPresent(temail, (key, channels) -> channels.remove(deviceId, channel));
+  }
+
+  private Shard shardOf(Object key) {
+    int hash = key.hashCode();
+    return shards[(hash ^ (hash >>> 16)) & mask];
+  }
+
+  private static final class Shard {
+
+    private final Map<String, DeviceBinding> devices = new ConcurrentHashMap<>();
+    private final Map<String, TemailChannels> temails = new ConcurrentHashMap<>();
+    private final Map<Channel, String> channels = new ConcurrentHashMap<>();
+  }
+}
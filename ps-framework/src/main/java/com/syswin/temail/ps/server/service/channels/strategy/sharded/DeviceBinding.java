@@ -0,0 +1,90 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.syswin.temail.ps.server.service.channels.strategy.sharded;
+
+import com.syswin.temail.ps.server.entity.Session;
+import io.netty.channel.Channel;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * 设备与通道的绑定关系，以及该设备上登录的会话。不可变，修改时整体替换
+ */
+final class DeviceBinding {
+
+  private static final Session[] NO_SESSIONS = new Session[0];
+
+  private final Channel channel;
+  private final Session[] sessions;
+
+  private DeviceBinding(Channel channel, Session[] sessions) {
+    this.channel = channel;
+    this.sessions = sessions;
+  }
+
+  static DeviceBinding of(Channel channel, Session session) {
+    return new DeviceBinding(channel, new Session[]{session});
+  }
+
+  Channel channel() {
+    return channel;
+  }
+
+  Collection<Session> sessions() {
+    return Collections.unmodifiableList(Arrays.asList(sessions));
+  }
+
+  DeviceBinding add(Session session) {
+    for (Session existing : sessions) {
+      if (existing.equals(session)) {
+        return this;
+      }
+    }
+    Session[] newSessions = Arrays.copyOf(sessions, sessions.length + 1);
+    newSessions[sessions.length] = session;
+    return new DeviceBinding(channel, newSessions);
+  }
+
+  DeviceBinding remove(Session session) {
+    for (int i = 0; i < sessions.length; i++) {
+      if (sessions[i].equals(session)) {
+        if (sessions.length == 1) {
+          return new DeviceBinding(channel, NO_SESSIONS);
+        }
+        Session[] newSessions = new Session[sessions.length - 1];
+        System.arraycopy(sessions, 0, newSessions, 0, i);
+        System.arraycopy(sessions, i + 1, newSessions, i, sessions.length - i - 1);
+        return new DeviceBinding(channel, newSessions);
+      }
+    }
+    return this;
+  }
+
+  Collection<Session> sessionsExcept(Session session) {
+    return remove(session).sessions();
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.syswin.temail.ps.server.service.channels.strategy.sharded;
+
+import io.netty.channel.Channel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 一个temail在各设备上的通道，不可变，修改时整体替换，从而读取时无需加锁
+ */
+final class TemailChannels {
+
+  static final TemailChannels EMPTY = new TemailChannels(new String[0], new Channel[0]);
+
+  private final String[] deviceIds;
+  private final Channel[] channels;
+
+  private TemailChannels(String[] deviceIds, Channel[] channels) {
+    this.deviceIds = deviceIds;
+    this.channels = channels;
+  }
+
+  Channel channelOf(String deviceId) {
+    int index = indexOf(deviceId);
+    return index < 0 ? null : channels[index];
+  }
+
+  List<Channel> channels() {
+    return Collections.unmodifiableList(Arrays.asList(channels));
+  }
+
+  String deviceIdAt(int index) {
+    return deviceIds[index];
+  }
+
+  Channel channelAt(int index) {
+    return channels[index];
+  }
+
+  int size() {
+    return deviceIds.length;
+  }
+
+  TemailChannels put(String deviceId, Channel channel) {
+    int index = indexOf(deviceId);
+    if (index >= 0) {
+      if (channels[index] == channel) {
+        return this;
+      }
+      Channel[] newChannels = channels.clone();
+      newChannels[index] = channel;
+      return new TemailChannels(deviceIds, newChannels);
+    }
+    String[] newDeviceIds = Arrays.copyOf(deviceIds, deviceIds.length + 1);
+    Channel[] newChannels = Arrays.copyOf(channels, channels.length + 1);
+    newDeviceIds[deviceIds.length] = deviceId;
+    newChannels[channels.length] = channel;
+    return new TemailChannels(newDeviceIds, newChannels);
+  }
+
+  /**
+   * @return 移除后的结果，没有剩余设备时返回null
+   */
+  TemailChannels remove(String deviceId, Channel channel) {
+    int index = indexOf(deviceId);
+    if (index < 0 || (channel != null && channels[index] != channel)) {
+      return this;
+    }
+    int size = deviceIds.length;
+    if (size == 1) {
+      return null;
+    }
+    String[] newDeviceIds = new String[size - 1];
+    Channel[] newChannels = new Channel[size - 1];
+    System.arraycopy(deviceIds, 0, newDeviceIds, 0, index);
+    System.arraycopy(deviceIds, index + 1, newDeviceIds, index, size - index - 1);
+    System.arraycopy(channels, 0, newChannels, 0, index);
+    System.arraycopy(channels, index + 1, newChannels, index, size - index - 1);
+    return new TemailChannels(newDeviceIds, newChannels);
+  }
+
+  private int indexOf(String deviceId) {
+    for (int i = 0; i < deviceIds.length; i++) {
+      if (deviceIds[i].equals(deviceId)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
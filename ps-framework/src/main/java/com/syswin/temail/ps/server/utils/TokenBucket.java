@@ -0,0 +1,67 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.syswin.temail.ps.server.utils;
+
+/**
+ * 令牌桶限流：按固定速率补充令牌，最多积累burst个，每次获取消耗一个令牌。线程安全
+ */
+public class TokenBucket {
+
+  private final double permitsPerNano;
+  private final double capacity;
+  private double tokens;
+  private long lastRefillNanos;
+
+  /**
+   * @param permitsPerSecond 每秒补充的令牌数
+   * @param burst 最多积累的令牌数，即允许的突发量
+   */
+  public TokenBucket(double permitsPerSecond, int burst) {
+    if (!(permitsPerSecond > 0) || burst < 1) {
+      throw new IllegalArgumentException(
+          "Invalid token bucket: permitsPerSecond=" + permitsPerSecond + ", burst=" + burst);
+    }
+    this.permitsPerNano = permitsPerSecond / 1_000_000_000L;
+    this.capacity = burst;
+    this.tokens = burst;
+    this.lastRefillNanos = System.nanoTime();
+  }
+
+  public boolean tryAcquire() {
+    return tryAcquire(System.nanoTime());
+  }
+
+  synchronized boolean tryAcquire(long nowNanos) {
+    if (nowNanos > lastRefillNanos) {
+      tokens = Math.min(capacity, tokens + (nowNanos - lastRefillNanos) * permitsPerNano);
+      lastRefillNanos = nowNanos;
+    }
+    if (tokens >= 1) {
+      tokens -= 1;
+      return true;
+    }
+    return false;
+  }
+}
@@ -0,0 +1,211 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.syswin.temail.ps.server;
+
+import static com.syswin.temail.ps.common.Constants.LENGTH_FIELD_LENGTH;
+import static com.syswin.temail.ps.common.entity.CommandSpaceType.CHANNEL_CODE;
+import static com.syswin.temail.ps.common.entity.CommandType.PING_CODE;
+import static com.syswin.temail.ps.common.entity.CommandType.PONG_CODE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.syswin.temail.ps.common.PacketMaker;
+import com.syswin.temail.ps.common.entity.CDTPHeader;
+import com.syswin.temail.ps.common.entity.CDTPPacket;
+import com.syswin.temail.ps.server.codec.CDTPPacketDecoder;
+import com.syswin.temail.ps.server.codec.CDTPPacketEncoder;
+import com.syswin.temail.ps.server.service.AbstractSessionService;
+import com.syswin.temail.ps.server.service.RequestService;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GatewayServerTest {
+
+  private static final int REQUESTS = 200;
+
+  private final EventLoopGroup clientGroup = new NioEventLoopGroup(1);
+  private final BlockingQueue<CDTPPacket> responses = new LinkedBlockingQueue<>();
+  private final List<String> handledPacketIds = Collections.synchronizedList(new ArrayList<>());
+  private final Set<String> businessThreads = ConcurrentHashMap.newKeySet();
+  private final Set<Boolean> encodedOnEventLoop = ConcurrentHashMap.newKeySet();
+  private Stoppable server;
+  private int port;
+
+  @Before
+  public void setUp() throws IOException {
+    port = freePort();
+  }
+
+  @After
+  public void tearDown() {
+    clientGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+    if (server != null) {
+      server.stop();
+    }
+  }
+
+  @Test
+  public void keepsPerChannelOrderOnBusinessGroupAndWritesOnEventLoop() throws Exception {
+    RequestService requestService = new RequestService() {
+      @Override
+      public void handleRequest(CDTPPacket reqPacket, Consumer<CDTPPacket> responseHandler) {
+        businessThreads.add(Thread.currentThread().getName());
+        handledPacketIds.add(reqPacket.getHeader().getPacketId());
+        responseHandler.accept(reqPacket);
+      }
+    };
+    server = new GatewayServer(new AbstractSessionService() {
+    }, requestService, () -> new CDTPPacketEncoder() {
+      @Override
+      protected void encode(ChannelHandlerContext ctx, CDTPPacket packet, ByteBuf out) {
+        encodedOnEventLoop.add(ctx.channel().eventLoop().inEventLoop());
+        super.encode(ctx, packet, out);
+      }
+    }, CDTPPacketDecoder::new, port, 0)
+        .businessGroup(new DefaultEventExecutorGroup(4, new DefaultThreadFactory("business")))
+        .run();
+
+    Channel channel = connect();
+    List<String> packetIds = new ArrayList<>();
+    for (int i = 0; i < REQUESTS; i++) {
+      CDTPPacket packet = PacketMaker.privateMsgPacket("sean@t.email", "jack@t.email", "hello " + i);
+      packet.getHeader().setPacketId(String.valueOf(i));
+      packetIds.add(packet.getHeader().getPacketId());
+      channel.write(packet);
+    }
+    channel.flush();
+
+    List<String> responsePacketIds = new ArrayList<>();
+    for (int i = 0; i < REQUESTS; i++) {
+      CDTPPacket response = responses.poll(5, TimeUnit.SECONDS);
+      assertThat(response).isNotNull();
+      responsePacketIds.add(response.getHeader().getPacketId());
+    }
+
+    assertThat(handledPacketIds).containsExactlyElementsOf(packetIds);
+    assertThat(responsePacketIds).containsExactlyElementsOf(packetIds);
+    assertThat(businessThreads).hasSize(1);
+    assertThat(businessThreads.iterator().next()).startsWith("business");
+    assertThat(encodedOnEventLoop).containsExactly(true);
+    channel.close().syncUninterruptibly();
+  }
+
+  @Test
+  public void prependsLengthFieldForCustomEncoder() throws Exception {
+    RequestService requestService = new RequestService() {
+      @Override
+      public void handleRequest(CDTPPacket reqPacket, Consumer<CDTPPacket> responseHandler) {
+        responseHandler.accept(reqPacket);
+      }
+    };
+    server = new GatewayServer(new AbstractSessionService() {
+    }, requestService, () -> new MessageToByteEncoder<CDTPPacket>() {
+      @Override
+      protected void encode(ChannelHandlerContext ctx, CDTPPacket packet, ByteBuf out) {
+        // 不写长度前缀，由LengthFieldPrepender补上
+        ByteBuf frame = CDTPPacketEncoder.pack(packet, ctx.alloc());
+        try {
+          out.writeBytes(frame, frame.readerIndex() + LENGTH_FIELD_LENGTH, frame.readableBytes() - LENGTH_FIELD_LENGTH);
+        } finally {
+          frame.release();
+        }
+      }
+    }, CDTPPacketDecoder::new, port, 0).run();
+
+    Channel channel = connect();
+    CDTPPacket request = PacketMaker.privateMsgPacket("sean@t.email", "jack@t.email", "hello");
+    CDTPHeader header = new CDTPHeader();
+    header.setPacketId("ping");
+    CDTPPacket ping = new CDTPPacket();
+    ping.setCommandSpace(CHANNEL_CODE);
+    ping.setCommand(PING_CODE);
+    ping.setHeader(header);
+    ping.setData(new byte[0]);
+    channel.write(request);
+    channel.writeAndFlush(ping);
+
+    CDTPPacket response = responses.poll(5, TimeUnit.SECONDS);
+    CDTPPacket pong = responses.poll(5, TimeUnit.SECONDS);
+    assertThat(response).isEqualTo(request);
+    assertThat(pong).isNotNull();
+    assertThat(pong.getCommand()).isEqualTo(PONG_CODE);
+    assertThat(pong.getHeader().getPacketId()).isEqualTo("ping");
+    channel.close().syncUninterruptibly();
+  }
+
+  private Channel connect() {
+    return new Bootstrap()
+        .group(clientGroup)
+        .channel(NioSocketChannel.class)
+        .handler(new ChannelInitializer<SocketChannel>() {
+          @Override
+          protected void initChannel(SocketChannel channel) {
+            channel.pipeline()
+                .addLast(new CDTPPacketEncoder())
+                .addLast(new CDTPPacketDecoder(false))
+                .addLast(new SimpleChannelInboundHandler<CDTPPacket>() {
+                  @Override
+                  protected void channelRead0(ChannelHandlerContext ctx, CDTPPacket packet) {
+                    responses.add(packet);
+                  }
+                });
+          }
+        })
+        .connect("127.0.0.1", port)
+        .syncUninterruptibly()
+        .channel();
+  }
+
+  private static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+}
@@ -0,0 +1,308 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.syswin.temail.ps.server.codec;
+
+import static com.syswin.temail.ps.common.Constants.CDTP_VERSION_HEADER_DICTIONARY;
+import static com.syswin.temail.ps.common.Constants.LENGTH_FIELD_LENGTH;
+import static com.syswin.temail.ps.common.PacketMaker.loginPacket;
+import static com.syswin.temail.ps.common.PacketMaker.privateMsgPacket;
+import static com.syswin.temail.ps.common.entity.CommandSpaceType.CHANNEL_CODE;
+import static com.syswin.temail.ps.common.entity.CommandType.PING_CODE;
+import static com.syswin.temail.ps.common.entity.CommandType.PONG_CODE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.syswin.temail.ps.common.entity.CDTPHeader;
+import com.syswin.temail.ps.common.entity.CDTPPacket;
+import com.syswin.temail.ps.common.exception.PacketException;
+import com.syswin.temail.ps.common.packet.PacketUtil;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.TooLongFrameException;
+import org.junit.Test;
+
+public class CDTPPacketCodecTest {
+
+  private final EmbeddedChannel channel = new EmbeddedChannel(new CDTPPacketEncoder(), new CDTPPacketDecoder());
+
+  @Test
+  public void encodesAndDecodesPacket() {
+    CDTPPacket packet = privateMsgPacket("sean@t.email", "jack@t.email", "hello world");
+
+    CDTPPacket decoded = roundTrip(packet);
+
+    assertThat(decoded).isEqualTo(packet);
+  }
+
+  @Test
+  public void decodesPacketsSplitAcrossReads() {
+    CDTPPacket packet = loginPacket("sean@t.email", "iPhoneX");
+    ByteBuf encoded = encode(packet);
+
+    channel.writeInbound(encoded.readRetainedSlice(5));
+    assertThat((Object) channel.readInbound()).isNull();
+
+    channel.writeInbound(encoded);
+    CDTPPacket decoded = channel.readInbound();
+    assertThat(decoded).isEqualTo(packet);
+  }
+
+  @Test
+  public void decodesPacketWithoutHeaderOrBody() {
+    CDTPPacket packet = new CDTPPacket();
+    packet.setCommandSpace((short) 1);
+    packet.setCommand((short) 1);
+    packet.setData(new byte[0]);
+
+    CDTPPacket decoded = roundTrip(packet);
+
+    assertThat(decoded.getHeader()).isNull();
+    assertThat(decoded.getData()).isEmpty();
+  }
+
+  @Test
+  public void answersHeartbeatWithoutDecodingPacket() {
+    CDTPPacket ping = pingPacket();
+
+    channel.writeInbound(encode(ping));
+
+    assertThat((Object) channel.readInbound()).isNull();
+    EmbeddedChannel client = new EmbeddedChannel(new CDTPPacketDecoder(false));
+    client.writeInbound(drainOutbound(channel));
+    CDTPPacket pong = client.readInbound();
+    assertThat(pong.getCommandSpace()).isEqualTo(CHANNEL_CODE);
+    assertThat(pong.getCommand()).isEqualTo(PONG_CODE);
+    assertThat(pong.getHeader()).isEqualTo(ping.getHeader());
+  }
+
+  @Test
+  public void decodesHeartbeatIfNotAnswering() {
+    EmbeddedChannel channel = new EmbeddedChannel(new CDTPPacketDecoder(false));
+    CDTPPacket ping = pingPacket();
+
+    channel.writeInbound(encode(ping));
+
+    CDTPPacket decoded = channel.readInbound();
+    assertThat(decoded).isEqualTo(ping);
+    assertThat((Object) channel.readOutbound()).isNull();
+  }
+
+  @Test
+  public void sendsHeaderReferencesAfterLoginWithHeaderDictionary() {
+    CDTPPacket login = loginPacket("sean@t.email", "iPhoneX");
+    login.setVersion(CDTP_VERSION_HEADER_DICTIONARY);
+    assertThat(roundTrip(login)).isEqualTo(login);
+
+    CDTPPacket first = privateMsgPacket("jack@t.email", "sean@t.email", "hello");
+    CDTPPacket second = privateMsgPacket("jack@t.email", "sean@t.email", "world");
+    ByteBuf frames = encode(first);
+    int firstLength = frames.readableBytes();
+    frames.writeBytes(encode(second));
+
+    assertThat(frames.readableBytes() - firstLength).isLessThan(PacketUtil.pack(second, true).length);
+    EmbeddedChannel client = new EmbeddedChannel(new CDTPPacketDecoder(false));
+    client.writeInbound(frames);
+    for (CDTPPacket expected : new CDTPPacket[]{first, second}) {
+      CDTPPacket decoded = client.readInbound();
+      assertThat(decoded.getVersion()).isEqualTo(CDTP_VERSION_HEADER_DICTIONARY);
+      assertThat(decoded.getHeader()).isEqualTo(expected.getHeader());
+      assertThat(decoded.getData()).isEqualTo(expected.getData());
+    }
+  }
+
+  @Test
+  public void rejectsFrameLongerThanMaxWithoutBufferingIt() {
+    EmbeddedChannel server = new EmbeddedChannel(new CDTPPacketDecoder(true, 64, null));
+    ByteBuf encoded = encode(privateMsgPacket("sean@t.email", "jack@t.email", "hello world"));
+
+    assertThatThrownBy(() -> server.writeInbound(encoded.readRetainedSlice(LENGTH_FIELD_LENGTH)))
+        .isInstanceOf(TooLongFrameException.class);
+
+    server.writeInbound(encoded);
+    assertThat((Object) server.readInbound()).isNull();
+    assertThat(encoded.refCnt()).isZero();
+  }
+
+  @Test
+  public void skipsFrameWithInvalidCommand() {
+    ByteBuf bad = encode(privateMsgPacket("sean@t.email", "jack@t.email", "hello world"));
+    bad.setShort(LENGTH_FIELD_LENGTH + 2, 0);
+    CDTPPacket packet = privateMsgPacket("jack@t.email", "sean@t.email", "hello");
+
+    assertThatThrownBy(() -> channel.writeInbound(bad)).hasRootCauseInstanceOf(PacketException.class);
+
+    assertThat(roundTrip(packet)).isEqualTo(packet);
+    assertThat(channel.isOpen()).isTrue();
+  }
+
+  @Test
+  public void skipsFrameWithUnparsableHeader() {
+    ByteBuf bad = encode(privateMsgPacket("sean@t.email", "jack@t.email", "hello world"));
+    int headerLength = bad.getShort(LENGTH_FIELD_LENGTH + 6);
+    for (int i = 0; i < headerLength; i++) {
+      bad.setByte(LENGTH_FIELD_LENGTH + CDTPPacketDecoder.PREFIX_LENGTH + i, 0xff);
+    }
+    CDTPPacket packet = privateMsgPacket("jack@t.email", "sean@t.email", "hello");
+
+    assertThatThrownBy(() -> channel.writeInbound(bad)).hasRootCauseInstanceOf(PacketException.class);
+
+    assertThat(roundTrip(packet)).isEqualTo(packet);
+  }
+
+  @Test
+  public void closesChannelOnInvalidPacketLength() {
+    ByteBuf bad = Unpooled.buffer().writeInt(CDTPPacketDecoder.PREFIX_LENGTH - 1).writeLong(0);
+
+    assertThatThrownBy(() -> channel.writeInbound(bad)).hasRootCauseInstanceOf(PacketException.class);
+
+    assertThat(channel.isOpen()).isFalse();
+  }
+
+  @Test
+  public void skipsRestOfInvalidStreamedFrame() {
+    EmbeddedChannel server = new EmbeddedChannel(new CDTPPacketDecoder(true, 64, new BodyStreamConsumer() {
+      @Override
+      public boolean accepts(short commandSpace, short command) {
+        return true;
+      }
+
+      @Override
+      public void onStart(ChannelHandlerContext ctx, CDTPPacket packet, int bodyLength) {
+      }
+
+      @Override
+      public void onChunk(ChannelHandlerContext ctx, CDTPPacket packet, ByteBuf chunk) {
+      }
+
+      @Override
+      public CDTPPacket onEnd(ChannelHandlerContext ctx, CDTPPacket packet) {
+        return packet;
+      }
+    }));
+    CDTPPacket packet = privateMsgPacket("sean@t.email", "jack@t.email", "hello world");
+    ByteBuf bad = encode(packet);
+    bad.setShort(LENGTH_FIELD_LENGTH + 2, 0);
+    int bodyStart = bad.readableBytes() - packet.getData().length;
+
+    assertThatThrownBy(() -> server.writeInbound(bad.readRetainedSlice(bodyStart + 3)))
+        .hasRootCauseInstanceOf(PacketException.class);
+    server.writeInbound(bad);
+    assertThat((Object) server.readInbound()).isNull();
+
+    server.writeInbound(encode(packet));
+    CDTPPacket decoded = server.readInbound();
+    assertThat(decoded.getHeader()).isEqualTo(packet.getHeader());
+  }
+
+  @Test
+  public void streamsBodyOfAcceptedCommandInChunks() {
+    CDTPPacket packet = privateMsgPacket("sean@t.email", "jack@t.email", "hello world");
+    ByteBuf body = Unpooled.buffer();
+    EmbeddedChannel server = new EmbeddedChannel(new CDTPPacketDecoder(true, 64, new BodyStreamConsumer() {
+      @Override
+      public boolean accepts(short commandSpace, short command) {
+        return commandSpace == packet.getCommandSpace();
+      }
+
+      @Override
+      public void onStart(ChannelHandlerContext ctx, CDTPPacket packet, int bodyLength) {
+        body.capacity(bodyLength);
+      }
+
+      @Override
+      public void onChunk(ChannelHandlerContext ctx, CDTPPacket packet, ByteBuf chunk) {
+        body.writeBytes(chunk);
+      }
+
+      @Override
+      public CDTPPacket onEnd(ChannelHandlerContext ctx, CDTPPacket packet) {
+        return packet;
+      }
+    }));
+    ByteBuf encoded = encode(packet);
+    int bodyStart = encoded.readableBytes() - packet.getData().length;
+
+    server.writeInbound(encoded.readRetainedSlice(bodyStart + 3));
+    assertThat(body.readableBytes()).isEqualTo(3);
+    assertThat((Object) server.readInbound()).isNull();
+
+    server.writeInbound(encoded);
+    CDTPPacket decoded = server.readInbound();
+    assertThat(decoded.getHeader()).isEqualTo(packet.getHeader());
+    assertThat(decoded.getData()).isNull();
+    assertThat(body.array()).isEqualTo(packet.getData());
+  }
+
+  @Test
+  public void packsIntoExactlySizedBufferWithLengthPrefix() {
+    CDTPPacket packet = privateMsgPacket("sean@t.email", "jack@t.email", "hello world");
+
+    ByteBuf packed = CDTPPacketEncoder.pack(packet, UnpooledByteBufAllocator.DEFAULT);
+
+    assertThat(packed.readableBytes()).isEqualTo(PacketUtil.pack(packet, true).length);
+    assertThat(packed.getInt(0)).isEqualTo(packed.readableBytes() - LENGTH_FIELD_LENGTH);
+    assertThat(roundTripBytes(packed)).isEqualTo(packet);
+  }
+
+  private CDTPPacket roundTripBytes(ByteBuf encoded) {
+    channel.writeInbound(encoded);
+    return channel.readInbound();
+  }
+
+  private CDTPPacket pingPacket() {
+    CDTPHeader header = new CDTPHeader();
+    header.setPacketId("PacketId12345");
+    CDTPPacket ping = new CDTPPacket();
+    ping.setCommandSpace(CHANNEL_CODE);
+    ping.setCommand(PING_CODE);
+    ping.setHeader(header);
+    ping.setData(new byte[0]);
+    return ping;
+  }
+
+  private CDTPPacket roundTrip(CDTPPacket packet) {
+    channel.writeInbound(encode(packet));
+    return channel.readInbound();
+  }
+
+  private ByteBuf encode(CDTPPacket packet) {
+    channel.writeOutbound(packet);
+    return drainOutbound(channel);
+  }
+
+  private ByteBuf drainOutbound(EmbeddedChannel channel) {
+    ByteBuf encoded = Unpooled.buffer();
+    ByteBuf buf;
+    while ((buf = channel.readOutbound()) != null) {
+      encoded.writeBytes(buf);
+      buf.release();
+    }
+    return encoded;
+  }
+}
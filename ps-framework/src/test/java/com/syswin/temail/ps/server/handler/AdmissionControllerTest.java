@@ -0,0 +1,142 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.syswin.temail.ps.server.handler;
+
+import static com.syswin.temail.ps.common.entity.CommandSpaceType.CHANNEL_CODE;
+import static com.syswin.temail.ps.common.entity.CommandType.LOGIN_CODE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.syswin.temail.ps.common.entity.CDTPHeader;
+import com.syswin.temail.ps.common.entity.CDTPPacket;
+import com.syswin.temail.ps.common.entity.CDTPProtoBuf.CDTPLoginResp;
+import com.syswin.temail.ps.server.Constants;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class AdmissionControllerTest {
+
+  @Test
+  public void rejectsConnectionsAboveLimit() {
+    AdmissionController controller = new AdmissionController(1);
+    EmbeddedChannel serverChannel = new EmbeddedChannel(controller.acceptHandler());
+    EmbeddedChannel first = new EmbeddedChannel();
+    EmbeddedChannel second = new EmbeddedChannel();
+
+    serverChannel.writeInbound(first);
+    serverChannel.writeInbound(second);
+
+    assertThat((Channel) serverChannel.readInbound()).isSameAs(first);
+    assertThat((Object) serverChannel.readInbound()).isNull();
+    assertThat(second.isOpen()).isFalse();
+    assertThat(controller.rejectedConnections()).isEqualTo(1);
+
+    first.close();
+    assertThat(controller.connections()).isZero();
+    EmbeddedChannel third = new EmbeddedChannel();
+    serverChannel.writeInbound(third);
+    assertThat((Channel) serverChannel.readInbound()).isSameAs(third);
+  }
+
+  @Test
+  public void releasesConnectionWhenRegistrationFails() throws Exception {
+    AdmissionController controller = new AdmissionController(1);
+    EmbeddedChannel serverChannel = new EmbeddedChannel(controller.acceptHandler());
+    Channel child = new NioSocketChannel();
+
+    serverChannel.writeInbound(child);
+    assertThat(controller.connections()).isEqualTo(1);
+
+    // ServerBootstrapAcceptor注册失败时只调用closeForcibly，不会完成closeFuture
+    child.unsafe().closeForcibly();
+    Thread.sleep(AdmissionController.REGISTRATION_CHECK_MILLIS * 2);
+    serverChannel.runPendingTasks();
+    assertThat(controller.connections()).isZero();
+  }
+
+  @Test
+  public void releasesConnectionClosedForciblyWhileAccepting() {
+    AdmissionController controller = new AdmissionController(1);
+    EmbeddedChannel serverChannel = new EmbeddedChannel(controller.acceptHandler(),
+        new ChannelInboundHandlerAdapter() {
+          @Override
+          public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            ((Channel) msg).unsafe().closeForcibly();
+          }
+        });
+
+    serverChannel.writeInbound(new NioSocketChannel());
+
+    assertThat(controller.connections()).isZero();
+  }
+
+  @Test
+  public void throttlesAcceptRate() {
+    AdmissionController controller = new AdmissionController(100).acceptRate(0.001, 2);
+    EmbeddedChannel serverChannel = new EmbeddedChannel(controller.acceptHandler());
+
+    serverChannel.writeInbound(new EmbeddedChannel(), new EmbeddedChannel(), new EmbeddedChannel());
+
+    assertThat(serverChannel.inboundMessages()).hasSize(2);
+    assertThat(controller.rejectedConnections()).isEqualTo(1);
+  }
+
+  @Test
+  public void shedsLoginsWhenTooManyRequestsInFlight() throws Exception {
+    InFlightLimiter inFlightLimiter = new InFlightLimiter(10, 100);
+    AdmissionController controller = new AdmissionController(100).shedLogins(1, TimeUnit.SECONDS, 1);
+    controller.bind(null, inFlightLimiter, null);
+    EmbeddedChannel channel = new EmbeddedChannel(controller.loginHandler());
+
+    channel.writeInbound(login());
+    assertThat((Object) channel.readInbound()).isNotNull();
+
+    inFlightLimiter.acquire(new EmbeddedChannel());
+    channel.writeInbound(login());
+    assertThat((Object) channel.readInbound()).isNull();
+
+    CDTPPacket response = channel.readOutbound();
+    assertThat(response.getCommand()).isEqualTo(LOGIN_CODE);
+    assertThat(CDTPLoginResp.parseFrom(response.getData()).getCode())
+        .isEqualTo(Constants.HTTP_STATUS_SERVICE_UNAVAILABLE);
+    assertThat(controller.shedLogins()).isEqualTo(1);
+  }
+
+  private CDTPPacket login() {
+    CDTPPacket packet = new CDTPPacket();
+    packet.setCommandSpace(CHANNEL_CODE);
+    packet.setCommand(LOGIN_CODE);
+    CDTPHeader header = new CDTPHeader();
+    header.setSender("sean@t.email");
+    header.setDeviceId("iPhoneX");
+    header.setSignature("signature");
+    packet.setHeader(header);
+    return packet;
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.syswin.temail.ps.server.handler;
+
+import static com.syswin.temail.ps.common.entity.CommandSpaceType.CHANNEL_CODE;
+import static com.syswin.temail.ps.common.entity.CommandType.LOGIN_CODE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.syswin.temail.ps.common.entity.CDTPHeader;
+import com.syswin.temail.ps.common.entity.CDTPPacket;
+import com.syswin.temail.ps.server.codec.CDTPPacketEncoder;
+import com.syswin.temail.ps.server.metrics.Stage;
+import com.syswin.temail.ps.server.metrics.StripedGatewayMetrics;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+public class ChannelMetricsHandlerTest {
+
+  private final StripedGatewayMetrics metrics = new StripedGatewayMetrics();
+
+  @Test
+  public void recordsFlushLatencyOfEncodedPackets() {
+    EmbeddedChannel channel = new EmbeddedChannel(new ChannelMetricsHandler(metrics), new CDTPPacketEncoder());
+    assertThat(metrics.activeChannels()).isEqualTo(1);
+
+    CDTPPacket packet = new CDTPPacket();
+    packet.setCommandSpace(CHANNEL_CODE);
+    packet.setCommand(LOGIN_CODE);
+    packet.setHeader(new CDTPHeader());
+    packet.setData(new byte[0]);
+    channel.write(packet);
+    channel.write(packet);
+    channel.flush();
+
+    assertThat(metrics.latency(Stage.FLUSH, CHANNEL_CODE, LOGIN_CODE).count()).isEqualTo(1);
+
+    channel.close();
+    assertThat(metrics.activeChannels()).isZero();
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.syswin.temail.ps.server.handler;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.syswin.temail.ps.server.metrics.EventLoopSample;
+import com.syswin.temail.ps.server.metrics.StripedGatewayMetrics;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoop;
+import io.netty.channel.nio.NioEventLoopGroup;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+public class EventLoopMonitorTest {
+
+  private final DefaultEventLoopGroup group = new DefaultEventLoopGroup(2);
+  private final StripedGatewayMetrics metrics = new StripedGatewayMetrics();
+  private final EventLoopMonitor monitor = new EventLoopMonitor(metrics, TimeUnit.HOURS.toMillis(1)).start(group);
+
+  @After
+  public void tearDown() {
+    monitor.stop();
+    group.shutdownGracefully(0, 0, TimeUnit.MILLISECONDS);
+  }
+
+  @Test
+  public void detectsBlockedEventLoop() throws Exception {
+    Iterator<?> loops = group.iterator();
+    EventLoop blocked = (EventLoop) loops.next();
+    EventLoop idle = (EventLoop) loops.next();
+    CountDownLatch release = new CountDownLatch(1);
+    blocked.execute(() -> await(release));
+
+    monitor.sample();
+    blocked.execute(() -> {
+    });
+    blocked.execute(() -> {
+    });
+    Thread.sleep(50);
+    monitor.sample();
+
+    List<EventLoopSample> samples = metrics.eventLoops();
+    assertThat(samples).hasSize(2);
+    assertThat(samples.get(0).getLagNanos()).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(50));
+    assertThat(samples.get(1).getLagNanos()).isLessThan(TimeUnit.MILLISECONDS.toNanos(50));
+    assertThat(samples.get(1).getPendingTasks()).isZero();
+
+    release.countDown();
+    idle.submit(() -> {
+    }).sync();
+    blocked.submit(() -> {
+    }).sync();
+    assertThat(monitor.snapshot().get(0).getPendingTasks()).isGreaterThanOrEqualTo(2);
+  }
+
+  @Test
+  public void doesNotBlockSamplingOnStalledNioEventLoop() throws Exception {
+    NioEventLoopGroup nioGroup = new NioEventLoopGroup(1);
+    EventLoopMonitor nioMonitor = new EventLoopMonitor(metrics, TimeUnit.HOURS.toMillis(1)).start(nioGroup);
+    CountDownLatch release = new CountDownLatch(1);
+    try {
+      EventLoop loop = nioGroup.next();
+      loop.submit(() -> {
+      }).sync();
+      loop.execute(() -> await(release));
+
+      CompletableFuture.runAsync(nioMonitor::sample).get(1, TimeUnit.SECONDS);
+      CompletableFuture.runAsync(nioMonitor::sample).get(1, TimeUnit.SECONDS);
+
+      assertThat(nioMonitor.snapshot().get(0).getPendingTasks()).isEqualTo(-1);
+      release.countDown();
+      loop.submit(() -> {
+      }).sync();
+      assertThat(nioMonitor.snapshot().get(0).getPendingTasks()).isNotNegative();
+    } finally {
+      release.countDown();
+      nioMonitor.stop();
+      nioGroup.shutdownGracefully(0, 0, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @Test
+  public void countsChannelsPerEventLoop() throws Exception {
+    EventLoop loop = group.next();
+    ChannelHandlerContext ctx = mock(ChannelHandlerContext.class);
+    Channel channel = mock(Channel.class);
+    when(ctx.channel()).thenReturn(channel);
+    when(channel.eventLoop()).thenReturn(loop);
+
+    monitor.channelActive(ctx);
+    monitor.channelActive(ctx);
+    monitor.channelInactive(ctx);
+
+    int total = 0;
+    for (EventLoopSample sample : monitor.snapshot()) {
+      total += sample.getChannels();
+    }
+    assertThat(total).isEqualTo(1);
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
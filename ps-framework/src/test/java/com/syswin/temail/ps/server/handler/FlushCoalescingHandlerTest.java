@@ -0,0 +1,88 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.syswin.temail.ps.server.handler;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class FlushCoalescingHandlerTest {
+
+  private final EmbeddedChannel channel = new EmbeddedChannel(
+      new FlushCoalescingHandler(0, TimeUnit.MICROSECONDS, 16),
+      new ChannelInboundHandlerAdapter() {
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+          ctx.writeAndFlush(msg);
+        }
+      });
+
+  @Test
+  public void flushesOnceAtEndOfRead() {
+    channel.pipeline().fireChannelRead(buffer(4));
+    channel.pipeline().fireChannelRead(buffer(4));
+    assertThat(channel.outboundMessages()).isEmpty();
+
+    channel.pipeline().fireChannelReadComplete();
+    assertThat(channel.outboundMessages()).hasSize(2);
+  }
+
+  @Test
+  public void defersFlushOutsideReadToNextEventLoopTask() {
+    channel.writeAndFlush(buffer(4));
+    assertThat(channel.outboundMessages()).isEmpty();
+
+    channel.runPendingTasks();
+    assertThat(channel.outboundMessages()).hasSize(1);
+  }
+
+  @Test
+  public void flushesImmediatelyWhenTooManyBytesPending() {
+    channel.writeAndFlush(buffer(8));
+    assertThat(channel.outboundMessages()).isEmpty();
+
+    channel.writeAndFlush(buffer(8));
+    assertThat(channel.outboundMessages()).hasSize(2);
+  }
+
+  @Test
+  public void flushesBeforeClose() {
+    channel.writeAndFlush(buffer(4));
+
+    channel.close();
+    assertThat(channel.outboundMessages()).hasSize(1);
+  }
+
+  private ByteBuf buffer(int size) {
+    return Unpooled.wrappedBuffer(new byte[size]);
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.syswin.temail.ps.server.handler;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.timeout.IdleState;
+import io.netty.handler.timeout.IdleStateEvent;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class IdleStateTrackerTest {
+
+  // 1秒超时，250毫秒一个刻度，即4个刻度后空闲
+  private final IdleStateTracker tracker = new IdleStateTracker(1, 250);
+  private final List<Object> events = new ArrayList<>();
+  private final EmbeddedChannel channel = new EmbeddedChannel(tracker, new ChannelInboundHandlerAdapter() {
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) {
+      events.add(evt);
+    }
+  });
+
+  @Test
+  public void firesReaderIdleAfterTimeout() {
+    tick(3);
+    assertThat(events).isEmpty();
+
+    tick(1);
+    assertThat(events).hasSize(1);
+    assertThat(((IdleStateEvent) events.get(0)).state()).isEqualTo(IdleState.READER_IDLE);
+  }
+
+  @Test
+  public void readPostponesIdleEvent() {
+    tick(3);
+    channel.writeInbound("ping");
+
+    tick(3);
+    assertThat(events).isEmpty();
+
+    tick(1);
+    assertThat(events).hasSize(1);
+  }
+
+  @Test
+  public void firesAgainIfStillIdle() {
+    tick(8);
+
+    assertThat(events).hasSize(2);
+  }
+
+  @Test
+  public void stopsTrackingClosedChannel() {
+    channel.close();
+
+    tick(8);
+
+    assertThat(events).isEmpty();
+  }
+
+  private void tick(int ticks) {
+    for (int i = 0; i < ticks; i++) {
+      tracker.tick();
+    }
+    channel.runPendingTasks();
+  }
+}
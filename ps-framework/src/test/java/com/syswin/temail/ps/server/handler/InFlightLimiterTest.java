@@ -0,0 +1,177 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.syswin.temail.ps.server.handler;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.syswin.temail.ps.common.PacketMaker;
+import com.syswin.temail.ps.common.entity.CDTPPacket;
+import com.syswin.temail.ps.server.service.RequestService;
+import com.syswin.temail.ps.server.service.SessionService;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.junit.Test;
+
+public class InFlightLimiterTest {
+
+  private final InFlightLimiter limiter = new InFlightLimiter(2, 3);
+  private final EmbeddedChannel channel = new EmbeddedChannel();
+  private final EmbeddedChannel anotherChannel = new EmbeddedChannel();
+
+  @Test
+  public void suspendsChannelReachingPerChannelLimit() {
+    limiter.acquire(channel);
+    assertThat(channel.config().isAutoRead()).isTrue();
+
+    limiter.acquire(channel);
+    assertThat(channel.config().isAutoRead()).isFalse();
+    assertThat(limiter.inFlightOf(channel)).isEqualTo(2);
+
+    limiter.release(channel);
+    assertThat(channel.config().isAutoRead()).isTrue();
+    assertThat(limiter.inFlightOf(channel)).isEqualTo(1);
+  }
+
+  @Test
+  public void suspendsChannelsReachingGlobalLimit() {
+    limiter.acquire(channel);
+    limiter.acquire(anotherChannel);
+    limiter.acquire(anotherChannel);
+    assertThat(anotherChannel.config().isAutoRead()).isFalse();
+
+    limiter.acquire(channel);
+    assertThat(channel.config().isAutoRead()).isFalse();
+    assertThat(limiter.globalInFlight()).isEqualTo(4);
+
+    limiter.release(channel);
+    assertThat(channel.config().isAutoRead()).isFalse();
+
+    limiter.release(channel);
+    assertThat(channel.config().isAutoRead()).isTrue();
+    assertThat(anotherChannel.config().isAutoRead()).isFalse();
+
+    limiter.release(anotherChannel);
+    assertThat(anotherChannel.config().isAutoRead()).isTrue();
+  }
+
+  @Test
+  public void writesAsyncResponseAndReleasesInFlightRequest() {
+    CompletableFuture<CDTPPacket> response = new CompletableFuture<>();
+    RequestService requestService = mock(RequestService.class);
+    CDTPPacket packet = PacketMaker.privateMsgPacket("sean@t.email", "jack@t.email", "hello");
+    when(requestService.handleRequestAsync(packet)).thenReturn(response);
+
+    EmbeddedChannel channel = new EmbeddedChannel(
+        new PacketHandler(mock(SessionService.class), requestService, new InFlightLimiter(1, 10)));
+    channel.writeInbound(packet);
+    assertThat(channel.config().isAutoRead()).isFalse();
+    assertThat((Object) channel.readOutbound()).isNull();
+
+    response.complete(packet);
+    assertThat((Object) channel.readOutbound()).isSameAs(packet);
+    assertThat(channel.config().isAutoRead()).isTrue();
+  }
+
+  @Test
+  public void keepsChannelSuspendedWhileAnotherReasonHoldsIt() {
+    limiter.acquire(channel);
+    limiter.acquire(channel);
+    ReadSuspension.suspend(channel, ReadSuspension.VERIFICATION);
+
+    limiter.release(channel);
+    assertThat(channel.config().isAutoRead()).isFalse();
+
+    ReadSuspension.resume(channel, ReadSuspension.VERIFICATION);
+    assertThat(channel.config().isAutoRead()).isTrue();
+  }
+
+  @Test
+  public void releasesPermitsOfInactiveChannel() {
+    InFlightLimiter limiter = new InFlightLimiter(1, 10);
+    RequestService silentService = new RequestService() {
+      @Override
+      public void handleRequest(CDTPPacket reqPacket, Consumer<CDTPPacket> responseHandler) {
+      }
+    };
+    EmbeddedChannel channel = new EmbeddedChannel(new PacketHandler(mock(SessionService.class), silentService, limiter));
+
+    channel.writeInbound(PacketMaker.privateMsgPacket("sean@t.email", "jack@t.email", "hello"));
+    assertThat(limiter.globalInFlight()).isEqualTo(1);
+    assertThat(channel.config().isAutoRead()).isFalse();
+
+    channel.close();
+    assertThat(limiter.globalInFlight()).isZero();
+    assertThat(limiter.inFlightOf(channel)).isZero();
+  }
+
+  @Test
+  public void releasesPermitAfterTimeout() throws Exception {
+    InFlightLimiter limiter = new InFlightLimiter(1, 10, 20, TimeUnit.MILLISECONDS);
+    CompletableFuture<CDTPPacket> response = new CompletableFuture<>();
+    RequestService requestService = mock(RequestService.class);
+    CDTPPacket packet = PacketMaker.privateMsgPacket("sean@t.email", "jack@t.email", "hello");
+    when(requestService.handleRequestAsync(packet)).thenReturn(response);
+    EmbeddedChannel channel = new EmbeddedChannel(new PacketHandler(mock(SessionService.class), requestService, limiter));
+
+    channel.writeInbound(packet);
+    assertThat(channel.config().isAutoRead()).isFalse();
+
+    TimeUnit.MILLISECONDS.sleep(50);
+    channel.runScheduledPendingTasks();
+    assertThat(channel.config().isAutoRead()).isTrue();
+    assertThat(limiter.globalInFlight()).isZero();
+
+    response.complete(packet);
+    assertThat((Object) channel.readOutbound()).isSameAs(packet);
+    assertThat(limiter.globalInFlight()).isZero();
+  }
+
+  @Test
+  public void writesEveryResponseOfHandleRequest() {
+    CDTPPacket first = PacketMaker.privateMsgPacket("sean@t.email", "jack@t.email", "first");
+    CDTPPacket second = PacketMaker.privateMsgPacket("sean@t.email", "jack@t.email", "second");
+    RequestService requestService = new RequestService() {
+      @Override
+      public void handleRequest(CDTPPacket reqPacket, Consumer<CDTPPacket> responseHandler) {
+        responseHandler.accept(first);
+        responseHandler.accept(second);
+      }
+    };
+    InFlightLimiter limiter = new InFlightLimiter(1, 10);
+    EmbeddedChannel channel = new EmbeddedChannel(new PacketHandler(mock(SessionService.class), requestService, limiter));
+
+    channel.writeInbound(PacketMaker.privateMsgPacket("sean@t.email", "jack@t.email", "hello"));
+
+    assertThat((Object) channel.readOutbound()).isSameAs(first);
+    assertThat((Object) channel.readOutbound()).isSameAs(second);
+    assertThat(limiter.globalInFlight()).isZero();
+    assertThat(channel.config().isAutoRead()).isTrue();
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.syswin.temail.ps.server.handler;
+
+import static com.syswin.temail.ps.common.PacketMaker.privateMsgPacket;
+import static com.syswin.temail.ps.common.entity.CompressionType.DEFLATE_CODE;
+import static com.syswin.temail.ps.common.entity.CompressionType.NONE_CODE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.syswin.temail.ps.common.entity.CDTPPacket;
+import com.syswin.temail.ps.common.packet.PacketCompressor;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+public class PacketCompressionHandlerTest {
+
+  private final EmbeddedChannel channel = new EmbeddedChannel(new PacketCompressionHandler(new PacketCompressor(64)));
+  private final CDTPPacket packet = privateMsgPacket("sean@t.email", "jack@t.email", repeat("hello world ", 20));
+
+  @Test
+  public void compressesCopyOfOutboundPacket() {
+    byte[] data = packet.getData();
+    PacketCompressionHandler.enableCompression(channel);
+
+    channel.writeOutbound(packet);
+
+    CDTPPacket compressed = channel.readOutbound();
+    assertThat(compressed).isNotSameAs(packet);
+    assertThat(compressed.getHeader().getCompressionMethod()).isEqualTo(DEFLATE_CODE);
+    assertThat(packet.getHeader().getCompressionMethod()).isEqualTo(NONE_CODE);
+    assertThat(packet.getData()).isSameAs(data);
+  }
+
+  @Test
+  public void skipsCompressionUntilPeerSupportsIt() {
+    channel.writeOutbound(packet);
+
+    CDTPPacket outbound = channel.readOutbound();
+    assertThat(outbound).isSameAs(packet);
+    assertThat(outbound.getHeader().getCompressionMethod()).isEqualTo(NONE_CODE);
+  }
+
+  @Test
+  public void enablesCompressionAfterReceivingCompressedPacket() {
+    CDTPPacket request = privateMsgPacket("jack@t.email", "sean@t.email", repeat("hi there ", 20));
+    new PacketCompressor(0).compress(request);
+
+    channel.writeInbound(request);
+    channel.writeOutbound(packet);
+
+    assertThat(PacketCompressionHandler.supportsCompression(channel)).isTrue();
+    CDTPPacket outbound = channel.readOutbound();
+    assertThat(outbound.getHeader().getCompressionMethod()).isEqualTo(DEFLATE_CODE);
+  }
+
+  @Test
+  public void decompressesInboundPacket() {
+    byte[] data = packet.getData();
+    new PacketCompressor(0).compress(packet);
+
+    channel.writeInbound(packet);
+
+    CDTPPacket decompressed = channel.readInbound();
+    assertThat(decompressed.getData()).isEqualTo(data);
+    assertThat(decompressed.getHeader().getCompressionMethod()).isEqualTo(NONE_CODE);
+  }
+
+  private static String repeat(String text, int times) {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < times; i++) {
+      builder.append(text);
+    }
+    return builder.toString();
+  }
+}
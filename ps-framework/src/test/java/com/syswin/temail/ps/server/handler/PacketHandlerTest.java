@@ -25,16 +25,21 @@
 package com.syswin.temail.ps.server.handler;
 
 import static com.seanyinx.github.unit.scaffolding.AssertUtils.expectFailing;
+import static com.syswin.temail.ps.common.entity.CommandType.INTERNAL_ERROR_CODE;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.when;
 
 import com.syswin.temail.ps.common.entity.CDTPHeader;
 import com.syswin.temail.ps.common.entity.CDTPPacket;
 import com.syswin.temail.ps.common.exception.PacketException;
+import com.syswin.temail.ps.server.metrics.Stage;
+import com.syswin.temail.ps.server.metrics.StripedGatewayMetrics;
 import com.syswin.temail.ps.server.service.RequestService;
 import com.syswin.temail.ps.server.service.SessionService;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.TooLongFrameException;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
@@ -89,4 +94,33 @@ public class PacketHandlerTest {
       assertThat(e.getPacket()).isEqualTo(packet);
     }
   }
-}
\ No newline at end of file
+
+  @Test
+  public void closesChannelAfterAnsweringTooLongFrame() {
+    EmbeddedChannel channel = new EmbeddedChannel(packetHandler);
+
+    channel.pipeline().fireExceptionCaught(new TooLongFrameException("Packet length 1024 exceeds 64"));
+
+    CDTPPacket error = channel.readOutbound();
+    assertThat(error.getCommand()).isEqualTo(INTERNAL_ERROR_CODE);
+    assertThat(channel.isOpen()).isFalse();
+  }
+
+  @Test
+  public void recordsSessionAndRequestLatency() {
+    StripedGatewayMetrics metrics = new StripedGatewayMetrics();
+    PacketHandler handler = new PacketHandler(sessionService, requestService, null, metrics);
+    header.setSender("sean@t.email");
+    header.setDeviceId("iPhoneX");
+    packet.setCommandSpace((short) 0x10);
+    packet.setCommand((short) 0x1);
+
+    handler.channelRead0(context, packet);
+
+    assertThat(metrics.latency(Stage.SESSION, (short) 0x10, (short) 0x1).count()).isEqualTo(1);
+    assertThat(metrics.latency(Stage.REQUEST, (short) 0x10, (short) 0x1).count()).isEqualTo(1);
+
+    new EmbeddedChannel(handler).pipeline().fireExceptionCaught(new IllegalStateException("oops"));
+    assertThat(metrics.exceptions()).isEqualTo(1);
+  }
+}
@@ -0,0 +1,209 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.syswin.temail.ps.server.handler;
+
+import static com.syswin.temail.ps.common.entity.CommandSpaceType.CHANNEL_CODE;
+import static com.syswin.temail.ps.common.entity.CommandType.INTERNAL_ERROR_CODE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.syswin.temail.ps.common.entity.CDTPHeader;
+import com.syswin.temail.ps.common.entity.CDTPPacket;
+import com.syswin.temail.ps.common.entity.CDTPProtoBuf.CDTPServerError;
+import com.syswin.temail.ps.common.exception.PacketException;
+import com.syswin.temail.ps.server.Constants;
+import com.syswin.temail.ps.server.service.AsyncPacketVerifier;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PacketVerifyHandlerTest {
+
+  private final ManualExecutor executor = new ManualExecutor();
+  private final AsyncPacketVerifier packetVerifier = new AsyncPacketVerifier(
+      packet -> !"forged".equals(packet.getHeader().getSignature()), executor);
+  private final List<Throwable> errors = new ArrayList<>();
+  private EmbeddedChannel channel;
+
+  @Before
+  public void setUp() {
+    channel = new EmbeddedChannel(new PacketVerifyHandler(packetVerifier, 4), new ChannelInboundHandlerAdapter() {
+      @Override
+      public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        errors.add(cause);
+      }
+    });
+  }
+
+  @Test
+  public void passesUnsignedPacketThroughImmediately() {
+    CDTPPacket packet = packet(0, null);
+
+    channel.writeInbound(packet);
+
+    assertThat(executor.tasks).isEmpty();
+    assertThat((Object) channel.readInbound()).isSameAs(packet);
+  }
+
+  @Test
+  public void keepsPacketOrderWhenVerificationCompletesOutOfOrder() {
+    CDTPPacket first = packet(1, "signature");
+    CDTPPacket second = packet(0, null);
+    CDTPPacket third = packet(1, "signature");
+
+    channel.writeInbound(first, second, third);
+    assertThat((Object) channel.readInbound()).isNull();
+
+    executor.runInReverseOrder();
+    channel.runPendingTasks();
+
+    assertThat((Object) channel.readInbound()).isSameAs(first);
+    assertThat((Object) channel.readInbound()).isSameAs(second);
+    assertThat((Object) channel.readInbound()).isSameAs(third);
+  }
+
+  @Test
+  public void dropsPacketFailingVerification() {
+    CDTPPacket forged = packet(1, "forged");
+    CDTPPacket genuine = packet(1, "signature");
+
+    channel.writeInbound(forged, genuine);
+    executor.runInReverseOrder();
+    channel.runPendingTasks();
+
+    assertThat((Object) channel.readInbound()).isSameAs(genuine);
+    assertThat((Object) channel.readInbound()).isNull();
+    assertThat(errors).hasSize(1);
+    assertThat(errors.get(0)).isInstanceOf(PacketException.class);
+    assertThat(((PacketException) errors.get(0)).getPacket()).isSameAs(forged);
+  }
+
+  @Test
+  public void suspendsReadingWhileTooManyPacketsArePending() {
+    for (int i = 0; i < 4; i++) {
+      channel.writeInbound(packet(1, "signature"));
+    }
+    assertThat(channel.config().isAutoRead()).isFalse();
+
+    executor.runInReverseOrder();
+    channel.runPendingTasks();
+
+    assertThat(channel.config().isAutoRead()).isTrue();
+    assertThat(channel.inboundMessages()).hasSize(4);
+  }
+
+  @Test
+  public void answersBusyWhenVerifierIsOverloaded() throws Exception {
+    executor.rejecting = true;
+    CDTPPacket packet = packet(1, "signature");
+
+    channel.writeInbound(packet);
+
+    CDTPPacket response = channel.readOutbound();
+    assertThat(response.getCommandSpace()).isEqualTo(CHANNEL_CODE);
+    assertThat(response.getCommand()).isEqualTo(INTERNAL_ERROR_CODE);
+    assertThat(CDTPServerError.parseFrom(response.getData()).getCode())
+        .isEqualTo(Constants.HTTP_STATUS_SERVICE_UNAVAILABLE);
+    assertThat(errors).isEmpty();
+    assertThat((Object) channel.readInbound()).isNull();
+  }
+
+  @Test
+  public void keepsReadingSuspendedByAnotherHandler() {
+    ReadSuspension.suspend(channel, ReadSuspension.IN_FLIGHT);
+    for (int i = 0; i < 4; i++) {
+      channel.writeInbound(packet(1, "signature"));
+    }
+
+    executor.runInReverseOrder();
+    channel.runPendingTasks();
+
+    assertThat(channel.inboundMessages()).hasSize(4);
+    assertThat(channel.config().isAutoRead()).isFalse();
+  }
+
+  private CDTPPacket packet(int signatureAlgorithm, String signature) {
+    CDTPHeader header = new CDTPHeader();
+    header.setSignatureAlgorithm(signatureAlgorithm);
+    header.setSignature(signature);
+    CDTPPacket packet = new CDTPPacket();
+    packet.setHeader(header);
+    return packet;
+  }
+
+  private static class ManualExecutor extends AbstractExecutorService {
+
+    private final LinkedList<Runnable> tasks = new LinkedList<>();
+    private boolean rejecting;
+
+    void runInReverseOrder() {
+      Collections.reverse(tasks);
+      while (!tasks.isEmpty()) {
+        tasks.removeFirst().run();
+      }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      if (rejecting) {
+        throw new RejectedExecutionException("Queue is full");
+      }
+      tasks.add(command);
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isShutdown() {
+      return false;
+    }
+
+    @Override
+    public boolean isTerminated() {
+      return false;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+      return false;
+    }
+  }
+}
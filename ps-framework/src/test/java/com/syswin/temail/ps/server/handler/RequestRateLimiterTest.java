@@ -0,0 +1,160 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.syswin.temail.ps.server.handler;
+
+import static com.syswin.temail.ps.common.entity.CommandSpaceType.CHANNEL;
+import static com.syswin.temail.ps.common.entity.CommandSpaceType.CHANNEL_CODE;
+import static com.syswin.temail.ps.common.entity.CommandSpaceType.GROUP_MESSAGE_CODE;
+import static com.syswin.temail.ps.common.entity.CommandSpaceType.SINGLE_MESSAGE;
+import static com.syswin.temail.ps.common.entity.CommandSpaceType.SINGLE_MESSAGE_CODE;
+import static com.syswin.temail.ps.common.entity.CommandType.INTERNAL_ERROR_CODE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.syswin.temail.ps.common.entity.CDTPHeader;
+import com.syswin.temail.ps.common.entity.CDTPPacket;
+import com.syswin.temail.ps.common.entity.CDTPProtoBuf.CDTPServerError;
+import com.syswin.temail.ps.server.Constants;
+import com.syswin.temail.ps.server.service.channels.strategy.ChannelManager;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class RequestRateLimiterTest {
+
+  private final ChannelManager sessions = mock(ChannelManager.class);
+  private final RequestRateLimiter rateLimiter = new RequestRateLimiter()
+      .limit(SINGLE_MESSAGE, 0.01, 2)
+      .pauseReads(true)
+      .sessions(sessions);
+  private final EmbeddedChannel channel = new EmbeddedChannel(rateLimiter);
+
+  @Test
+  public void rejectsPacketsAboveRatePerDevice() throws Exception {
+    when(sessions.hasSession(eq("sean@t.email"), anyString(), eq(channel))).thenReturn(true);
+    channel.writeInbound(packet(SINGLE_MESSAGE_CODE, "iPhoneX"), packet(SINGLE_MESSAGE_CODE, "iPhoneX"));
+    assertThat(channel.inboundMessages()).hasSize(2);
+
+    channel.writeInbound(packet(SINGLE_MESSAGE_CODE, "iPhoneX"));
+    assertThat(channel.inboundMessages()).hasSize(2);
+    assertThat(rateLimiter.rejected()).isEqualTo(1);
+    assertThat(channel.config().isAutoRead()).isFalse();
+
+    CDTPPacket error = channel.readOutbound();
+    assertThat(error.getCommand()).isEqualTo(INTERNAL_ERROR_CODE);
+    assertThat(error.getHeader().getPacketId()).isEqualTo("packet-iPhoneX");
+    assertThat(CDTPServerError.parseFrom(error.getData()).getCode()).isEqualTo(Constants.HTTP_STATUS_TOO_MANY_REQUESTS);
+
+    channel.writeInbound(packet(SINGLE_MESSAGE_CODE, "Galaxy"));
+    channel.writeInbound(packet(GROUP_MESSAGE_CODE, "iPhoneX"));
+    assertThat(channel.inboundMessages()).hasSize(4);
+  }
+
+  @Test
+  public void separatesSessionsWithCollidingStringHashCodes() {
+    when(sessions.hasSession(eq("sean@t.email"), anyString(), eq(channel))).thenReturn(true);
+    assertThat("Aa".hashCode()).isEqualTo("BB".hashCode());
+
+    channel.writeInbound(packet(SINGLE_MESSAGE_CODE, "Aa"), packet(SINGLE_MESSAGE_CODE, "Aa"));
+    channel.writeInbound(packet(SINGLE_MESSAGE_CODE, "BB"));
+
+    assertThat(channel.inboundMessages()).hasSize(3);
+    assertThat(rateLimiter.rejected()).isZero();
+  }
+
+  @Test
+  public void limitsUnboundSenderPerChannel() {
+    when(sessions.hasSession("sean@t.email", "iPhoneX", channel)).thenReturn(true);
+    EmbeddedChannel forged = new EmbeddedChannel(rateLimiter);
+
+    forged.writeInbound(packet(SINGLE_MESSAGE_CODE, "iPhoneX"), packet(SINGLE_MESSAGE_CODE, "iPhoneX"));
+    forged.writeInbound(packet(SINGLE_MESSAGE_CODE, "Galaxy"));
+    assertThat(forged.inboundMessages()).hasSize(2);
+
+    channel.writeInbound(packet(SINGLE_MESSAGE_CODE, "iPhoneX"), packet(SINGLE_MESSAGE_CODE, "iPhoneX"));
+    assertThat(channel.inboundMessages()).hasSize(2);
+  }
+
+  @Test
+  public void fallsBackToChannelLimitWhenTableIsFull() {
+    RequestRateLimiter smallLimiter = new RequestRateLimiter(RateLimitTable.MAX_PROBES, 1, TimeUnit.HOURS)
+        .limit(SINGLE_MESSAGE, 0.01, 1);
+    for (int i = 0; i < RateLimitTable.MAX_PROBES; i++) {
+      new EmbeddedChannel(smallLimiter).writeInbound(packet(SINGLE_MESSAGE_CODE, "iPhoneX"));
+    }
+    EmbeddedChannel overflow = new EmbeddedChannel(smallLimiter);
+
+    overflow.writeInbound(packet(SINGLE_MESSAGE_CODE, "iPhoneX"), packet(SINGLE_MESSAGE_CODE, "iPhoneX"));
+
+    assertThat(overflow.inboundMessages()).hasSize(1);
+    assertThat(smallLimiter.rejected()).isEqualTo(1);
+  }
+
+  @Test
+  public void neverLimitsChannelCommandSpace() {
+    RequestRateLimiter othersLimiter = new RequestRateLimiter().limitOthers(0.01, 1);
+    EmbeddedChannel channel = new EmbeddedChannel(othersLimiter);
+
+    channel.writeInbound(packet(CHANNEL_CODE, "iPhoneX"), packet(CHANNEL_CODE, "iPhoneX"),
+        packet(CHANNEL_CODE, "iPhoneX"));
+
+    assertThat(channel.inboundMessages()).hasSize(3);
+    assertThatThrownBy(() -> othersLimiter.limit(CHANNEL, 1, 1)).isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  public void reusesIdleEntriesWhenTableIsFull() {
+    RateLimitTable table = new RateLimitTable(RateLimitTable.MAX_PROBES, TimeUnit.SECONDS.toNanos(1));
+    long interval = TimeUnit.SECONDS.toNanos(10);
+    long now = TimeUnit.SECONDS.toNanos(5);
+
+    for (int key = 1; key <= RateLimitTable.MAX_PROBES; key++) {
+      assertThat(table.acquire(key, interval, 0, now)).isZero();
+    }
+    assertThat(table.acquire(1, interval, 0, now)).isEqualTo(interval);
+    assertThat(table.acquire(100, interval, 0, now)).isEqualTo(RateLimitTable.NO_SLOT);
+
+    now += interval + TimeUnit.SECONDS.toNanos(2);
+    assertThat(table.acquire(100, interval, 0, now)).isZero();
+    assertThat(table.acquire(100, interval, 0, now)).isEqualTo(interval);
+  }
+
+  private CDTPPacket packet(short commandSpace, String deviceId) {
+    CDTPPacket packet = new CDTPPacket();
+    packet.setCommandSpace(commandSpace);
+    packet.setCommand((short) 1);
+    CDTPHeader header = new CDTPHeader();
+    header.setSender("sean@t.email");
+    header.setDeviceId(deviceId);
+    header.setPacketId("packet-" + deviceId);
+    packet.setHeader(header);
+    packet.setData(new byte[0]);
+    return packet;
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.syswin.temail.ps.server.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class CommandTableTest {
+
+  @Test
+  public void mergesCommandsBeyondLimit() {
+    CommandTable<int[]> table = new CommandTable<>(2, (commandSpace, command) -> new int[1]);
+
+    table.get((short) 1, (short) 1)[0]++;
+    table.get((short) 1, (short) 2)[0]++;
+    table.get((short) 1, (short) 3)[0]++;
+    table.get((short) 1, (short) 4)[0]++;
+    table.get((short) 1, (short) 1)[0]++;
+
+    int[] overflow = table.get((short) 9, (short) 9);
+    assertThat(overflow).isSameAs(table.get(CommandTable.OVERFLOW, CommandTable.OVERFLOW));
+    assertThat(overflow[0]).isEqualTo(2);
+    assertThat(table.get((short) 1, (short) 1)[0]).isEqualTo(2);
+  }
+}
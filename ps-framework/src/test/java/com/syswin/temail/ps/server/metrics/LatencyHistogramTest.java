@@ -0,0 +1,66 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.syswin.temail.ps.server.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  private final LatencyHistogram histogram = new LatencyHistogram();
+
+  @Test
+  public void bucketBoundsCoverEveryValue() {
+    long[] values = {0, 1, 7, 8, 15, 16, 17, 1000, 123_456_789L, Long.MAX_VALUE};
+    for (long value : values) {
+      int bucket = LatencyHistogram.bucketOf(value);
+      assertThat(LatencyHistogram.upperBoundOf(bucket)).isGreaterThanOrEqualTo(value);
+      if (bucket > 0) {
+        assertThat(LatencyHistogram.upperBoundOf(bucket - 1)).isLessThan(value);
+      }
+    }
+  }
+
+  @Test
+  public void estimatesPercentilesWithinBucketPrecision() {
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i * 1000L);
+    }
+
+    assertThat(histogram.count()).isEqualTo(1000);
+    assertThat(histogram.max()).isEqualTo(1_000_000L);
+    assertThat(histogram.mean()).isEqualTo(500_500.0);
+    assertThat(histogram.valueAtPercentile(50)).isBetween(500_000L, 562_500L);
+    assertThat(histogram.valueAtPercentile(99)).isBetween(990_000L, 1_000_000L);
+    assertThat(histogram.valueAtPercentile(100)).isEqualTo(1_000_000L);
+  }
+
+  @Test
+  public void emptyHistogramReportsZero() {
+    assertThat(histogram.valueAtPercentile(99)).isZero();
+    assertThat(histogram.mean()).isZero();
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.syswin.temail.ps.server.metrics;
+
+import static com.syswin.temail.ps.common.entity.CommandSpaceType.CHANNEL_CODE;
+import static com.syswin.temail.ps.common.entity.CommandType.LOGIN_CODE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.syswin.temail.ps.server.service.channels.strategy.ChannelManager;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class MicrometerGatewayMetricsTest {
+
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  private final MicrometerGatewayMetrics metrics = new MicrometerGatewayMetrics(registry);
+
+  @Test
+  public void recordsLatencyPerStageAndCommand() {
+    metrics.recordLatency(Stage.SESSION, CHANNEL_CODE, LOGIN_CODE, 2_000_000);
+    metrics.recordLatency(Stage.SESSION, CHANNEL_CODE, LOGIN_CODE, 4_000_000);
+    metrics.recordLatency(Stage.REQUEST, (short) 0x10, (short) 0x1, 1_000_000);
+
+    Timer login = registry.get(MicrometerGatewayMetrics.LATENCY)
+        .tags("stage", "session", "commandSpace", "0", "command", "65")
+        .timer();
+    assertThat(login.count()).isEqualTo(2);
+    assertThat(login.totalTime(TimeUnit.MILLISECONDS)).isEqualTo(6.0);
+    assertThat(registry.get(MicrometerGatewayMetrics.LATENCY).tags("stage", "request", "commandSpace", "10")
+        .timer().count()).isEqualTo(1);
+  }
+
+  @Test
+  public void countsChannelsSessionsAndExceptions() {
+    ChannelManager channelManager = Mockito.mock(ChannelManager.class);
+    Mockito.when(channelManager.sessionCount()).thenReturn(3L);
+    metrics.registerChannelManager("sharded", channelManager);
+
+    metrics.channelActive();
+    metrics.channelActive();
+    metrics.channelInactive();
+    metrics.sessionEvent(SessionEvent.LOGIN);
+    metrics.sessionEvent(SessionEvent.BIND);
+    metrics.sessionEvent(SessionEvent.BIND);
+    metrics.exceptionCaught();
+
+    assertThat(registry.get(MicrometerGatewayMetrics.ACTIVE_CHANNELS).gauge().value()).isEqualTo(1.0);
+    assertThat(registry.get(MicrometerGatewayMetrics.SESSIONS).tag("manager", "sharded").gauge().value())
+        .isEqualTo(3.0);
+    assertThat(registry.get(MicrometerGatewayMetrics.SESSION_EVENTS).tag("event", "bind").counter().count())
+        .isEqualTo(2.0);
+    assertThat(registry.get(MicrometerGatewayMetrics.SESSION_EVENTS).tag("event", "login").counter().count())
+        .isEqualTo(1.0);
+    assertThat(registry.get(MicrometerGatewayMetrics.EXCEPTIONS).counter().count()).isEqualTo(1.0);
+  }
+}
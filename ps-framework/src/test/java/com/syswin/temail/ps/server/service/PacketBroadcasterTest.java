@@ -0,0 +1,127 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.syswin.temail.ps.server.service;
+
+import static com.syswin.temail.ps.common.PacketMaker.privateMsgPacket;
+import static com.syswin.temail.ps.common.Constants.LENGTH_FIELD_LENGTH;
+import static com.syswin.temail.ps.common.entity.CompressionType.DEFLATE_CODE;
+import static com.syswin.temail.ps.common.entity.CompressionType.NONE_CODE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.syswin.temail.ps.common.entity.CDTPPacket;
+import com.syswin.temail.ps.common.packet.PacketCompressor;
+import com.syswin.temail.ps.server.codec.CDTPPacketDecoder;
+import com.syswin.temail.ps.server.codec.CDTPPacketEncoder;
+import com.syswin.temail.ps.server.handler.PacketCompressionHandler;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.LengthFieldPrepender;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class PacketBroadcasterTest {
+
+  private final PacketBroadcaster broadcaster = new PacketBroadcaster();
+  private final CDTPPacket packet = privateMsgPacket("sean@t.email", "jack@t.email", "hello world");
+
+  @Test
+  public void writesSameEncodedPacketToAllActiveChannels() {
+    EmbeddedChannel channel1 = newChannel();
+    EmbeddedChannel channel2 = newChannel();
+    EmbeddedChannel inactive = newChannel();
+    inactive.close();
+
+    int count = broadcaster.broadcast(packet, Arrays.<Channel>asList(channel1, channel2, inactive));
+
+    assertThat(count).isEqualTo(2);
+    assertThat(decode(channel1)).isEqualTo(packet);
+    assertThat(decode(channel2)).isEqualTo(packet);
+  }
+
+  @Test
+  public void compressesOnlyForChannelsSupportingCompression() {
+    PacketBroadcaster compressing = new PacketBroadcaster(ByteBufAllocator.DEFAULT, CDTPPacketEncoder::writePacket,
+        new PacketCompressor(0));
+    EmbeddedChannel compressed = newChannel();
+    EmbeddedChannel plain = newChannel();
+    PacketCompressionHandler.enableCompression(compressed);
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 20; i++) {
+      text.append("hello world ");
+    }
+    CDTPPacket packet = privateMsgPacket("sean@t.email", "jack@t.email", text.toString());
+    byte[] data = packet.getData();
+
+    int count = compressing.broadcast(packet, Arrays.<Channel>asList(compressed, plain));
+
+    assertThat(count).isEqualTo(2);
+    CDTPPacket received = decode(compressed);
+    assertThat(received.getHeader().getCompressionMethod()).isEqualTo(DEFLATE_CODE);
+    assertThat(new PacketCompressor(0).decompress(received)).isTrue();
+    assertThat(received.getData()).isEqualTo(data);
+    assertThat(decode(plain)).isEqualTo(packet);
+    assertThat(packet.getHeader().getCompressionMethod()).isEqualTo(NONE_CODE);
+  }
+
+  @Test
+  public void writesUnprefixedFrameWhenPipelinePrependsLength() {
+    EmbeddedChannel prepending = new EmbeddedChannel(new LengthFieldPrepender(LENGTH_FIELD_LENGTH, 0, false));
+    CDTPPacketEncoder.markLengthFieldPrepended(prepending);
+    EmbeddedChannel plain = newChannel();
+
+    int count = broadcaster.broadcast(packet, Arrays.<Channel>asList(prepending, plain));
+
+    assertThat(count).isEqualTo(2);
+    assertThat(decode(prepending)).isEqualTo(packet);
+    assertThat(decode(plain)).isEqualTo(packet);
+  }
+
+  @Test
+  public void skipsEncodingWhenNoActiveChannel() {
+    int count = broadcaster.broadcast(packet, Arrays.asList());
+
+    assertThat(count).isZero();
+  }
+
+  private EmbeddedChannel newChannel() {
+    return new EmbeddedChannel(new CDTPPacketEncoder());
+  }
+
+  private CDTPPacket decode(EmbeddedChannel channel) {
+    ByteBuf encoded = Unpooled.buffer();
+    ByteBuf buf;
+    while ((buf = channel.readOutbound()) != null) {
+      encoded.writeBytes(buf);
+      buf.release();
+    }
+    EmbeddedChannel decoder = new EmbeddedChannel(new CDTPPacketDecoder());
+    decoder.writeInbound(encoded);
+    return decoder.readInbound();
+  }
+}
@@ -0,0 +1,102 @@
+package com.syswin.temail.ps.common.cache;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * 有容量和有效期限制的本地缓存，线程安全。
+ * 超过容量时先清理过期条目，仍然不足再按哈希顺序淘汰，不维护访问顺序以保证读操作无锁
+ */
+public class ExpiringCache<K, V> {
+
+  private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+  private final int maxSize;
+  private final LongSupplier ticker;
+  private final LongAdder hitCount = new LongAdder();
+  private final LongAdder missCount = new LongAdder();
+  private final LongAdder evictionCount = new LongAdder();
+
+  public ExpiringCache(int maxSize) {
+    this(maxSize, System::nanoTime);
+  }
+
+  /**
+   * @param maxSize 最大条目数
+   * @param ticker 纳秒时钟，用于测试
+   */
+  public ExpiringCache(int maxSize, LongSupplier ticker) {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("Max size must be positive: " + maxSize);
+    }
+    this.maxSize = maxSize;
+    this.ticker = ticker;
+  }
+
+  /**
+   * @return 未过期的缓存值，不存在或已过期时返回null
+   */
+  public V get(K key) {
+    Entry<V> entry = entries.get(key);
+    if (entry != null) {
+      if (entry.expiresAt - ticker.getAsLong() > 0) {
+        hitCount.increment();
+        return entry.value;
+      }
+      entries.remove(key, entry);
+    }
+    missCount.increment();
+    return null;
+  }
+
+  public void put(K key, V value, long ttl, TimeUnit unit) {
+    if (entries.size() >= maxSize && !entries.containsKey(key)) {
+      evict();
+    }
+    entries.put(key, new Entry<>(value, ticker.getAsLong() + unit.toNanos(ttl)));
+  }
+
+  public void invalidate(K key) {
+    entries.remove(key);
+  }
+
+  public void invalidateAll() {
+    entries.clear();
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  public CacheStats stats() {
+    return new CacheStats(hitCount.sum(), missCount.sum(), evictionCount.sum());
+  }
+
+  private void evict() {
+    long now = ticker.getAsLong();
+    entries.values().removeIf(entry -> entry.expiresAt - now <= 0);
+
+    // 留出十分之一的空间，避免容量满时每次写入都要淘汰
+    int target = maxSize - Math.max(1, maxSize / 10);
+    Iterator<Map.Entry<K, Entry<V>>> iterator = entries.entrySet().iterator();
+    while (entries.size() > target && iterator.hasNext()) {
+      iterator.next();
+      iterator.remove();
+      evictionCount.increment();
+    }
+  }
+
+  private static final class Entry<V> {
+
+    private final V value;
+    private final long expiresAt;
+
+    private Entry(V value, long expiresAt) {
+      this.value = value;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
@@ -0,0 +1,20 @@
+package com.syswin.temail.ps.common.cache;
+
+import java.security.PublicKey;
+
+/**
+ * 按temail缓存已解析的公钥
+ */
+public interface KeyCache {
+
+  /**
+   * @param temail temail地址
+   * @return 用户公钥，用户不存在时返回null
+   * @throws IllegalStateException 加载公钥失败
+   */
+  PublicKey getPublicKey(String temail);
+
+  void invalidate(String temail);
+
+  CacheStats stats();
+}
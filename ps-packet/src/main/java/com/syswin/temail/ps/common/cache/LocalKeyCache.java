@@ -0,0 +1,58 @@
+package com.syswin.temail.ps.common.cache;
+
+import java.security.PublicKey;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * 基于{@link ExpiringCache}的公钥缓存。不存在的用户也会缓存较短的时间，避免反复查询密钥服务
+ */
+public class LocalKeyCache implements KeyCache {
+
+  private final PublicKeyLoader loader;
+  private final ExpiringCache<String, Optional<PublicKey>> cache;
+  private final long ttlNanos;
+  private final long negativeTtlNanos;
+
+  /**
+   * @param loader 公钥加载器
+   * @param maxSize 最多缓存的用户数
+   * @param ttl 公钥有效期
+   * @param negativeTtl 不存在的用户的有效期
+   */
+  public LocalKeyCache(PublicKeyLoader loader, int maxSize, long ttl, long negativeTtl, TimeUnit unit) {
+    this(loader, maxSize, ttl, negativeTtl, unit, System::nanoTime);
+  }
+
+  LocalKeyCache(PublicKeyLoader loader, int maxSize, long ttl, long negativeTtl, TimeUnit unit, LongSupplier ticker) {
+    this.loader = loader;
+    this.cache = new ExpiringCache<>(maxSize, ticker);
+    this.ttlNanos = unit.toNanos(ttl);
+    this.negativeTtlNanos = unit.toNanos(negativeTtl);
+  }
+
+  @Override
+  public PublicKey getPublicKey(String temail) {
+    Optional<PublicKey> publicKey = cache.get(temail);
+    if (publicKey == null) {
+      try {
+        publicKey = Optional.ofNullable(loader.load(temail));
+      } catch (Exception e) {
+        throw new IllegalStateException("Failed to load public key of " + temail, e);
+      }
+      cache.put(temail, publicKey, publicKey.isPresent() ? ttlNanos : negativeTtlNanos, TimeUnit.NANOSECONDS);
+    }
+    return publicKey.orElse(null);
+  }
+
+  @Override
+  public void invalidate(String temail) {
+    cache.invalidate(temail);
+  }
+
+  @Override
+  public CacheStats stats() {
+    return cache.stats();
+  }
+}
@@ -0,0 +1,17 @@
+package com.syswin.temail.ps.common.cache;
+
+import java.security.PublicKey;
+
+/**
+ * 从密钥服务加载用户公钥
+ */
+@FunctionalInterface
+public interface PublicKeyLoader {
+
+  /**
+   * @param temail temail地址
+   * @return 解析后的公钥，用户不存在时返回null
+   * @throws Exception 密钥服务不可用等加载失败的情况，此时结果不会被缓存
+   */
+  PublicKey load(String temail) throws Exception;
+}
@@ -0,0 +1,101 @@
+package com.syswin.temail.ps.common.cache;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * 短期缓存验签结果，重传的数据包无需再次验签。
+ * 签名明文中已包含数据体的SHA256摘要，因此直接以明文本身作为键的一部分。
+ * 只应缓存真正验签得到的结果，获取密钥失败等异常导致的失败不能缓存
+ */
+public class VerifyResultCache {
+
+  private final ExpiringCache<Key, Boolean> cache;
+  private final long ttlNanos;
+
+  /**
+   * @param maxSize 最多缓存的结果数
+   * @param ttl 结果有效期，应当较短
+   */
+  public VerifyResultCache(int maxSize, long ttl, TimeUnit unit) {
+    this(maxSize, ttl, unit, System::nanoTime);
+  }
+
+  /**
+   * @param maxSize 最多缓存的结果数
+   * @param ttl 结果有效期，应当较短
+   * @param ticker 纳秒时钟，用于测试
+   */
+  public VerifyResultCache(int maxSize, long ttl, TimeUnit unit, LongSupplier ticker) {
+    this.cache = new ExpiringCache<>(maxSize, ticker);
+    this.ttlNanos = unit.toNanos(ttl);
+  }
+
+  /**
+   * @param sender 发送者
+   * @param senderPK 数据包携带的发送者公钥，可以为空
+   * @param signature 签名
+   * @param unsignData 签名明文，读取时不改变其position
+   */
+  public Key key(String sender, String senderPK, String signature, ByteBuffer unsignData) {
+    byte[] data = new byte[unsignData.remaining()];
+    unsignData.duplicate().get(data);
+    return new Key(sender, senderPK, signature, data);
+  }
+
+  /**
+   * @return 缓存的验签结果，没有缓存时返回null
+   */
+  public Boolean get(Key key) {
+    return cache.get(key);
+  }
+
+  public void put(Key key, boolean verified) {
+    cache.put(key, verified, ttlNanos, TimeUnit.NANOSECONDS);
+  }
+
+  public CacheStats stats() {
+    return cache.stats();
+  }
+
+  public static final class Key {
+
+    private final String sender;
+    private final String senderPK;
+    private final String signature;
+    private final byte[] unsignData;
+    private final int hash;
+
+    private Key(String sender, String senderPK, String signature, byte[] unsignData) {
+      this.sender = sender;
+      this.senderPK = senderPK;
+      this.signature = signature;
+      this.unsignData = unsignData;
+      this.hash = 31 * Objects.hash(sender, senderPK, signature) + Arrays.hashCode(unsignData);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) o;
+      return hash == key.hash
+          && Objects.equals(signature, key.signature)
+          && Objects.equals(sender, key.sender)
+          && Objects.equals(senderPK, key.senderPK)
+          && Arrays.equals(unsignData, key.unsignData);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+}
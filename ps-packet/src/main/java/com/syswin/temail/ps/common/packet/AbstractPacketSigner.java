@@ -3,11 +3,13 @@ package com.syswin.temail.ps.common.packet;
 
 import static com.syswin.temail.ps.common.entity.SignatureAlgorithm.NONE;
 import static com.syswin.temail.ps.common.entity.SignatureAlgorithm.NONE_CODE;
-import static com.syswin.temail.ps.common.packet.PacketUtil.getUnsignData;
+import static com.syswin.temail.ps.common.packet.PacketUtil.getUnsignBytes;
 
 import com.syswin.temail.ps.common.entity.CDTPHeader;
 import com.syswin.temail.ps.common.entity.CDTPPacket;
 import com.syswin.temail.ps.common.entity.SignatureAlgorithm;
+import com.syswin.temail.ps.common.utils.StringUtil;
+import java.nio.ByteBuffer;
 
 /**
  * @author 姚华成
@@ -24,6 +26,18 @@ public abstract class AbstractPacketSigner implements PacketSigner {
    */
   public abstract String sign(String userId, String unsignData, SignatureAlgorithm signatureAlgorithm);
 
+  /**
+   * 根据用户ID获取对应密钥对字节形式的明文进行签名。默认解码为字符串后调用{@link #sign(String, String, SignatureAlgorithm)}，
+   * 子类可以覆盖此方法直接对字节签名，避免创建中间字符串
+   *
+   * @param userId 账户ID e.g. temail地址
+   * @param unsignData 用于签名的明文的UTF-8编码，仅在本次调用内有效
+   * @return 明文对应的签名Base64编码
+   */
+  public String sign(String userId, ByteBuffer unsignData, SignatureAlgorithm signatureAlgorithm) {
+    return sign(userId, StringUtil.fromUtf8(unsignData), signatureAlgorithm);
+  }
+
   @Override
   public void sign(CDTPPacket packet) {
     sign(packet, getDefaultAlgorithm());
@@ -35,7 +49,7 @@ public abstract class AbstractPacketSigner implements PacketSigner {
     if (algorithm != NONE &&
         packet != null &&
         (header = packet.getHeader()) != null) {
-      String unsignData = getUnsignData(packet);
+      ByteBuffer unsignData = getUnsignBytes(packet);
       try {
         header.setSignature(sign(header.getSender(), unsignData, algorithm));
         header.setSignatureAlgorithm(algorithm.getCode());
@@ -3,12 +3,14 @@ package com.syswin.temail.ps.common.packet;
 
 import static com.syswin.temail.ps.common.entity.SignatureAlgorithm.NONE;
 import static com.syswin.temail.ps.common.entity.SignatureAlgorithm.valueOf;
-import static com.syswin.temail.ps.common.packet.PacketUtil.getUnsignData;
+import static com.syswin.temail.ps.common.packet.PacketUtil.getUnsignBytes;
 
+import com.syswin.temail.ps.common.cache.VerifyResultCache;
 import com.syswin.temail.ps.common.entity.CDTPHeader;
 import com.syswin.temail.ps.common.entity.CDTPPacket;
 import com.syswin.temail.ps.common.entity.SignatureAlgorithm;
 import com.syswin.temail.ps.common.utils.StringUtil;
+import java.nio.ByteBuffer;
 
 /**
  * @author 姚华成
@@ -16,6 +18,19 @@ import com.syswin.temail.ps.common.utils.StringUtil;
  */
 public abstract class AbstractPacketVerifier implements PacketVerifier {
 
+    private final VerifyResultCache verifyResultCache;
+
+    protected AbstractPacketVerifier() {
+        this(null);
+    }
+
+    /**
+     * @param verifyResultCache 验签结果缓存，为null时不缓存
+     */
+    protected AbstractPacketVerifier(VerifyResultCache verifyResultCache) {
+        this.verifyResultCache = verifyResultCache;
+    }
+
     /**
      * 根据用户ID获取对应密钥进行验签
      *
@@ -30,6 +45,27 @@ public abstract class AbstractPacketVerifier implements PacketVerifier {
     public abstract boolean verifyWithPubKey(String publicKey, String unsignData, String signature,
             SignatureAlgorithm algorithm);
 
+    /**
+     * 根据用户ID获取对应密钥对字节形式的明文验签。默认解码为字符串后调用
+     * {@link #verify(String, String, String, SignatureAlgorithm)}，子类可以覆盖此方法直接对字节验签，避免创建中间字符串
+     *
+     * @param userId 账户ID e.g. temail地址
+     * @param unsignData 用于签名的明文的UTF-8编码，仅在本次调用内有效
+     * @param signature 待验签的签名Base64编码
+     * @return 签名是否与明文匹配
+     */
+    public boolean verify(String userId, ByteBuffer unsignData, String signature, SignatureAlgorithm algorithm) {
+        return verify(userId, StringUtil.fromUtf8(unsignData), signature, algorithm);
+    }
+
+    /**
+     * 使用公钥对字节形式的明文验签，默认解码为字符串后调用{@link #verifyWithPubKey(String, String, String, SignatureAlgorithm)}
+     */
+    public boolean verifyWithPubKey(String publicKey, ByteBuffer unsignData, String signature,
+            SignatureAlgorithm algorithm) {
+        return verifyWithPubKey(publicKey, StringUtil.fromUtf8(unsignData), signature, algorithm);
+    }
+
     @Override
     public boolean verify(CDTPPacket packet) {
         CDTPHeader header;
@@ -37,18 +73,40 @@ public abstract class AbstractPacketVerifier implements PacketVerifier {
         if (packet != null &&
                 (header = packet.getHeader()) != null &&
                 (algorithm = valueOf(header.getSignatureAlgorithm())) != NONE) {
-            String unsignData = getUnsignData(packet);
-            String signature = header.getSignature();
-            try {
-                return verify(header.getSender(), unsignData, signature, algorithm);
-            } catch (Exception e) {
-                String senderPK;
-                if (StringUtil.hasText(senderPK = header.getSenderPK())) {
-                    return verifyWithPubKey(senderPK, unsignData, signature, algorithm);
+            ByteBuffer unsignData = getUnsignBytes(packet);
+            if (verifyResultCache == null) {
+                return Boolean.TRUE.equals(verify(header, unsignData, algorithm));
+            }
+            VerifyResultCache.Key key = verifyResultCache.key(header.getSender(), header.getSenderPK(),
+                    header.getSignature(), unsignData);
+            Boolean verified = verifyResultCache.get(key);
+            if (verified == null) {
+                verified = verify(header, unsignData, algorithm);
+                if (verified == null) {
+                    // 获取密钥失败时没有真正验签，不缓存，密钥服务恢复后重传的包可以验签通过
+                    return false;
                 }
-                return false;
+                verifyResultCache.put(key, verified);
             }
+            return verified;
         }
         return true;
     }
+
+    /**
+     * @return 验签结果，按用户ID获取密钥失败且数据包没有携带公钥时返回null
+     */
+    private Boolean verify(CDTPHeader header, ByteBuffer unsignData, SignatureAlgorithm algorithm) {
+        String signature = header.getSignature();
+        try {
+            return verify(header.getSender(), unsignData, signature, algorithm);
+        } catch (Exception e) {
+            String senderPK;
+            if (StringUtil.hasText(senderPK = header.getSenderPK())) {
+                unsignData.rewind();
+                return verifyWithPubKey(senderPK, unsignData, signature, algorithm);
+            }
+            return null;
+        }
+    }
 }
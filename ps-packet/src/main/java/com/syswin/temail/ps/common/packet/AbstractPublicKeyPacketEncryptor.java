@@ -0,0 +1,39 @@
+package com.syswin.temail.ps.common.packet;
+
+import com.syswin.temail.ps.common.cache.KeyCache;
+import com.syswin.temail.ps.common.entity.DataEncryptType;
+import java.security.PublicKey;
+
+/**
+ * 通过{@link KeyCache}获取已解析的接收者公钥进行加密，避免每次加密都查询密钥服务
+ */
+public abstract class AbstractPublicKeyPacketEncryptor extends AbstractPacketEncryptor {
+
+  private final KeyCache keyCache;
+
+  protected AbstractPublicKeyPacketEncryptor(KeyCache keyCache) {
+    this.keyCache = keyCache;
+  }
+
+  /**
+   * 使用已解析的公钥加密
+   *
+   * @param publicKey 接收者公钥
+   * @param data 待加密的明文
+   * @return 密文
+   */
+  public abstract byte[] encrypt(PublicKey publicKey, byte[] data, DataEncryptType dataEncryptType);
+
+  @Override
+  public byte[] encrypt(String userId, byte[] data, DataEncryptType dataEncryptType) {
+    PublicKey publicKey = keyCache.getPublicKey(userId);
+    if (publicKey == null) {
+      throw new IllegalArgumentException("No public key found for " + userId);
+    }
+    return encrypt(publicKey, data, dataEncryptType);
+  }
+
+  public KeyCache getKeyCache() {
+    return keyCache;
+  }
+}
@@ -0,0 +1,62 @@
+package com.syswin.temail.ps.common.packet;
+
+import com.syswin.temail.ps.common.cache.KeyCache;
+import com.syswin.temail.ps.common.cache.VerifyResultCache;
+import com.syswin.temail.ps.common.entity.SignatureAlgorithm;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.PublicKey;
+
+/**
+ * 通过{@link KeyCache}获取已解析的用户公钥进行验签，避免每次验签都查询密钥服务
+ */
+public abstract class AbstractPublicKeyPacketVerifier extends AbstractPacketVerifier {
+
+  private final KeyCache keyCache;
+
+  protected AbstractPublicKeyPacketVerifier(KeyCache keyCache) {
+    this(keyCache, null);
+  }
+
+  /**
+   * @param keyCache 公钥缓存
+   * @param verifyResultCache 验签结果缓存，为null时不缓存
+   */
+  protected AbstractPublicKeyPacketVerifier(KeyCache keyCache, VerifyResultCache verifyResultCache) {
+    super(verifyResultCache);
+    this.keyCache = keyCache;
+  }
+
+  /**
+   * 使用已解析的公钥验签
+   *
+   * @param publicKey 用户公钥
+   * @param unsignData 用于签名的明文的UTF-8编码，仅在本次调用内有效
+   * @param signature 待验签的签名Base64编码
+   * @return 签名是否与明文匹配
+   */
+  public abstract boolean verify(PublicKey publicKey, ByteBuffer unsignData, String signature,
+      SignatureAlgorithm algorithm);
+
+  @Override
+  public boolean verify(String userId, String unsignData, String signature, SignatureAlgorithm algorithm) {
+    return verify(userId, ByteBuffer.wrap(unsignData.getBytes(StandardCharsets.UTF_8)), signature, algorithm);
+  }
+
+  @Override
+  public boolean verify(String userId, ByteBuffer unsignData, String signature, SignatureAlgorithm algorithm) {
+    return verify(publicKeyOf(userId), unsignData, signature, algorithm);
+  }
+
+  public KeyCache getKeyCache() {
+    return keyCache;
+  }
+
+  private PublicKey publicKeyOf(String userId) {
+    PublicKey publicKey = keyCache.getPublicKey(userId);
+    if (publicKey == null) {
+      throw new IllegalArgumentException("No public key found for " + userId);
+    }
+    return publicKey;
+  }
+}
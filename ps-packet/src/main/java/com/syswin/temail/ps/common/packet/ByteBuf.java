@@ -32,6 +32,16 @@ public class ByteBuf {
     this.writerIndex = this.buf.length;
   }
 
+  /**
+   * 包装数组中[offset, offset + length)的部分，不复制数据
+   */
+  public ByteBuf(byte[] buf, int offset, int length) {
+    this.buf = buf;
+    this.readerIndex = offset;
+    this.markedReaderIndex = offset;
+    this.writerIndex = offset + length;
+  }
+
   public void markReaderIndex() {
     markedReaderIndex = readerIndex;
   }
@@ -75,7 +85,7 @@ public class ByteBuf {
   }
 
   private void checkReadLen(int intendReadLen) {
-    if (this.readerIndex + intendReadLen > this.buf.length) {
+    if (this.readerIndex + intendReadLen > this.writerIndex) {
       throw new PacketException("试图读取的长度" + intendReadLen + "已经超过可读取的长度" + this.readableBytes());
     }
   }
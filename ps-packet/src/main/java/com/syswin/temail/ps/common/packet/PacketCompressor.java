@@ -0,0 +1,165 @@
+package com.syswin.temail.ps.common.packet;
+
+import static com.syswin.temail.ps.common.entity.CompressionType.DEFLATE_CODE;
+import static com.syswin.temail.ps.common.entity.CompressionType.NONE_CODE;
+
+import com.syswin.temail.ps.common.entity.CDTPHeader;
+import com.syswin.temail.ps.common.entity.CDTPPacket;
+import com.syswin.temail.ps.common.entity.CompressionType;
+import com.syswin.temail.ps.common.entity.DataEncryptType;
+import com.syswin.temail.ps.common.exception.PacketException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 包体压缩器，压缩方式记录在头部的compressionMethod字段<br>
+ * 发送时先压缩再加密、签名，接收时先验签、解密再解压。因此只压缩未加密且未签名的包体，
+ * 只解压已解密（dataEncryptionMethod为NONE）的包体；解密器解密后需要将dataEncryptionMethod置为NONE。
+ * 签名的包体需要用网络上收到的字节验签，{@link #decompress(CDTPPacket)}不做处理，验签通过后调用{@link #decompressVerified(CDTPPacket)}
+ */
+public class PacketCompressor {
+
+  public static final int DEFAULT_THRESHOLD = 1024;
+  public static final int DEFAULT_MAX_DECOMPRESSED_LENGTH = 16 * 1024 * 1024;
+  public static final PacketCompressor DEFAULT = new PacketCompressor();
+
+  // Deflater/Inflater创建时分配本地内存，按线程缓存复用
+  private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(Deflater::new);
+  private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+  private final int threshold;
+  private final int maxDecompressedLength;
+
+  public PacketCompressor() {
+    this(DEFAULT_THRESHOLD);
+  }
+
+  /**
+   * @param threshold 包体小于该字节数时不压缩
+   */
+  public PacketCompressor(int threshold) {
+    this(threshold, DEFAULT_MAX_DECOMPRESSED_LENGTH);
+  }
+
+  /**
+   * @param threshold 包体小于该字节数时不压缩
+   * @param maxDecompressedLength 解压后包体的最大字节数，超过时解压失败
+   */
+  public PacketCompressor(int threshold, int maxDecompressedLength) {
+    if (threshold < 0 || maxDecompressedLength < 1) {
+      throw new IllegalArgumentException(
+          "Invalid compression limits: threshold=" + threshold + ", maxDecompressedLength=" + maxDecompressedLength);
+    }
+    this.threshold = threshold;
+    this.maxDecompressedLength = maxDecompressedLength;
+  }
+
+  /**
+   * 压缩包体，需要在加密、签名之前调用。包体小于阈值、已加密、已签名、已压缩或压缩后没有变小时不做处理
+   *
+   * @param packet 数据包
+   * @return 是否压缩了包体
+   */
+  public boolean compress(CDTPPacket packet) {
+    CDTPHeader header = packet.getHeader();
+    byte[] data = packet.getData();
+    if (header == null || data == null || data.length < threshold
+        || header.getCompressionMethod() != NONE_CODE
+        || header.getDataEncryptionMethod() != DataEncryptType.NONE_CODE
+        || header.getSignatureAlgorithm() != 0) {
+      return false;
+    }
+
+    byte[] compressed = deflate(data);
+    if (compressed == null) {
+      return false;
+    }
+    packet.setData(compressed);
+    header.setCompressionMethod(DEFLATE_CODE);
+    return true;
+  }
+
+  /**
+   * 解压包体，需要在解密之后调用。未压缩、仍处于加密状态或已签名的包体不做处理
+   *
+   * @param packet 数据包
+   * @return 是否解压了包体
+   * @throws PacketException 不支持的压缩方式或压缩数据不合法
+   */
+  public boolean decompress(CDTPPacket packet) {
+    CDTPHeader header = packet.getHeader();
+    if (header == null || header.getSignatureAlgorithm() != 0) {
+      return false;
+    }
+    return decompressVerified(packet);
+  }
+
+  /**
+   * 解压已经验签（或未签名）的包体，需要在验签、解密之后调用。未压缩或仍处于加密状态的包体不做处理
+   *
+   * @param packet 数据包
+   * @return 是否解压了包体
+   * @throws PacketException 不支持的压缩方式或压缩数据不合法
+   */
+  public boolean decompressVerified(CDTPPacket packet) {
+    CDTPHeader header = packet.getHeader();
+    if (header == null || header.getCompressionMethod() == NONE_CODE
+        || header.getDataEncryptionMethod() != DataEncryptType.NONE_CODE) {
+      return false;
+    }
+    CompressionType.valueOf(header.getCompressionMethod());
+
+    byte[] data = packet.getData();
+    packet.setData(data == null ? null : inflate(data, packet));
+    header.setCompressionMethod(NONE_CODE);
+    return true;
+  }
+
+  /**
+   * @return 压缩后的数据，没有变小时返回null
+   */
+  private static byte[] deflate(byte[] data) {
+    Deflater deflater = DEFLATER.get();
+    try {
+      deflater.setInput(data);
+      deflater.finish();
+      byte[] buffer = new byte[data.length];
+      int length = 0;
+      while (!deflater.finished() && length < buffer.length) {
+        length += deflater.deflate(buffer, length, buffer.length - length);
+      }
+      return deflater.finished() ? Arrays.copyOf(buffer, length) : null;
+    } finally {
+      deflater.reset();
+    }
+  }
+
+  private byte[] inflate(byte[] data, CDTPPacket packet) {
+    Inflater inflater = INFLATER.get();
+    try {
+      inflater.setInput(data);
+      byte[] buffer = new byte[Math.min(Math.max(data.length * 4, 64), maxDecompressedLength)];
+      int length = 0;
+      while (!inflater.finished()) {
+        if (length == buffer.length) {
+          if (length == maxDecompressedLength) {
+            throw new PacketException("解压后的数据超过上限：" + maxDecompressedLength, packet);
+          }
+          buffer = Arrays.copyOf(buffer, (int) Math.min((long) length * 2, maxDecompressedLength));
+        }
+        int inflated = inflater.inflate(buffer, length, buffer.length - length);
+        if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new PacketException("压缩数据不完整", packet);
+        }
+        length += inflated;
+      }
+      return length == buffer.length ? buffer : Arrays.copyOf(buffer, length);
+    } catch (DataFormatException e) {
+      throw new PacketException("压缩数据不合法", e, packet);
+    } finally {
+      inflater.reset();
+    }
+  }
+}
@@ -0,0 +1,206 @@
+package com.syswin.temail.ps.common.packet;
+
+import static com.syswin.temail.ps.common.Constants.LENGTH_FIELD_LENGTH;
+
+import com.syswin.temail.ps.common.codec.BodyExtractor;
+import com.syswin.temail.ps.common.codec.SimpleBodyExtractor;
+import com.syswin.temail.ps.common.entity.CDTPHeaderDictionary;
+import com.syswin.temail.ps.common.entity.CDTPPacket;
+import com.syswin.temail.ps.common.exception.PacketException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * 从首尾相接存放的多个CDTPPacket中逐个解包，每个包都包含前导的长度<br>
+ * 数据可以分多次追加，不完整的包保留到后续数据到达后再解包。{@link #iterate(byte[], BodyExtractor)}等方法按需逐个解包，
+ * 包装的数组不会被复制。非线程安全
+ */
+public class PacketUnpacker {
+
+  private static final int READ_BUFFER_SIZE = 8192;
+
+  private final BodyExtractor bodyExtractor;
+  private final CDTPHeaderDictionary headerDictionary;
+  private byte[] buf;
+  private int readerIndex;
+  private int writerIndex;
+
+  public PacketUnpacker() {
+    this(SimpleBodyExtractor.INSTANCE);
+  }
+
+  public PacketUnpacker(BodyExtractor bodyExtractor) {
+    this(bodyExtractor, null);
+  }
+
+  /**
+   * @param bodyExtractor 包体解析器
+   * @param headerDictionary 头部字典，为null时不能解包字典编码的头部
+   */
+  public PacketUnpacker(BodyExtractor bodyExtractor, CDTPHeaderDictionary headerDictionary) {
+    this.bodyExtractor = bodyExtractor;
+    this.headerDictionary = headerDictionary;
+    this.buf = new byte[0];
+  }
+
+  private PacketUnpacker(byte[] data, int offset, int length, BodyExtractor bodyExtractor) {
+    this(bodyExtractor, null);
+    this.buf = data;
+    this.readerIndex = offset;
+    this.writerIndex = offset + length;
+  }
+
+  /**
+   * 逐个解包字节数组中的数据包，不复制数组
+   *
+   * @throws PacketException 末尾的数据包不完整
+   */
+  public static Iterator<CDTPPacket> iterate(byte[] data, BodyExtractor bodyExtractor) {
+    return new PacketUnpacker(data, 0, data.length, bodyExtractor).iterator(null);
+  }
+
+  /**
+   * 逐个解包ByteBuffer中剩余的数据包，有底层数组时不复制数据。buffer的位置不变
+   *
+   * @throws PacketException 末尾的数据包不完整
+   */
+  public static Iterator<CDTPPacket> iterate(ByteBuffer buffer, BodyExtractor bodyExtractor) {
+    if (buffer.hasArray()) {
+      return new PacketUnpacker(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(),
+          bodyExtractor).iterator(null);
+    }
+    return new PacketUnpacker(bodyExtractor).append(buffer.duplicate()).iterator(null);
+  }
+
+  /**
+   * 逐个解包输入流中的数据包，每次读取一块数据，跨块的数据包在后续数据读到后解包。输入流不会被关闭
+   *
+   * @throws PacketException 末尾的数据包不完整
+   * @throws UncheckedIOException 读取输入流失败
+   */
+  public static Iterator<CDTPPacket> iterate(InputStream in, BodyExtractor bodyExtractor) {
+    return new PacketUnpacker(bodyExtractor).iterator(in);
+  }
+
+  public PacketUnpacker append(byte[] data) {
+    return append(data, 0, data.length);
+  }
+
+  /**
+   * 追加数据，数据会被复制，调用后可以复用data
+   */
+  public PacketUnpacker append(byte[] data, int offset, int length) {
+    ensureWritable(length);
+    System.arraycopy(data, offset, buf, writerIndex, length);
+    writerIndex += length;
+    return this;
+  }
+
+  /**
+   * 追加buffer中剩余的数据，调用后buffer的位置移动到末尾
+   */
+  public PacketUnpacker append(ByteBuffer buffer) {
+    int length = buffer.remaining();
+    ensureWritable(length);
+    buffer.get(buf, writerIndex, length);
+    writerIndex += length;
+    return this;
+  }
+
+  /**
+   * @return 下一个完整的数据包，数据不完整时返回null
+   */
+  public CDTPPacket next() {
+    if (writerIndex - readerIndex < LENGTH_FIELD_LENGTH) {
+      return null;
+    }
+    int packetLength = (buf[readerIndex] & 0xff) << 24
+        | (buf[readerIndex + 1] & 0xff) << 16
+        | (buf[readerIndex + 2] & 0xff) << 8
+        | (buf[readerIndex + 3] & 0xff);
+    if (packetLength <= 0) {
+      throw new PacketException("包长度不合法：" + packetLength);
+    }
+    if (writerIndex - readerIndex - LENGTH_FIELD_LENGTH < packetLength) {
+      return null;
+    }
+
+    int frameLength = LENGTH_FIELD_LENGTH + packetLength;
+    ByteBuf frame = new ByteBuf(buf, readerIndex, frameLength);
+    readerIndex += frameLength;
+    return PacketUtil.unpack(frame, bodyExtractor, headerDictionary);
+  }
+
+  /**
+   * @return 尚未解包的字节数
+   */
+  public int pendingBytes() {
+    return writerIndex - readerIndex;
+  }
+
+  private void ensureWritable(int length) {
+    if (buf.length - writerIndex >= length) {
+      return;
+    }
+    int pending = pendingBytes();
+    if (buf.length - pending >= length) {
+      System.arraycopy(buf, readerIndex, buf, 0, pending);
+    } else {
+      buf = Arrays.copyOfRange(buf, readerIndex, readerIndex + Math.max(pending + length, buf.length * 2));
+    }
+    readerIndex = 0;
+    writerIndex = pending;
+  }
+
+  private Iterator<CDTPPacket> iterator(InputStream in) {
+    return new Iterator<CDTPPacket>() {
+      private final byte[] readBuffer = in == null ? null : new byte[READ_BUFFER_SIZE];
+      private CDTPPacket next;
+
+      @Override
+      public boolean hasNext() {
+        while (next == null) {
+          next = PacketUnpacker.this.next();
+          if (next == null && !read()) {
+            if (pendingBytes() > 0) {
+              throw new PacketException("末尾的数据包不完整，剩余" + pendingBytes() + "字节");
+            }
+            return false;
+          }
+        }
+        return true;
+      }
+
+      @Override
+      public CDTPPacket next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        CDTPPacket packet = next;
+        next = null;
+        return packet;
+      }
+
+      private boolean read() {
+        if (in == null) {
+          return false;
+        }
+        try {
+          int length = in.read(readBuffer);
+          if (length < 0) {
+            return false;
+          }
+          append(readBuffer, 0, length);
+          return true;
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+    };
+  }
+}
@@ -1,18 +1,21 @@
 package com.syswin.temail.ps.common.packet;
 
+import static com.syswin.temail.ps.common.Constants.CDTP_VERSION_HEADER_DICTIONARY;
 import static com.syswin.temail.ps.common.Constants.LENGTH_FIELD_LENGTH;
 import static com.syswin.temail.ps.common.utils.StringUtil.defaultString;
 
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.syswin.temail.ps.common.codec.BodyExtractor;
 import com.syswin.temail.ps.common.entity.CDTPHeader;
+import com.syswin.temail.ps.common.entity.CDTPHeaderDictionary;
 import com.syswin.temail.ps.common.entity.CDTPPacket;
 import com.syswin.temail.ps.common.entity.CDTPPacketTrans;
-import com.syswin.temail.ps.common.entity.CDTPProtoBuf;
 import com.syswin.temail.ps.common.exception.PacketException;
 import com.syswin.temail.ps.common.utils.DigestUtil;
 import com.syswin.temail.ps.common.utils.HexUtil;
+import java.nio.ByteBuffer;
 import java.util.Base64;
+import java.util.Collection;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -25,16 +28,38 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public abstract class PacketUtil {
 
+  private static final ThreadLocal<UnsignDataBuffer> UNSIGN_DATA_BUFFER = ThreadLocal.withInitial(UnsignDataBuffer::new);
+
   public static CDTPPacket unpack(String packetData, BodyExtractor bodyExtractor) {
     return unpack(Base64.getUrlDecoder().decode(packetData), bodyExtractor);
   }
 
   public static CDTPPacket unpack(byte[] packetData, BodyExtractor bodyExtractor) {
+    return unpack(packetData, bodyExtractor, null);
+  }
+
+  /**
+   * 解包使用头部字典的连接上收到的数据包
+   *
+   * @param packetData 字节数组形式的CDTPPacket包，包含前导的长度
+   * @param bodyExtractor 包体解析器
+   * @param headerDictionary 连接接收方向的头部字典，为null时不能解包字典编码的头部
+   * @return 解包后的CDTPPacket对象
+   */
+  public static CDTPPacket unpack(byte[] packetData, BodyExtractor bodyExtractor,
+      CDTPHeaderDictionary headerDictionary) {
     if (packetData == null || packetData.length <= LENGTH_FIELD_LENGTH) {
       return null;
     }
+    return unpack(new ByteBuf(packetData), bodyExtractor, headerDictionary);
+  }
 
-    ByteBuf byteBuf = new ByteBuf(packetData);
+  /**
+   * 从byteBuf的读位置解包一个数据包，解包后读位置在该包之后
+   *
+   * @return 解包后的CDTPPacket对象，数据不完整时返回null，读位置不变
+   */
+  static CDTPPacket unpack(ByteBuf byteBuf, BodyExtractor bodyExtractor, CDTPHeaderDictionary headerDictionary) {
     CDTPPacket packet = new CDTPPacket();
 
     byteBuf.markReaderIndex();
@@ -62,7 +87,6 @@ public abstract class PacketUtil {
     packet.setVersion(version);
 
     short headerLength = byteBuf.readShort();
-    CDTPProtoBuf.CDTPHeader cdtpHeader;
     if (headerLength < 0) {
       throw new PacketException("headerLength长度错误，headerLength=" + headerLength);
     }
@@ -74,12 +98,11 @@ public abstract class PacketUtil {
       byte[] headerBytes = new byte[headerLength];
       byteBuf.readBytes(headerBytes);
       try {
-        cdtpHeader = CDTPProtoBuf.CDTPHeader.parseFrom(headerBytes);
+        packet.setHeader(decodeHeader(headerBytes, version, headerDictionary).materialize());
       } catch (InvalidProtocolBufferException e) {
         log.error("解包错误", e);
         throw new PacketException("解包错误：" + e.getMessage());
       }
-      packet.setHeader(new CDTPHeader(cdtpHeader));
     }
 
     byte[] data = bodyExtractor.fromBuffer(commandSpace, command, byteBuf, packetLength - headerLength - 8);
@@ -91,6 +114,7 @@ public abstract class PacketUtil {
       // 解密失败，招聘异常
       throw new PacketException("数据解密失败！", e, packet);
     }
+    PacketCompressor.DEFAULT.decompress(packet);
     return packet;
   }
 
@@ -99,12 +123,46 @@ public abstract class PacketUtil {
   }
 
   public static byte[] pack(CDTPPacket packet, boolean includeLength) {
+    return pack(packet, includeLength, null);
+  }
+
+  /**
+   * 封包，headerDictionary不为null时以{@link com.syswin.temail.ps.common.Constants#CDTP_VERSION_HEADER_DICTIONARY}版本
+   * 和字典编码的头部封包，字典随之更新，因此封包结果必须按封包顺序发送
+   *
+   * @param packet 数据包
+   * @param includeLength 是否包含前导的长度
+   * @param headerDictionary 连接发送方向的头部字典，可以为null
+   * @return 封包结果
+   */
+  public static byte[] pack(CDTPPacket packet, boolean includeLength, CDTPHeaderDictionary headerDictionary) {
+    return pack(packet, includeLength, headerDictionary, null);
+  }
+
+  /**
+   * 封包，compressor不为null时先压缩包体，只有未加密、未签名的包体会被压缩，压缩结果会写回packet。
+   * 需要加密或签名的包应在加密之前调用{@link PacketCompressor#compress(CDTPPacket)}
+   *
+   * @param packet 数据包
+   * @param includeLength 是否包含前导的长度
+   * @param headerDictionary 连接发送方向的头部字典，可以为null
+   * @param compressor 包体压缩器，可以为null
+   * @return 封包结果
+   */
+  public static byte[] pack(CDTPPacket packet, boolean includeLength, CDTPHeaderDictionary headerDictionary,
+      PacketCompressor compressor) {
+    if (compressor != null) {
+      compressor.compress(packet);
+    }
     CDTPHeader header = packet.getHeader();
+    short version = headerDictionary == null ? packet.getVersion() : CDTP_VERSION_HEADER_DICTIONARY;
     byte[] headerBytes;
-    if (header != null) {
-      headerBytes = header.toProtobufHeader().toByteArray();
-    } else {
+    if (header == null) {
       headerBytes = new byte[0];
+    } else if (headerDictionary == null) {
+      headerBytes = header.toByteArray();
+    } else {
+      headerBytes = headerDictionary.encode(header);
     }
     int byteBufLen = (includeLength ? LENGTH_FIELD_LENGTH : 0) + 8 + headerBytes.length + packet.getData().length;
     ByteBuf byteBuf = new ByteBuf(byteBufLen);
@@ -113,13 +171,59 @@ public abstract class PacketUtil {
     }
     byteBuf.writeShort(packet.getCommandSpace());
     byteBuf.writeShort(packet.getCommand());
-    byteBuf.writeShort(packet.getVersion());
+    byteBuf.writeShort(version);
     byteBuf.writeShort(headerBytes.length);
     byteBuf.writeBytes(headerBytes);
     byteBuf.writeBytes(packet.getData());
     return byteBuf.getBuf();
   }
 
+  /**
+   * 将多个数据包连续封包到同一个字节数组中，每个包都包含前导的长度，可以用{@link PacketUnpacker}逐个解包
+   *
+   * @param packets 数据包
+   * @return 封包结果
+   */
+  public static byte[] pack(Collection<CDTPPacket> packets) {
+    byte[][] headers = new byte[packets.size()][];
+    int length = 0;
+    int i = 0;
+    for (CDTPPacket packet : packets) {
+      CDTPHeader header = packet.getHeader();
+      headers[i] = header == null ? new byte[0] : header.toByteArray();
+      length += LENGTH_FIELD_LENGTH + 8 + headers[i].length + packet.getData().length;
+      i++;
+    }
+
+    ByteBuf byteBuf = new ByteBuf(length);
+    i = 0;
+    for (CDTPPacket packet : packets) {
+      byte[] headerBytes = headers[i++];
+      byteBuf.writeInt(8 + headerBytes.length + packet.getData().length);
+      byteBuf.writeShort(packet.getCommandSpace());
+      byteBuf.writeShort(packet.getCommand());
+      byteBuf.writeShort(packet.getVersion());
+      byteBuf.writeShort(headerBytes.length);
+      byteBuf.writeBytes(headerBytes);
+      byteBuf.writeBytes(packet.getData());
+    }
+    return byteBuf.getBuf();
+  }
+
+  private static CDTPHeader decodeHeader(byte[] headerBytes, short version, CDTPHeaderDictionary headerDictionary)
+      throws InvalidProtocolBufferException {
+    if (version != CDTP_VERSION_HEADER_DICTIONARY) {
+      return CDTPHeader.parseFrom(headerBytes);
+    }
+    if (headerDictionary == null) {
+      if (CDTPHeaderDictionary.isEncoded(headerBytes)) {
+        throw new PacketException("缺少头部字典，无法解包字典编码的头部");
+      }
+      return CDTPHeader.parseFrom(headerBytes);
+    }
+    return headerDictionary.decode(headerBytes);
+  }
+
   public static String getUnsignData(CDTPPacket packet) {
     CDTPHeader header = packet.getHeader();
     byte[] data = packet.getData();
@@ -131,6 +235,16 @@ public abstract class PacketUtil {
             + dataSha256;
   }
 
+  /**
+   * 获取字节形式的签名明文，与{@link #getUnsignData(CDTPPacket)}结果的UTF-8编码逐字节一致，但不创建中间字符串
+   *
+   * @param packet 数据包
+   * @return 签名明文，缓冲区由当前线程复用，仅在当前线程下一次调用前有效
+   */
+  public static ByteBuffer getUnsignBytes(CDTPPacket packet) {
+    return UNSIGN_DATA_BUFFER.get().write(packet);
+  }
+
   protected abstract BodyExtractor getBodyExtractor();
 
   /**
@@ -0,0 +1,105 @@
+package com.syswin.temail.ps.common.packet;
+
+import static com.syswin.temail.ps.common.utils.DigestUtil.SHA256_LENGTH;
+
+import com.syswin.temail.ps.common.entity.CDTPHeader;
+import com.syswin.temail.ps.common.entity.CDTPPacket;
+import com.syswin.temail.ps.common.utils.DigestUtil;
+import com.syswin.temail.ps.common.utils.HexUtil;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 按线程复用的签名明文缓冲区，直接写出{@link PacketUtil#getUnsignData(CDTPPacket)}结果的UTF-8字节
+ */
+final class UnsignDataBuffer {
+
+  // int与long的十进制最大长度（含符号）
+  private static final int MAX_INT_DIGITS = 11;
+  private static final int MAX_LONG_DIGITS = 20;
+
+  private final byte[] digest = new byte[SHA256_LENGTH];
+  private byte[] bytes = new byte[256];
+  private ByteBuffer view = ByteBuffer.wrap(bytes);
+  private int length;
+
+  ByteBuffer write(CDTPPacket packet) {
+    CDTPHeader header = packet.getHeader();
+    String targetAddress = header.getTargetAddress();
+    byte[] data = packet.getData();
+
+    length = 0;
+    ensureCapacity(MAX_INT_DIGITS + MAX_LONG_DIGITS + SHA256_LENGTH * 2
+        + (targetAddress == null ? 0 : targetAddress.length() * 3));
+    writeDecimal(packet.getCommandSpace() + packet.getCommand());
+    if (targetAddress != null) {
+      writeUtf8(targetAddress);
+    }
+    writeDecimal(header.getTimestamp());
+    if (data != null && data.length != 0) {
+      DigestUtil.sha256(data, digest, 0);
+      length += HexUtil.encodeHex(digest, 0, SHA256_LENGTH, bytes, length);
+    }
+
+    view.clear();
+    view.limit(length);
+    return view;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (bytes.length < capacity) {
+      bytes = new byte[Math.max(capacity, bytes.length << 1)];
+      view = ByteBuffer.wrap(bytes);
+    }
+  }
+
+  private void writeDecimal(long value) {
+    if (value == Long.MIN_VALUE) {
+      byte[] digits = Long.toString(value).getBytes(StandardCharsets.US_ASCII);
+      System.arraycopy(digits, 0, bytes, length, digits.length);
+      length += digits.length;
+      return;
+    }
+    if (value < 0) {
+      bytes[length++] = '-';
+      value = -value;
+    }
+    int digits = 1;
+    for (long v = value; v >= 10; v /= 10) {
+      digits++;
+    }
+    int end = length + digits;
+    for (int i = end - 1; i >= length; i--) {
+      bytes[i] = (byte) ('0' + value % 10);
+      value /= 10;
+    }
+    length = end;
+  }
+
+  // 与String.getBytes(UTF_8)一致，孤立的代理字符编码为'?'
+  private void writeUtf8(String str) {
+    for (int i = 0; i < str.length(); i++) {
+      char c = str.charAt(i);
+      if (c < 0x80) {
+        bytes[length++] = (byte) c;
+      } else if (c < 0x800) {
+        bytes[length++] = (byte) (0xc0 | (c >> 6));
+        bytes[length++] = (byte) (0x80 | (c & 0x3f));
+      } else if (Character.isSurrogate(c)) {
+        if (Character.isHighSurrogate(c) && i + 1 < str.length() && Character.isLowSurrogate(str.charAt(i + 1))) {
+          int codePoint = Character.toCodePoint(c, str.charAt(++i));
+          bytes[length++] = (byte) (0xf0 | (codePoint >> 18));
+          bytes[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+          bytes[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+          bytes[length++] = (byte) (0x80 | (codePoint & 0x3f));
+        } else {
+          bytes[length++] = '?';
+        }
+      } else {
+        bytes[length++] = (byte) (0xe0 | (c >> 12));
+        bytes[length++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+        bytes[length++] = (byte) (0x80 | (c & 0x3f));
+      }
+    }
+  }
+}
@@ -1,5 +1,6 @@
 package com.syswin.temail.ps.common.utils;
 
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
@@ -15,6 +16,15 @@ public class DigestUtil {
   private static final String ALGORITHM_SHA384 = "SHA-384";
   private static final String ALGORITHM_SHA512 = "SHA-512";
 
+  // MessageDigest.getInstance需要查找Provider，开销较大，按线程缓存复用
+  private static final ThreadLocal<MessageDigest> MD5 = threadLocalDigest(ALGORITHM_MD5);
+  private static final ThreadLocal<MessageDigest> SHA224 = threadLocalDigest(ALGORITHM_SHA224);
+  private static final ThreadLocal<MessageDigest> SHA256 = threadLocalDigest(ALGORITHM_SHA256);
+  private static final ThreadLocal<MessageDigest> SHA384 = threadLocalDigest(ALGORITHM_SHA384);
+  private static final ThreadLocal<MessageDigest> SHA512 = threadLocalDigest(ALGORITHM_SHA512);
+
+  public static final int SHA256_LENGTH = 32;
+
   /**
    * 对数据进行md5签名
    *
@@ -22,7 +32,7 @@ public class DigestUtil {
    * @return 数据的签名
    */
   public static byte[] md5(byte[] data) {
-    return digest(ALGORITHM_MD5, data);
+    return MD5.get().digest(data);
   }
 
   /**
@@ -32,7 +42,7 @@ public class DigestUtil {
    * @return 数据的签名
    */
   public static byte[] sha224(byte[] data) {
-    return digest(ALGORITHM_SHA224, data);
+    return SHA224.get().digest(data);
   }
 
   /**
@@ -42,7 +52,7 @@ public class DigestUtil {
    * @return 数据的签名
    */
   public static byte[] sha256(byte[] data) {
-    return digest(ALGORITHM_SHA256, data);
+    return SHA256.get().digest(data);
   }
 
   /**
@@ -52,7 +62,7 @@ public class DigestUtil {
    * @return 数据的签名
    */
   public static byte[] sha384(byte[] data) {
-    return digest(ALGORITHM_SHA384, data);
+    return SHA384.get().digest(data);
   }
 
   /**
@@ -62,7 +72,29 @@ public class DigestUtil {
    * @return 数据的签名
    */
   public static byte[] sha512(byte[] data) {
-    return digest(ALGORITHM_SHA512, data);
+    return SHA512.get().digest(data);
+  }
+
+  /**
+   * 对数据进行sha256签名，结果写入调用方提供的数组，不分配新数组
+   *
+   * @param data 原始数据
+   * @param out 存放签名的数组，从offset开始需要有{@link #SHA256_LENGTH}字节的空间
+   * @param offset 写入的起始位置
+   */
+  public static void sha256(byte[] data, byte[] out, int offset) {
+    MessageDigest digest = SHA256.get();
+    digest.update(data);
+    try {
+      digest.digest(out, offset, SHA256_LENGTH);
+    } catch (DigestException ex) {
+      digest.reset();
+      throw new IllegalArgumentException("Not enough space for SHA-256 digest at offset " + offset, ex);
+    }
+  }
+
+  private static ThreadLocal<MessageDigest> threadLocalDigest(String algorithm) {
+    return ThreadLocal.withInitial(() -> getDigest(algorithm));
   }
 
   private static MessageDigest getDigest(String algorithm) {
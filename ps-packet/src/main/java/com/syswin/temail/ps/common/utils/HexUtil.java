@@ -1,42 +1,166 @@
 package com.syswin.temail.ps.common.utils;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
 /**
+ * 小写十六进制编码、解码。编码按字节查表，每个字节一次查出两个字符；解码按字符查表，大小写均可。
+ * 除返回String/byte[]的方法外，都直接写入调用方提供的数组或ByteBuffer，不创建中间对象
+ *
  * @author 姚华成
  * @date 2018-03-23
  */
 public class HexUtil {
 
-  private static final char[] HEX_CHARS = "0123456789abcdef".toCharArray();
+  private static final String HEX_DIGITS = "0123456789abcdef";
+  // 每个字节值对应的两个十六进制字符，下标为(b & 0xff) << 1
+  private static final char[] HEX_CHAR_PAIRS = new char[512];
+  private static final byte[] HEX_BYTE_PAIRS = new byte[512];
+  // ASCII字符对应的数值，非十六进制字符为-1
+  private static final byte[] DIGIT_VALUES = new byte[128];
+
+  static {
+    for (int b = 0; b < 256; b++) {
+      char high = HEX_DIGITS.charAt(b >>> 4);
+      char low = HEX_DIGITS.charAt(b & 0xf);
+      HEX_CHAR_PAIRS[b << 1] = high;
+      HEX_CHAR_PAIRS[(b << 1) + 1] = low;
+      HEX_BYTE_PAIRS[b << 1] = (byte) high;
+      HEX_BYTE_PAIRS[(b << 1) + 1] = (byte) low;
+    }
+    for (int c = 0; c < DIGIT_VALUES.length; c++) {
+      DIGIT_VALUES[c] = (byte) Character.digit(c, 16);
+    }
+  }
 
   public static String encodeHex(byte[] bytes) {
-    StringBuilder buf = new StringBuilder(bytes.length * 2);
-    for (byte b : bytes) {
-      buf.append(HEX_CHARS[(b >>> 4) & 0xf]).append(HEX_CHARS[b & 0xf]);
+    char[] chars = new char[bytes.length << 1];
+    encodeHex(bytes, 0, bytes.length, chars, 0);
+    return new String(chars);
+  }
+
+  /**
+   * 将字节编码为小写16进制的ASCII字节，写入调用方提供的数组，不创建中间字符串
+   *
+   * @return 写入的字节数，即length * 2
+   */
+  public static int encodeHex(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset) {
+    for (int i = srcOffset, end = srcOffset + length; i < end; i++) {
+      int index = (src[i] & 0xff) << 1;
+      dst[dstOffset++] = HEX_BYTE_PAIRS[index];
+      dst[dstOffset++] = HEX_BYTE_PAIRS[index + 1];
     }
-    return buf.toString();
+    return length << 1;
+  }
+
+  /**
+   * 将字节编码为小写16进制字符，写入调用方提供的数组
+   *
+   * @return 写入的字符数，即length * 2
+   */
+  public static int encodeHex(byte[] src, int srcOffset, int length, char[] dst, int dstOffset) {
+    for (int i = srcOffset, end = srcOffset + length; i < end; i++) {
+      int index = (src[i] & 0xff) << 1;
+      dst[dstOffset++] = HEX_CHAR_PAIRS[index];
+      dst[dstOffset++] = HEX_CHAR_PAIRS[index + 1];
+    }
+    return length << 1;
+  }
+
+  /**
+   * 将src中剩余的字节编码为小写16进制的ASCII字节写入dst，两者的位置都向后移动
+   *
+   * @return 写入的字节数
+   * @throws BufferOverflowException dst剩余空间不足
+   */
+  public static int encodeHex(ByteBuffer src, ByteBuffer dst) {
+    int length = src.remaining();
+    if (dst.remaining() < length << 1) {
+      throw new BufferOverflowException();
+    }
+    if (src.hasArray() && dst.hasArray()) {
+      encodeHex(src.array(), src.arrayOffset() + src.position(), length,
+          dst.array(), dst.arrayOffset() + dst.position());
+      src.position(src.limit());
+      dst.position(dst.position() + (length << 1));
+    } else {
+      while (src.hasRemaining()) {
+        int index = (src.get() & 0xff) << 1;
+        dst.put(HEX_BYTE_PAIRS[index]).put(HEX_BYTE_PAIRS[index + 1]);
+      }
+    }
+    return length << 1;
   }
 
   public static byte[] decodeHex(String data) {
     if ((data.length() & 1) == 1) {
-      throw new RuntimeException("不是合法的16进制数据！" + data);
+      throw new IllegalArgumentException("不是合法的16进制数据！" + data);
     }
-    data = data.toUpperCase();
     byte[] bytes = new byte[data.length() >>> 1];
-    for (int i = 0; i < data.length(); ) {
-      int b = 0;
-      for (int j = 0; j < 2; j++) {
-        char c1 = data.charAt(i + j);
-        if (c1 >= '0' && c1 <= '9') {
-          b = b << 4 & (c1 - '0');
-        } else if (c1 >= 'A' && c1 <= 'F') {
-          b = b << 4 & (c1 - 'A' + 10);
-        } else {
-          throw new RuntimeException("不是合法的16进制数据！" + data);
-        }
-        i++;
-      }
-      bytes[i >>> 1] = (byte) (b & 0xf);
-    }
+    decodeHex(data, 0, data.length(), bytes, 0);
     return bytes;
   }
+
+  /**
+   * 解码16进制字符，写入调用方提供的数组
+   *
+   * @param length 字符数，必须为偶数
+   * @return 写入的字节数，即length / 2
+   * @throws IllegalArgumentException 长度为奇数或包含非16进制字符
+   */
+  public static int decodeHex(CharSequence src, int srcOffset, int length, byte[] dst, int dstOffset) {
+    checkEven(length);
+    for (int i = srcOffset, end = srcOffset + length; i < end; i += 2) {
+      dst[dstOffset++] = (byte) (digit(src.charAt(i)) << 4 | digit(src.charAt(i + 1)));
+    }
+    return length >>> 1;
+  }
+
+  /**
+   * 解码16进制的ASCII字节，写入调用方提供的数组，dst可以与src相同
+   *
+   * @param length 字节数，必须为偶数
+   * @return 写入的字节数，即length / 2
+   * @throws IllegalArgumentException 长度为奇数或包含非16进制字符
+   */
+  public static int decodeHex(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset) {
+    checkEven(length);
+    for (int i = srcOffset, end = srcOffset + length; i < end; i += 2) {
+      dst[dstOffset++] = (byte) (digit(src[i]) << 4 | digit(src[i + 1]));
+    }
+    return length >>> 1;
+  }
+
+  /**
+   * 将src中剩余的16进制ASCII字节解码写入dst，两者的位置都向后移动
+   *
+   * @return 写入的字节数
+   * @throws IllegalArgumentException 长度为奇数或包含非16进制字符
+   * @throws BufferOverflowException dst剩余空间不足
+   */
+  public static int decodeHex(ByteBuffer src, ByteBuffer dst) {
+    int length = src.remaining();
+    checkEven(length);
+    if (dst.remaining() < length >>> 1) {
+      throw new BufferOverflowException();
+    }
+    while (src.hasRemaining()) {
+      dst.put((byte) (digit(src.get()) << 4 | digit(src.get())));
+    }
+    return length >>> 1;
+  }
+
+  private static void checkEven(int length) {
+    if ((length & 1) == 1) {
+      throw new IllegalArgumentException("不是合法的16进制数据，长度为奇数：" + length);
+    }
+  }
+
+  private static int digit(int c) {
+    int value = c >= 0 && c < DIGIT_VALUES.length ? DIGIT_VALUES[c] : -1;
+    if (value < 0) {
+      throw new IllegalArgumentException("不是合法的16进制字符：" + (char) c);
+    }
+    return value;
+  }
 }
@@ -1,15 +1,17 @@
 package com.syswin.temail.ps.common.utils;
 
+import static com.syswin.temail.ps.common.Constants.CDTP_VERSION_HEADER_DICTIONARY;
 import static com.syswin.temail.ps.common.Constants.LENGTH_FIELD_LENGTH;
 
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.syswin.temail.ps.common.codec.BodyExtractor;
 import com.syswin.temail.ps.common.codec.SimpleBodyExtractor;
 import com.syswin.temail.ps.common.entity.CDTPHeader;
+import com.syswin.temail.ps.common.entity.CDTPHeaderDictionary;
 import com.syswin.temail.ps.common.entity.CDTPPacket;
-import com.syswin.temail.ps.common.entity.CDTPProtoBuf;
 import com.syswin.temail.ps.common.exception.PacketException;
 import com.syswin.temail.ps.common.packet.ByteBuf;
+import com.syswin.temail.ps.common.packet.PacketCompressor;
 
 import java.util.Base64;
 //import lombok.extern.slf4j.Slf4j;
@@ -48,6 +50,19 @@ public class PacketUtil {
   }
 
   public static CDTPPacket unpack(byte[] packetData, BodyExtractor bodyExtractor) {
+    return unpack(packetData, bodyExtractor, null);
+  }
+
+  /**
+   * 解包使用头部字典的连接上收到的数据包
+   *
+   * @param packetData 字节数组形式的CDTPPacket包，包含前导的长度
+   * @param bodyExtractor 包体解析器
+   * @param headerDictionary 连接接收方向的头部字典，为null时不能解包字典编码的头部
+   * @return 解包后的CDTPPacket对象
+   */
+  public static CDTPPacket unpack(byte[] packetData, BodyExtractor bodyExtractor,
+      CDTPHeaderDictionary headerDictionary) {
     if (packetData == null || packetData.length <= LENGTH_FIELD_LENGTH) {
       return null;
     }
@@ -80,7 +95,6 @@ public class PacketUtil {
     packet.setVersion(version);
 
     short headerLength = byteBuf.readShort();
-    CDTPProtoBuf.CDTPHeader cdtpHeader;
     if (headerLength < 0) {
       throw new PacketException("headerLength长度错误，headerLength=" + headerLength);
     }
@@ -92,12 +106,11 @@ public class PacketUtil {
       byte[] headerBytes = new byte[headerLength];
       byteBuf.readBytes(headerBytes);
       try {
-        cdtpHeader = CDTPProtoBuf.CDTPHeader.parseFrom(headerBytes);
+        packet.setHeader(decodeHeader(headerBytes, version, headerDictionary).materialize());
       } catch (InvalidProtocolBufferException e) {
         //log.error("解包错误", e);
         throw new PacketException("解包错误：" + e.getMessage());
       }
-      packet.setHeader(new CDTPHeader(cdtpHeader));
     }
 
     byte[] data = bodyExtractor.fromBuffer(commandSpace, command, byteBuf, packetLength - headerLength - 8);
@@ -105,6 +118,7 @@ public class PacketUtil {
     packet.setData(data);
 
     bodyExtractor.decrypt(packet);
+    PacketCompressor.DEFAULT.decompress(packet);
     return packet;
   }
 
@@ -114,12 +128,46 @@ public class PacketUtil {
   }
 
   public static byte[] pack(CDTPPacket packet, boolean includeLength) {
+    return pack(packet, includeLength, null);
+  }
+
+  /**
+   * 封包，headerDictionary不为null时以{@link com.syswin.temail.ps.common.Constants#CDTP_VERSION_HEADER_DICTIONARY}版本
+   * 和字典编码的头部封包，字典随之更新，因此封包结果必须按封包顺序发送
+   *
+   * @param packet 数据包
+   * @param includeLength 是否包含前导的长度
+   * @param headerDictionary 连接发送方向的头部字典，可以为null
+   * @return 封包结果
+   */
+  public static byte[] pack(CDTPPacket packet, boolean includeLength, CDTPHeaderDictionary headerDictionary) {
+    return pack(packet, includeLength, headerDictionary, null);
+  }
+
+  /**
+   * 封包，compressor不为null时先压缩包体，只有未加密、未签名的包体会被压缩，压缩结果会写回packet。
+   * 需要加密或签名的包应在加密之前调用{@link PacketCompressor#compress(CDTPPacket)}
+   *
+   * @param packet 数据包
+   * @param includeLength 是否包含前导的长度
+   * @param headerDictionary 连接发送方向的头部字典，可以为null
+   * @param compressor 包体压缩器，可以为null
+   * @return 封包结果
+   */
+  public static byte[] pack(CDTPPacket packet, boolean includeLength, CDTPHeaderDictionary headerDictionary,
+      PacketCompressor compressor) {
+    if (compressor != null) {
+      compressor.compress(packet);
+    }
     CDTPHeader header = packet.getHeader();
+    short version = headerDictionary == null ? packet.getVersion() : CDTP_VERSION_HEADER_DICTIONARY;
     byte[] headerBytes;
-    if (header != null) {
-      headerBytes = header.toProtobufHeader().toByteArray();
-    } else {
+    if (header == null) {
       headerBytes = new byte[0];
+    } else if (headerDictionary == null) {
+      headerBytes = header.toByteArray();
+    } else {
+      headerBytes = headerDictionary.encode(header);
     }
     int byteBufLen = (includeLength ? LENGTH_FIELD_LENGTH : 0) + 8 + headerBytes.length + packet.getData().length;
     ByteBuf byteBuf = new ByteBuf(byteBufLen);
@@ -128,10 +176,24 @@ public class PacketUtil {
     }
     byteBuf.writeShort(packet.getCommandSpace());
     byteBuf.writeShort(packet.getCommand());
-    byteBuf.writeShort(packet.getVersion());
+    byteBuf.writeShort(version);
     byteBuf.writeShort(headerBytes.length);
     byteBuf.writeBytes(headerBytes);
     byteBuf.writeBytes(packet.getData());
     return byteBuf.getBuf();
   }
+
+  private static CDTPHeader decodeHeader(byte[] headerBytes, short version, CDTPHeaderDictionary headerDictionary)
+      throws InvalidProtocolBufferException {
+    if (version != CDTP_VERSION_HEADER_DICTIONARY) {
+      return CDTPHeader.parseFrom(headerBytes);
+    }
+    if (headerDictionary == null) {
+      if (CDTPHeaderDictionary.isEncoded(headerBytes)) {
+        throw new PacketException("缺少头部字典，无法解包字典编码的头部");
+      }
+      return CDTPHeader.parseFrom(headerBytes);
+    }
+    return headerDictionary.decode(headerBytes);
+  }
 }
@@ -1,5 +1,8 @@
 package com.syswin.temail.ps.common.utils;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 /**
  * @author 姚华成
  * @date 2018-9-14
@@ -45,4 +48,17 @@ public class StringUtil {
   public static String defaultString(final String str, final String defaultStr) {
     return str == null ? defaultStr : str;
   }
+
+  /**
+   * 将缓冲区中剩余的UTF-8字节解码为字符串，不改变缓冲区的position
+   */
+  public static String fromUtf8(ByteBuffer buffer) {
+    if (buffer.hasArray()) {
+      return new String(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(),
+          StandardCharsets.UTF_8);
+    }
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
 }
@@ -0,0 +1,68 @@
+package com.syswin.temail.ps.common.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.security.PublicKey;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+public class LocalKeyCacheTest {
+
+  private final AtomicLong ticker = new AtomicLong();
+  private final PublicKey publicKey = mock(PublicKey.class);
+  private final PublicKeyLoader loader = mock(PublicKeyLoader.class);
+  private final LocalKeyCache keyCache = new LocalKeyCache(loader, 2, 60, 5, TimeUnit.SECONDS, ticker::get);
+
+  @Test
+  public void loadsPublicKeyOnceWithinTtl() throws Exception {
+    when(loader.load("sean@t.email")).thenReturn(publicKey);
+
+    assertThat(keyCache.getPublicKey("sean@t.email")).isSameAs(publicKey);
+    assertThat(keyCache.getPublicKey("sean@t.email")).isSameAs(publicKey);
+    verify(loader, times(1)).load("sean@t.email");
+
+    ticker.addAndGet(TimeUnit.SECONDS.toNanos(61));
+    assertThat(keyCache.getPublicKey("sean@t.email")).isSameAs(publicKey);
+    verify(loader, times(2)).load("sean@t.email");
+
+    assertThat(keyCache.stats().getHitCount()).isEqualTo(1);
+    assertThat(keyCache.stats().getMissCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void cachesUnknownUserForNegativeTtl() throws Exception {
+    assertThat(keyCache.getPublicKey("nobody@t.email")).isNull();
+    assertThat(keyCache.getPublicKey("nobody@t.email")).isNull();
+    verify(loader, times(1)).load("nobody@t.email");
+
+    ticker.addAndGet(TimeUnit.SECONDS.toNanos(6));
+    assertThat(keyCache.getPublicKey("nobody@t.email")).isNull();
+    verify(loader, times(2)).load("nobody@t.email");
+  }
+
+  @Test
+  public void doesNotCacheLoadFailure() throws Exception {
+    when(loader.load("sean@t.email")).thenThrow(new RuntimeException("oops")).thenReturn(publicKey);
+
+    try {
+      keyCache.getPublicKey("sean@t.email");
+    } catch (IllegalStateException e) {
+      assertThat(e).hasCauseInstanceOf(RuntimeException.class);
+    }
+    assertThat(keyCache.getPublicKey("sean@t.email")).isSameAs(publicKey);
+  }
+
+  @Test
+  public void evictsWhenFull() throws Exception {
+    keyCache.getPublicKey("a@t.email");
+    keyCache.getPublicKey("b@t.email");
+    keyCache.getPublicKey("c@t.email");
+
+    assertThat(keyCache.stats().getEvictionCount()).isPositive();
+  }
+}
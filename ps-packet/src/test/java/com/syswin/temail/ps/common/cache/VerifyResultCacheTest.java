@@ -0,0 +1,43 @@
+package com.syswin.temail.ps.common.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+public class VerifyResultCacheTest {
+
+  private final AtomicLong ticker = new AtomicLong();
+  private final VerifyResultCache cache = new VerifyResultCache(16, 5, TimeUnit.SECONDS, ticker::get);
+
+  @Test
+  public void hitsWithEqualKey() {
+    ByteBuffer unsignData = unsignData("1011540000000000");
+    cache.put(cache.key("sean@t.email", null, "signature", unsignData), true);
+
+    assertThat(unsignData.remaining()).isEqualTo(16);
+    assertThat(cache.get(cache.key("sean@t.email", null, "signature", unsignData("1011540000000000")))).isTrue();
+    assertThat(cache.get(cache.key("sean@t.email", null, "forged", unsignData("1011540000000000")))).isNull();
+    assertThat(cache.get(cache.key("sean@t.email", null, "signature", unsignData("1011540000000001")))).isNull();
+    assertThat(cache.stats().getHitCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void expiresAfterTtl() {
+    VerifyResultCache.Key key = cache.key("sean@t.email", "senderPK", "signature", unsignData("101"));
+    cache.put(key, false);
+
+    ticker.addAndGet(TimeUnit.SECONDS.toNanos(4));
+    assertThat(cache.get(key)).isFalse();
+
+    ticker.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    assertThat(cache.get(key)).isNull();
+  }
+
+  private static ByteBuffer unsignData(String value) {
+    return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,76 @@
+package com.syswin.temail.ps.common.packet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.syswin.temail.ps.common.cache.VerifyResultCache;
+import com.syswin.temail.ps.common.entity.CDTPHeader;
+import com.syswin.temail.ps.common.entity.CDTPPacket;
+import com.syswin.temail.ps.common.entity.SignatureAlgorithm;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class AbstractPacketVerifierTest {
+
+  private final CountingVerifier verifier = new CountingVerifier(new VerifyResultCache(16, 1, TimeUnit.MINUTES));
+
+  @Test
+  public void cachesVerifiedResult() {
+    verifier.result = false;
+
+    assertThat(verifier.verify(packet())).isFalse();
+    assertThat(verifier.verify(packet())).isFalse();
+    assertThat(verifier.calls).isEqualTo(1);
+  }
+
+  @Test
+  public void skipsCacheWhenKeyLookupFails() {
+    verifier.keyServiceDown = true;
+    assertThat(verifier.verify(packet())).isFalse();
+
+    verifier.keyServiceDown = false;
+    assertThat(verifier.verify(packet())).isTrue();
+    assertThat(verifier.verify(packet())).isTrue();
+    assertThat(verifier.calls).isEqualTo(2);
+  }
+
+  private static CDTPPacket packet() {
+    CDTPHeader header = new CDTPHeader();
+    header.setSender("sean@t.email");
+    header.setSignatureAlgorithm(SignatureAlgorithm.ECC512_CODE);
+    header.setSignature("signature");
+    header.setTimestamp(1540000000000L);
+    CDTPPacket packet = new CDTPPacket();
+    packet.setCommandSpace((short) 1);
+    packet.setCommand((short) 1);
+    packet.setVersion((short) 1);
+    packet.setHeader(header);
+    packet.setData(new byte[]{1, 2, 3});
+    return packet;
+  }
+
+  private static class CountingVerifier extends AbstractPacketVerifier {
+
+    private boolean keyServiceDown;
+    private boolean result = true;
+    private int calls;
+
+    private CountingVerifier(VerifyResultCache verifyResultCache) {
+      super(verifyResultCache);
+    }
+
+    @Override
+    public boolean verify(String userId, String unsignData, String signature, SignatureAlgorithm algorithm) {
+      calls++;
+      if (keyServiceDown) {
+        throw new IllegalStateException("Key service unavailable");
+      }
+      return result;
+    }
+
+    @Override
+    public boolean verifyWithPubKey(String publicKey, String unsignData, String signature,
+        SignatureAlgorithm algorithm) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -0,0 +1,112 @@
+package com.syswin.temail.ps.common.packet;
+
+import static com.syswin.temail.ps.common.entity.CompressionType.DEFLATE_CODE;
+import static com.syswin.temail.ps.common.entity.CompressionType.NONE_CODE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.syswin.temail.ps.common.codec.SimpleBodyExtractor;
+import com.syswin.temail.ps.common.entity.CDTPHeader;
+import com.syswin.temail.ps.common.entity.CDTPPacket;
+import com.syswin.temail.ps.common.entity.DataEncryptType;
+import com.syswin.temail.ps.common.exception.PacketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class PacketCompressorTest {
+
+  private final PacketCompressor compressor = new PacketCompressor(64, 4096);
+  private final byte[] content = repeat("{\"from\":\"sean@t.email\",\"to\":\"jack@t.email\"}", 20);
+
+  @Test
+  public void compressesAndDecompressesPlainBody() {
+    CDTPPacket packet = packet(content);
+
+    assertThat(compressor.compress(packet)).isTrue();
+    assertThat(packet.getHeader().getCompressionMethod()).isEqualTo(DEFLATE_CODE);
+    assertThat(packet.getData().length).isLessThan(content.length);
+
+    assertThat(compressor.decompress(packet)).isTrue();
+    assertThat(packet.getHeader().getCompressionMethod()).isEqualTo(NONE_CODE);
+    assertThat(packet.getData()).isEqualTo(content);
+  }
+
+  @Test
+  public void skipsSmallEncryptedOrSignedBody() {
+    assertThat(compressor.compress(packet(Arrays.copyOf(content, 63)))).isFalse();
+
+    CDTPPacket encrypted = packet(content);
+    encrypted.getHeader().setDataEncryptionMethod(DataEncryptType.AES_CBC_32_CODE);
+    assertThat(compressor.compress(encrypted)).isFalse();
+
+    CDTPPacket signed = packet(content);
+    signed.getHeader().setSignatureAlgorithm(1);
+    assertThat(compressor.compress(signed)).isFalse();
+    assertThat(signed.getData()).isEqualTo(content);
+  }
+
+  @Test
+  public void leavesBodyCompressedUntilDecrypted() {
+    CDTPPacket packet = packet(content);
+    compressor.compress(packet);
+    byte[] compressed = packet.getData();
+    packet.getHeader().setDataEncryptionMethod(DataEncryptType.AES_CBC_32_CODE);
+
+    assertThat(compressor.decompress(packet)).isFalse();
+    assertThat(packet.getData()).isSameAs(compressed);
+  }
+
+  @Test
+  public void leavesSignedBodyCompressedUntilVerified() {
+    CDTPPacket packet = packet(content);
+    compressor.compress(packet);
+    byte[] compressed = packet.getData();
+    packet.getHeader().setSignatureAlgorithm(1);
+
+    CDTPPacket unpacked = PacketUtil.unpack(PacketUtil.pack(packet, true), SimpleBodyExtractor.INSTANCE);
+    assertThat(unpacked.getData()).isEqualTo(compressed);
+    assertThat(compressor.decompress(unpacked)).isFalse();
+
+    assertThat(compressor.decompressVerified(unpacked)).isTrue();
+    assertThat(unpacked.getData()).isEqualTo(content);
+    assertThat(unpacked.getHeader().getCompressionMethod()).isEqualTo(NONE_CODE);
+  }
+
+  @Test
+  public void blowsUpIfDecompressedBodyExceedsLimit() {
+    CDTPPacket packet = packet(repeat("a", 8192));
+    new PacketCompressor(0, 8192).compress(packet);
+
+    assertThatThrownBy(() -> compressor.decompress(packet))
+        .isInstanceOf(PacketException.class)
+        .hasMessageContaining("4096");
+  }
+
+  @Test
+  public void packsCompressedBodyAndUnpacksPlainBody() {
+    CDTPPacket packet = packet(content);
+
+    byte[] packed = PacketUtil.pack(packet, true, null, compressor);
+    CDTPPacket unpacked = PacketUtil.unpack(packed, SimpleBodyExtractor.INSTANCE);
+
+    assertThat(packed.length).isLessThan(content.length);
+    assertThat(unpacked.getData()).isEqualTo(content);
+    assertThat(unpacked.getHeader().getCompressionMethod()).isEqualTo(NONE_CODE);
+  }
+
+  private static CDTPPacket packet(byte[] data) {
+    CDTPHeader header = new CDTPHeader();
+    header.setSender("sean@t.email");
+    header.setReceiver("jack@t.email");
+    return new CDTPPacket((short) 1, (short) 1, (short) 1, header, data);
+  }
+
+  private static byte[] repeat(String text, int times) {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < times; i++) {
+      builder.append(text);
+    }
+    return builder.toString().getBytes(StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,98 @@
+package com.syswin.temail.ps.common.packet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.syswin.temail.ps.common.codec.SimpleBodyExtractor;
+import com.syswin.temail.ps.common.entity.CDTPHeader;
+import com.syswin.temail.ps.common.entity.CDTPPacket;
+import com.syswin.temail.ps.common.exception.PacketException;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.Test;
+
+public class PacketUnpackerTest {
+
+  private final List<CDTPPacket> packets = Arrays.asList(packet("hello"), packet(""), packet("world"));
+  private final byte[] packed = PacketUtil.pack(packets);
+
+  @Test
+  public void packsBatchAsConcatenatedSinglePackets() {
+    ByteBuffer expected = ByteBuffer.allocate(packed.length);
+    for (CDTPPacket packet : packets) {
+      expected.put(PacketUtil.pack(packet, true));
+    }
+
+    assertThat(packed).isEqualTo(expected.array());
+  }
+
+  @Test
+  public void iteratesPacketsInArrayAndBuffer() {
+    assertThat(toList(PacketUnpacker.iterate(packed, SimpleBodyExtractor.INSTANCE))).isEqualTo(packets);
+
+    ByteBuffer buffer = ByteBuffer.allocateDirect(packed.length);
+    buffer.put(packed).flip();
+    assertThat(toList(PacketUnpacker.iterate(buffer, SimpleBodyExtractor.INSTANCE))).isEqualTo(packets);
+    assertThat(buffer.remaining()).isEqualTo(packed.length);
+  }
+
+  @Test
+  public void carriesPartialPacketOverAppends() {
+    PacketUnpacker unpacker = new PacketUnpacker();
+    List<CDTPPacket> unpacked = new ArrayList<>();
+
+    for (int offset = 0; offset < packed.length; offset += 5) {
+      unpacker.append(packed, offset, Math.min(5, packed.length - offset));
+      CDTPPacket packet;
+      while ((packet = unpacker.next()) != null) {
+        unpacked.add(packet);
+      }
+    }
+
+    assertThat(unpacked).isEqualTo(packets);
+    assertThat(unpacker.pendingBytes()).isZero();
+  }
+
+  @Test
+  public void readsPacketsFromStreamInChunks() {
+    InputStream in = new ByteArrayInputStream(packed) {
+      @Override
+      public synchronized int read(byte[] b, int off, int len) {
+        return super.read(b, off, Math.min(len, 7));
+      }
+    };
+
+    assertThat(toList(PacketUnpacker.iterate(in, SimpleBodyExtractor.INSTANCE))).isEqualTo(packets);
+  }
+
+  @Test
+  public void blowsUpIfLastPacketIsTruncated() {
+    Iterator<CDTPPacket> iterator = PacketUnpacker.iterate(Arrays.copyOf(packed, packed.length - 1),
+        SimpleBodyExtractor.INSTANCE);
+    iterator.next();
+    iterator.next();
+
+    assertThatThrownBy(iterator::hasNext)
+        .isInstanceOf(PacketException.class)
+        .hasMessageContaining("不完整");
+  }
+
+  private static List<CDTPPacket> toList(Iterator<CDTPPacket> iterator) {
+    List<CDTPPacket> list = new ArrayList<>();
+    iterator.forEachRemaining(list::add);
+    return list;
+  }
+
+  private static CDTPPacket packet(String content) {
+    CDTPHeader header = new CDTPHeader();
+    header.setSender("sean@t.email");
+    header.setPacketId(content + "-id");
+    return new CDTPPacket((short) 1, (short) 1, (short) 1, header, content.getBytes(StandardCharsets.UTF_8));
+  }
+}
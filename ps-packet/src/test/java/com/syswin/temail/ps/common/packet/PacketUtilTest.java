@@ -0,0 +1,91 @@
+package com.syswin.temail.ps.common.packet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.syswin.temail.ps.common.entity.CDTPHeader;
+import com.syswin.temail.ps.common.entity.CDTPPacket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.junit.Test;
+
+public class PacketUtilTest {
+
+  @Test
+  public void unsignBytesMatchUnsignDataWithoutBody() {
+    CDTPPacket packet = packet(new CDTPHeader(), null);
+    assertUnsignBytesMatchUnsignData(packet);
+
+    packet.setData(new byte[0]);
+    assertUnsignBytesMatchUnsignData(packet);
+  }
+
+  @Test
+  public void unsignBytesMatchUnsignDataWithNonAsciiFields() {
+    CDTPHeader header = new CDTPHeader();
+    header.setSender("张三@t.email");
+    header.setReceiver("ユーザー@t.email");
+    header.setTargetAddress("目标地址-é-😀-\uD800");
+    header.setTimestamp(-1L);
+    assertUnsignBytesMatchUnsignData(packet(header, "你好".getBytes(StandardCharsets.UTF_8)));
+  }
+
+  @Test
+  public void unsignBytesMatchUnsignDataWithAllHeaderFields() {
+    CDTPHeader header = new CDTPHeader();
+    header.setDeviceId("device-1");
+    header.setSignatureAlgorithm(1);
+    header.setSignature("signature");
+    header.setDataEncryptionMethod(4);
+    header.setTimestamp(Long.MAX_VALUE);
+    header.setPacketId("packet-1");
+    header.setSender("sean@t.email");
+    header.setSenderPK("senderPK");
+    header.setReceiver("jack@t.email");
+    header.setReceiverPK("receiverPK");
+    header.setAt("at");
+    header.setTopic("topic");
+    header.setExtraData("{\"type\":1}");
+    header.setTargetAddress("msgseal.t.email:8099");
+    header.setCompressionMethod(0);
+    CDTPPacket packet = packet(header, new byte[]{1, 2, 3});
+    packet.setCommandSpace(Short.MAX_VALUE);
+    packet.setCommand(Short.MAX_VALUE);
+    assertUnsignBytesMatchUnsignData(packet);
+
+    header.setTimestamp(Long.MIN_VALUE);
+    assertUnsignBytesMatchUnsignData(packet);
+  }
+
+  @Test
+  public void unsignBytesMatchUnsignDataWithLargeBody() {
+    byte[] data = new byte[1024 * 1024];
+    new Random(1).nextBytes(data);
+    CDTPHeader header = new CDTPHeader();
+    header.setTimestamp(System.currentTimeMillis());
+    StringBuilder targetAddress = new StringBuilder();
+    for (int i = 0; i < 200; i++) {
+      targetAddress.append("地址");
+    }
+    header.setTargetAddress(targetAddress.toString());
+    assertUnsignBytesMatchUnsignData(packet(header, data));
+  }
+
+  private static void assertUnsignBytesMatchUnsignData(CDTPPacket packet) {
+    ByteBuffer unsignBytes = PacketUtil.getUnsignBytes(packet);
+    byte[] actual = new byte[unsignBytes.remaining()];
+    unsignBytes.get(actual);
+
+    assertThat(actual).isEqualTo(PacketUtil.getUnsignData(packet).getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static CDTPPacket packet(CDTPHeader header, byte[] data) {
+    CDTPPacket packet = new CDTPPacket();
+    packet.setCommandSpace((short) 1);
+    packet.setCommand((short) 1);
+    packet.setVersion((short) 1);
+    packet.setHeader(header);
+    packet.setData(data);
+    return packet;
+  }
+}
@@ -0,0 +1,85 @@
+package com.syswin.temail.ps.common.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import javax.xml.bind.DatatypeConverter;
+import org.junit.Test;
+
+public class HexUtilTest {
+
+  private final byte[] bytes = new byte[256];
+
+  {
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) i;
+    }
+  }
+
+  @Test
+  public void encodesAllByteValuesInLowerCase() {
+    String hex = HexUtil.encodeHex(bytes);
+
+    assertThat(hex).isEqualTo(DatatypeConverter.printHexBinary(bytes).toLowerCase());
+    assertThat(HexUtil.encodeHex(new byte[0])).isEmpty();
+  }
+
+  @Test
+  public void decodesBothCases() {
+    String hex = HexUtil.encodeHex(bytes);
+
+    assertThat(HexUtil.decodeHex(hex)).isEqualTo(bytes);
+    assertThat(HexUtil.decodeHex(hex.toUpperCase())).isEqualTo(bytes);
+    assertThat(HexUtil.decodeHex("0aF0")).containsExactly(0x0a, 0xf0);
+  }
+
+  @Test
+  public void encodesAndDecodesIntoCallerBuffers() {
+    byte[] data = new byte[100];
+    new Random(7).nextBytes(data);
+    String expected = HexUtil.encodeHex(data);
+
+    char[] chars = new char[210];
+    assertThat(HexUtil.encodeHex(data, 10, 50, chars, 5)).isEqualTo(100);
+    assertThat(new String(chars, 5, 100)).isEqualTo(expected.substring(20, 120));
+
+    byte[] ascii = new byte[200];
+    HexUtil.encodeHex(data, 0, data.length, ascii, 0);
+    assertThat(new String(ascii, StandardCharsets.US_ASCII)).isEqualTo(expected);
+
+    byte[] decoded = new byte[100];
+    assertThat(HexUtil.decodeHex(ascii, 0, ascii.length, decoded, 0)).isEqualTo(100);
+    assertThat(decoded).isEqualTo(data);
+    HexUtil.decodeHex(ascii, 0, ascii.length, ascii, 0);
+    assertThat(ByteBuffer.wrap(ascii, 0, 100)).isEqualTo(ByteBuffer.wrap(data));
+
+    decoded = new byte[50];
+    HexUtil.decodeHex(expected, 20, 100, decoded, 0);
+    assertThat(ByteBuffer.wrap(decoded)).isEqualTo(ByteBuffer.wrap(data, 10, 50));
+  }
+
+  @Test
+  public void encodesAndDecodesByteBuffers() {
+    ByteBuffer hex = ByteBuffer.allocateDirect(bytes.length * 2);
+    assertThat(HexUtil.encodeHex(ByteBuffer.wrap(bytes), hex)).isEqualTo(512);
+    hex.flip();
+
+    ByteBuffer decoded = ByteBuffer.allocate(bytes.length);
+    assertThat(HexUtil.decodeHex(hex, decoded)).isEqualTo(256);
+    assertThat(hex.hasRemaining()).isFalse();
+    assertThat(decoded.array()).isEqualTo(bytes);
+  }
+
+  @Test
+  public void rejectsInvalidHex() {
+    assertThatThrownBy(() -> HexUtil.decodeHex("abc"))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> HexUtil.decodeHex("0g"))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> HexUtil.decodeHex("0٠"))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+}
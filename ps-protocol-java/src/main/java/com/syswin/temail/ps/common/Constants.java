@@ -27,6 +27,10 @@ package com.syswin.temail.ps.common;
 public class Constants {
 
   public static final short CDTP_VERSION = 1;
+  /**
+   * 头部使用连接级字典编码的协议版本，见{@link com.syswin.temail.ps.common.entity.CDTPHeaderDictionary}
+   */
+  public static final short CDTP_VERSION_HEADER_DICTIONARY = 2;
   public static final int LENGTH_FIELD_LENGTH = 4;
 
 }
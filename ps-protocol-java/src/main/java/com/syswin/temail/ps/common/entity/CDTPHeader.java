@@ -24,14 +24,37 @@
 
 package com.syswin.temail.ps.common.entity;
 
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
 import com.syswin.temail.ps.common.entity.CDTPProtoBuf.CDTPHeader.Builder;
-import lombok.AllArgsConstructor;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 
+/**
+ * CDTP数据包头部。
+ * <p>
+ * 通过{@link #parseFrom(byte[])}从网络字节构造时只扫描一次各字段的位置，字符串字段在第一次读取时才解码；
+ * 未修改过的头部重新编码时直接复制原始字节。延迟解码的字段在读取之前为null，头部交给直接读取字段的代码
+ * （如Gson、BeanUtils等基于反射的工具）之前需要调用{@link #materialize()}，解码器和{@link #clone()}已经调用。
+ * 与普通JavaBean一样，不保证线程安全
+ */
 @Data
-@AllArgsConstructor
+@ToString(exclude = {"wire", "spans", "decodedFields", "modified", "encoded"})
+@EqualsAndHashCode(exclude = {"wire", "spans", "decodedFields", "modified", "encoded"})
 public final class CDTPHeader implements Cloneable {
 
+  private static final int MAX_FIELD_NUMBER = 14;
+  private static final int WIRETYPE_VARINT = 0;
+  private static final int WIRETYPE_FIXED64 = 1;
+  private static final int WIRETYPE_LENGTH_DELIMITED = 2;
+  private static final int WIRETYPE_FIXED32 = 5;
+
   private String deviceId;
   private int signatureAlgorithm;
   private String signature;
@@ -46,10 +69,60 @@ public final class CDTPHeader implements Cloneable {
   private String topic;
   private String extraData;
   private String targetAddress;
+  private int compressionMethod;
+
+  // 原始protobuf字节，及其中各字符串字段的[偏移, 长度]，按字段编号索引
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  private transient byte[] wire;
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  private transient int[] spans;
+  // 已解码的字符串字段，按字段编号置位
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  private transient int decodedFields;
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  private transient boolean modified;
+  // 修改后缓存的protobuf头部，用于编码
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  private transient CDTPProtoBuf.CDTPHeader encoded;
 
   public CDTPHeader() {
   }
 
+  public CDTPHeader(String deviceId,
+      int signatureAlgorithm,
+      String signature,
+      int dataEncryptionMethod,
+      long timestamp,
+      String packetId,
+      String sender,
+      String senderPK,
+      String receiver,
+      String receiverPK,
+      String at,
+      String topic,
+      String extraData,
+      String targetAddress) {
+    this.deviceId = deviceId;
+    this.signatureAlgorithm = signatureAlgorithm;
+    this.signature = signature;
+    this.dataEncryptionMethod = dataEncryptionMethod;
+    this.timestamp = timestamp;
+    this.packetId = packetId;
+    this.sender = sender;
+    this.senderPK = senderPK;
+    this.receiver = receiver;
+    this.receiverPK = receiverPK;
+    this.at = at;
+    this.topic = topic;
+    this.extraData = extraData;
+    this.targetAddress = targetAddress;
+  }
+
   public CDTPHeader(CDTPProtoBuf.CDTPHeader cdtpHeader) {
     this.setDeviceId(nullable(cdtpHeader.getDeviceId()));
     this.setSignatureAlgorithm(cdtpHeader.getSignatureAlgorithm());
@@ -65,14 +138,50 @@ public final class CDTPHeader implements Cloneable {
     this.setTopic(nullable(cdtpHeader.getTopic()));
     this.setExtraData(nullable(cdtpHeader.getExtraData()));
     this.setTargetAddress(nullable(cdtpHeader.getTargetAddress()));
+    this.setCompressionMethod(cdtpHeader.getCompressionMethod());
+  }
+
+  /**
+   * 从protobuf编码的字节构造头部，字符串字段延迟解码
+   *
+   * @param wire 头部的protobuf编码，由返回的头部持有，调用方不能再修改
+   * @throws InvalidProtocolBufferException 编码不合法
+   */
+  public static CDTPHeader parseFrom(byte[] wire) throws InvalidProtocolBufferException {
+    CDTPHeader header = new CDTPHeader();
+    header.scan(wire);
+    return header;
   }
 
   private static String nullable(String value) {
     return value.isEmpty() ? null : value;
   }
 
+  /**
+   * 解码所有尚未解码的字符串字段，不影响未修改头部的原始字节复制
+   *
+   * @return 当前头部
+   */
+  public CDTPHeader materialize() {
+    if (wire != null) {
+      getDeviceId();
+      getSignature();
+      getPacketId();
+      getSender();
+      getSenderPK();
+      getReceiver();
+      getReceiverPK();
+      getAt();
+      getTopic();
+      getExtraData();
+      getTargetAddress();
+    }
+    return this;
+  }
+
   @Override
   public CDTPHeader clone() {
+    materialize();
     try {
       return (CDTPHeader) super.clone();
     } catch (CloneNotSupportedException e) {
@@ -80,44 +189,363 @@ public final class CDTPHeader implements Cloneable {
     }
   }
 
+  public String getDeviceId() {
+    if (wire != null && (decodedFields & (1 << 1)) == 0) {
+      deviceId = decode(1);
+    }
+    return deviceId;
+  }
+
+  public void setDeviceId(String deviceId) {
+    this.deviceId = deviceId;
+    decodedFields |= 1 << 1;
+    modified();
+  }
+
+  public void setSignatureAlgorithm(int signatureAlgorithm) {
+    this.signatureAlgorithm = signatureAlgorithm;
+    modified();
+  }
+
+  public String getSignature() {
+    if (wire != null && (decodedFields & (1 << 3)) == 0) {
+      signature = decode(3);
+    }
+    return signature;
+  }
+
+  public void setSignature(String signature) {
+    this.signature = signature;
+    decodedFields |= 1 << 3;
+    modified();
+  }
+
+  public void setDataEncryptionMethod(int dataEncryptionMethod) {
+    this.dataEncryptionMethod = dataEncryptionMethod;
+    modified();
+  }
+
+  public void setTimestamp(long timestamp) {
+    this.timestamp = timestamp;
+    modified();
+  }
+
+  public String getPacketId() {
+    if (wire != null && (decodedFields & (1 << 6)) == 0) {
+      packetId = decode(6);
+    }
+    return packetId;
+  }
+
+  public void setPacketId(String packetId) {
+    this.packetId = packetId;
+    decodedFields |= 1 << 6;
+    modified();
+  }
+
+  public String getSender() {
+    if (wire != null && (decodedFields & (1 << 7)) == 0) {
+      sender = decode(7);
+    }
+    return sender;
+  }
+
+  public void setSender(String sender) {
+    this.sender = sender;
+    decodedFields |= 1 << 7;
+    modified();
+  }
+
+  public String getSenderPK() {
+    if (wire != null && (decodedFields & (1 << 8)) == 0) {
+      senderPK = decode(8);
+    }
+    return senderPK;
+  }
+
+  public void setSenderPK(String senderPK) {
+    this.senderPK = senderPK;
+    decodedFields |= 1 << 8;
+    modified();
+  }
+
+  public String getReceiver() {
+    if (wire != null && (decodedFields & (1 << 9)) == 0) {
+      receiver = decode(9);
+    }
+    return receiver;
+  }
+
+  public void setReceiver(String receiver) {
+    this.receiver = receiver;
+    decodedFields |= 1 << 9;
+    modified();
+  }
+
+  public String getReceiverPK() {
+    if (wire != null && (decodedFields & (1 << 10)) == 0) {
+      receiverPK = decode(10);
+    }
+    return receiverPK;
+  }
+
+  public void setReceiverPK(String receiverPK) {
+    this.receiverPK = receiverPK;
+    decodedFields |= 1 << 10;
+    modified();
+  }
+
+  public String getAt() {
+    if (wire != null && (decodedFields & (1 << 11)) == 0) {
+      at = decode(11);
+    }
+    return at;
+  }
+
+  public void setAt(String at) {
+    this.at = at;
+    decodedFields |= 1 << 11;
+    modified();
+  }
+
+  public String getTopic() {
+    if (wire != null && (decodedFields & (1 << 12)) == 0) {
+      topic = decode(12);
+    }
+    return topic;
+  }
+
+  public void setTopic(String topic) {
+    this.topic = topic;
+    decodedFields |= 1 << 12;
+    modified();
+  }
+
+  public String getExtraData() {
+    if (wire != null && (decodedFields & (1 << 13)) == 0) {
+      extraData = decode(13);
+    }
+    return extraData;
+  }
+
+  public void setExtraData(String extraData) {
+    this.extraData = extraData;
+    decodedFields |= 1 << 13;
+    modified();
+  }
+
+  public String getTargetAddress() {
+    if (wire != null && (decodedFields & (1 << 14)) == 0) {
+      targetAddress = decode(14);
+    }
+    return targetAddress;
+  }
+
+  public void setTargetAddress(String targetAddress) {
+    this.targetAddress = targetAddress;
+    decodedFields |= 1 << 14;
+    modified();
+  }
+
+  public void setCompressionMethod(int compressionMethod) {
+    this.compressionMethod = compressionMethod;
+    modified();
+  }
+
   public CDTPProtoBuf.CDTPHeader toProtobufHeader() {
     Builder builder = CDTPProtoBuf.CDTPHeader.newBuilder();
+    String deviceId = getDeviceId();
     if (deviceId != null) {
-      builder.setDeviceId(getDeviceId());
+      builder.setDeviceId(deviceId);
     }
     builder.setSignatureAlgorithm(getSignatureAlgorithm());
+    String signature = getSignature();
     if (signature != null) {
-      builder.setSignature(getSignature());
+      builder.setSignature(signature);
     }
     builder.setDataEncryptionMethod(getDataEncryptionMethod());
     builder.setTimestamp(getTimestamp());
+    String packetId = getPacketId();
     if (packetId != null) {
-      builder.setPacketId(getPacketId());
+      builder.setPacketId(packetId);
     }
+    String sender = getSender();
     if (sender != null) {
-      builder.setSender(getSender());
+      builder.setSender(sender);
     }
+    String senderPK = getSenderPK();
     if (senderPK != null) {
-      builder.setSenderPK(getSenderPK());
+      builder.setSenderPK(senderPK);
     }
+    String receiver = getReceiver();
     if (receiver != null) {
-      builder.setReceiver(getReceiver());
+      builder.setReceiver(receiver);
     }
+    String receiverPK = getReceiverPK();
     if (receiverPK != null) {
-      builder.setReceiverPK(getReceiverPK());
+      builder.setReceiverPK(receiverPK);
     }
+    String at = getAt();
     if (at != null) {
-      builder.setAt(getAt());
+      builder.setAt(at);
     }
+    String topic = getTopic();
     if (topic != null) {
-      builder.setTopic(getTopic());
+      builder.setTopic(topic);
     }
+    String extraData = getExtraData();
     if (extraData != null) {
-      builder.setExtraData(getExtraData());
+      builder.setExtraData(extraData);
     }
+    String targetAddress = getTargetAddress();
     if (targetAddress != null) {
-      builder.setTargetAddress(getTargetAddress());
+      builder.setTargetAddress(targetAddress);
     }
+    builder.setCompressionMethod(getCompressionMethod());
     return builder.build();
   }
+
+  /**
+   * @return 头部的protobuf编码，未修改过的头部直接复制原始字节
+   */
+  public byte[] toByteArray() {
+    return isPristine() ? wire.clone() : encoded().toByteArray();
+  }
+
+  /**
+   * @return 头部protobuf编码的字节数
+   */
+  public int serializedSize() {
+    return isPristine() ? wire.length : encoded().getSerializedSize();
+  }
+
+  /**
+   * 将头部的protobuf编码写入output，未修改过的头部直接写入原始字节
+   */
+  public void writeTo(CodedOutputStream output) throws IOException {
+    if (isPristine()) {
+      output.writeRawBytes(wire);
+    } else {
+      encoded().writeTo(output);
+    }
+  }
+
+  private boolean isPristine() {
+    return wire != null && !modified;
+  }
+
+  private CDTPProtoBuf.CDTPHeader encoded() {
+    if (encoded == null) {
+      encoded = toProtobufHeader();
+    }
+    return encoded;
+  }
+
+  private void modified() {
+    modified = true;
+    encoded = null;
+  }
+
+  private String decode(int fieldNumber) {
+    decodedFields |= 1 << fieldNumber;
+    int length = spans[fieldNumber * 2 + 1];
+    return length == 0 ? null : new String(wire, spans[fieldNumber * 2], length, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * 扫描各字段的位置，数值字段直接解码。与protobuf一致，重复出现的字段以最后一次为准，未知字段跳过
+   */
+  private void scan(byte[] bytes) throws InvalidProtocolBufferException {
+    int[] fieldSpans = new int[(MAX_FIELD_NUMBER + 1) * 2];
+    int position = 0;
+    while (position < bytes.length) {
+      long tag = readVarint(bytes, position);
+      position = varintEnd(bytes, position);
+      int fieldNumber = (int) (tag >>> 3);
+      int wireType = (int) (tag & 7);
+      if (fieldNumber == 0) {
+        throw new InvalidProtocolBufferException("Protocol message contained an invalid tag (zero).");
+      }
+
+      switch (wireType) {
+        case WIRETYPE_VARINT:
+          long value = readVarint(bytes, position);
+          position = varintEnd(bytes, position);
+          if (fieldNumber == 2) {
+            signatureAlgorithm = (int) value;
+          } else if (fieldNumber == 4) {
+            dataEncryptionMethod = (int) value;
+          } else if (fieldNumber == 15) {
+            compressionMethod = (int) value;
+          }
+          break;
+        case WIRETYPE_FIXED64:
+          checkAvailable(bytes, position, 8);
+          if (fieldNumber == 5) {
+            timestamp = readFixed64(bytes, position);
+          }
+          position += 8;
+          break;
+        case WIRETYPE_LENGTH_DELIMITED:
+          int length = (int) readVarint(bytes, position);
+          position = varintEnd(bytes, position);
+          if (length < 0) {
+            throw new InvalidProtocolBufferException("CodedInputStream encountered an embedded string or message "
+                + "which claimed to have negative size.");
+          }
+          checkAvailable(bytes, position, length);
+          if (fieldNumber <= MAX_FIELD_NUMBER) {
+            fieldSpans[fieldNumber * 2] = position;
+            fieldSpans[fieldNumber * 2 + 1] = length;
+          }
+          position += length;
+          break;
+        case WIRETYPE_FIXED32:
+          checkAvailable(bytes, position, 4);
+          position += 4;
+          break;
+        default:
+          throw new InvalidProtocolBufferException("Protocol message tag had invalid wire type.");
+      }
+    }
+
+    this.wire = bytes;
+    this.spans = fieldSpans;
+  }
+
+  private static long readVarint(byte[] bytes, int position) throws InvalidProtocolBufferException {
+    long result = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      checkAvailable(bytes, position, 1);
+      byte b = bytes[position++];
+      result |= (long) (b & 0x7f) << shift;
+      if (b >= 0) {
+        return result;
+      }
+    }
+    throw new InvalidProtocolBufferException("CodedInputStream encountered a malformed varint.");
+  }
+
+  private static int varintEnd(byte[] bytes, int position) {
+    while (bytes[position] < 0) {
+      position++;
+    }
+    return position + 1;
+  }
+
+  private static long readFixed64(byte[] bytes, int position) {
+    long result = 0;
+    for (int i = 7; i >= 0; i--) {
+      result = (result << 8) | (bytes[position + i] & 0xffL);
+    }
+    return result;
+  }
+
+  private static void checkAvailable(byte[] bytes, int position, int length) throws InvalidProtocolBufferException {
+    if (length > bytes.length - position) {
+      throw new InvalidProtocolBufferException("While parsing a protocol message, the input ended unexpectedly "
+          + "in the middle of a field.  This could mean either that the input has been truncated or that an "
+          + "embedded message misreported its own length.");
+    }
+  }
 }
@@ -0,0 +1,164 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.syswin.temail.ps.common.entity;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import java.util.Arrays;
+
+/**
+ * 连接级的头部字段字典，用于{@link com.syswin.temail.ps.common.Constants#CDTP_VERSION_HEADER_DICTIONARY}版本的数据包。
+ * <p>
+ * 同一连接上deviceId、sender、senderPK、receiver、receiverPK几乎每个包都相同。字典为这几个字段各保存一个槽位，
+ * 记录该方向上一次明文发送的值；与槽位相同的字段不再发送，只在引用掩码中置位。编码后的头部为：
+ * <pre>
+ *   1字节标记（最高位为1，低5位为引用掩码） + 去掉被引用字段后的protobuf头部
+ * </pre>
+ * 字段编号不超过15的protobuf头部首字节最高位总是0，因此字典编码的头部与普通头部可以直接区分。
+ * <p>
+ * 协商方式：客户端以该版本号发送LOGIN，LOGIN本身使用普通头部；支持的服务端以字典编码的头部应答LOGIN，
+ * 之后双方都可以发送字典编码的包；不支持的服务端应答普通头部，客户端继续使用普通头部。
+ * <p>
+ * 连接的每个方向各使用一个字典，收发双方按包的顺序更新，只有字典编码的头部读写字典。实例不是线程安全的。
+ */
+public final class CDTPHeaderDictionary {
+
+  private static final int DEVICE_ID = 0;
+  private static final int SENDER = 1;
+  private static final int SENDER_PK = 2;
+  private static final int RECEIVER = 3;
+  private static final int RECEIVER_PK = 4;
+  private static final int SLOT_COUNT = 5;
+  private static final int ALL_SLOTS = (1 << SLOT_COUNT) - 1;
+  private static final int MARKER = 0x80;
+
+  private final String[] values = new String[SLOT_COUNT];
+
+  /**
+   * 按字典编码头部，并用其中明文发送的字段更新字典
+   *
+   * @param header 待编码的头部，不会被修改
+   * @return 标记字节加protobuf头部
+   */
+  public byte[] encode(CDTPHeader header) {
+    CDTPHeader literal = header;
+    int mask = 0;
+    for (int slot = 0; slot < SLOT_COUNT; slot++) {
+      String value = get(header, slot);
+      if (value == null) {
+        continue;
+      }
+      if (value.equals(values[slot])) {
+        if (literal == header) {
+          literal = header.clone();
+        }
+        mask |= 1 << slot;
+        set(literal, slot, null);
+      } else {
+        values[slot] = value;
+      }
+    }
+
+    byte[] proto = literal.toByteArray();
+    byte[] encoded = new byte[proto.length + 1];
+    encoded[0] = (byte) (MARKER | mask);
+    System.arraycopy(proto, 0, encoded, 1, proto.length);
+    return encoded;
+  }
+
+  /**
+   * @param header 头部字节
+   * @return 是否为{@link #encode(CDTPHeader)}输出的字典编码头部
+   */
+  public static boolean isEncoded(byte[] header) {
+    return header.length > 0 && (header[0] & MARKER) != 0;
+  }
+
+  /**
+   * 解码头部。字典编码的头部用字典补全被引用的字段，并用明文字段更新字典；普通头部直接解析，不读写字典
+   *
+   * @param encoded 头部字节
+   * @throws InvalidProtocolBufferException 编码不合法，或引用了尚未定义的字段
+   */
+  public CDTPHeader decode(byte[] encoded) throws InvalidProtocolBufferException {
+    if (!isEncoded(encoded)) {
+      return CDTPHeader.parseFrom(encoded);
+    }
+    int mask = encoded[0] & ~MARKER & 0xff;
+    if ((mask & ~ALL_SLOTS) != 0) {
+      throw new InvalidProtocolBufferException("Invalid header reference mask: " + mask);
+    }
+
+    CDTPHeader header = CDTPHeader.parseFrom(Arrays.copyOfRange(encoded, 1, encoded.length));
+    for (int slot = 0; slot < SLOT_COUNT; slot++) {
+      if ((mask & (1 << slot)) != 0) {
+        if (values[slot] == null) {
+          throw new InvalidProtocolBufferException("Header field referenced before being defined: " + slot);
+        }
+        set(header, slot, values[slot]);
+      } else {
+        String value = get(header, slot);
+        if (value != null) {
+          values[slot] = value;
+        }
+      }
+    }
+    return header;
+  }
+
+  private static String get(CDTPHeader header, int slot) {
+    switch (slot) {
+      case DEVICE_ID:
+        return header.getDeviceId();
+      case SENDER:
+        return header.getSender();
+      case SENDER_PK:
+        return header.getSenderPK();
+      case RECEIVER:
+        return header.getReceiver();
+      default:
+        return header.getReceiverPK();
+    }
+  }
+
+  private static void set(CDTPHeader header, int slot, String value) {
+    switch (slot) {
+      case DEVICE_ID:
+        header.setDeviceId(value);
+        break;
+      case SENDER:
+        header.setSender(value);
+        break;
+      case SENDER_PK:
+        header.setSenderPK(value);
+        break;
+      case RECEIVER:
+        header.setReceiver(value);
+        break;
+      default:
+        header.setReceiverPK(value);
+    }
+  }
+}
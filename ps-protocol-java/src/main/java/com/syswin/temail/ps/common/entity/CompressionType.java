@@ -0,0 +1,32 @@
+package com.syswin.temail.ps.common.entity;
+
+import com.syswin.temail.ps.common.exception.PacketException;
+import lombok.Getter;
+
+/**
+ * 包体压缩方式，对应头部的compressionMethod字段
+ */
+@Getter
+public enum CompressionType {
+    NONE(0),
+    DEFLATE(1),
+    ;
+    public static final int NONE_CODE = NONE.code;
+    public static final int DEFLATE_CODE = DEFLATE.code;
+
+    private final int code;
+
+
+    CompressionType(int code) {
+        this.code = code;
+    }
+
+    public static CompressionType valueOf(int code) {
+        for (CompressionType value : values()) {
+            if (value.code == code) {
+                return value;
+            }
+        }
+        throw new PacketException("不支持的压缩方式：" + code);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.syswin.temail.ps.common.entity;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.syswin.temail.ps.common.PacketMaker;
+import org.junit.Test;
+
+public class CDTPHeaderDictionaryTest {
+
+  private final CDTPHeaderDictionary sending = new CDTPHeaderDictionary();
+  private final CDTPHeaderDictionary receiving = new CDTPHeaderDictionary();
+
+  @Test
+  public void sendsRepeatedFieldsAsReferences() throws InvalidProtocolBufferException {
+    CDTPHeader first = header("hello");
+    CDTPHeader second = header("world");
+
+    byte[] firstBytes = sending.encode(first);
+    byte[] secondBytes = sending.encode(second);
+
+    assertThat(CDTPHeaderDictionary.isEncoded(secondBytes)).isTrue();
+    assertThat(secondBytes.length).isLessThan(firstBytes.length);
+    assertThat(receiving.decode(firstBytes)).isEqualTo(first);
+    assertThat(receiving.decode(secondBytes)).isEqualTo(second);
+  }
+
+  @Test
+  public void sendsChangedFieldsLiterally() throws InvalidProtocolBufferException {
+    CDTPHeader first = header("hello");
+    CDTPHeader second = header("world");
+    second.setReceiver("mike@t.email");
+
+    receiving.decode(sending.encode(first));
+    CDTPHeader decoded = receiving.decode(sending.encode(second));
+
+    assertThat(decoded).isEqualTo(second);
+  }
+
+  @Test
+  public void decodesPlainHeaderWithoutDictionary() throws InvalidProtocolBufferException {
+    CDTPHeader header = header("hello");
+    byte[] plain = header.toByteArray();
+
+    assertThat(CDTPHeaderDictionary.isEncoded(plain)).isFalse();
+    assertThat(receiving.decode(plain)).isEqualTo(header);
+  }
+
+  @Test
+  public void blowsUpIfReferencedFieldIsUndefined() {
+    sending.encode(header("hello"));
+    byte[] secondBytes = sending.encode(header("world"));
+
+    try {
+      receiving.decode(secondBytes);
+      fail("InvalidProtocolBufferException expected");
+    } catch (InvalidProtocolBufferException e) {
+      assertThat(e).hasMessageContaining("referenced before being defined");
+    }
+  }
+
+  private CDTPHeader header(String content) {
+    return PacketMaker.privateMsgPacket("sean@t.email", "jack@t.email", content).getHeader();
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 Syswin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.syswin.temail.ps.common.entity;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.gson.Gson;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.syswin.temail.ps.common.PacketMaker;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class CDTPHeaderTest {
+
+  private final CDTPHeader header = PacketMaker.privateMsgPacket("sean@t.email", "jack@t.email", "hello")
+      .getHeader();
+
+  @Test
+  public void decodesFieldsLazilyFromWireBytes() throws InvalidProtocolBufferException {
+    header.setSignatureAlgorithm(-1);
+    CDTPHeader parsed = CDTPHeader.parseFrom(header.toProtobufHeader().toByteArray());
+
+    assertThat(parsed).isEqualTo(header);
+    assertThat(parsed).isEqualTo(new CDTPHeader(header.toProtobufHeader()));
+    assertThat(parsed.getAt()).isNull();
+  }
+
+  @Test
+  public void serializesMaterializedHeaderLikeEagerOne() throws InvalidProtocolBufferException {
+    byte[] wire = header.toProtobufHeader().toByteArray();
+    Gson gson = new Gson();
+
+    CDTPHeader parsed = CDTPHeader.parseFrom(wire).materialize();
+
+    assertThat(gson.toJson(parsed)).isEqualTo(gson.toJson(new CDTPHeader(header.toProtobufHeader())));
+    assertThat(gson.toJson(CDTPHeader.parseFrom(wire).clone())).isEqualTo(gson.toJson(parsed));
+    assertThat(parsed.toByteArray()).isEqualTo(wire);
+  }
+
+  @Test
+  public void copiesWireBytesOfUntouchedHeader() throws InvalidProtocolBufferException {
+    byte[] wire = header.toProtobufHeader().toByteArray();
+    CDTPHeader parsed = CDTPHeader.parseFrom(wire);
+    parsed.getSender();
+
+    assertThat(parsed.toByteArray()).isEqualTo(wire).isNotSameAs(wire);
+    assertThat(parsed.serializedSize()).isEqualTo(wire.length);
+  }
+
+  @Test
+  public void reencodesModifiedHeader() throws InvalidProtocolBufferException {
+    CDTPHeader parsed = CDTPHeader.parseFrom(header.toProtobufHeader().toByteArray());
+
+    parsed.setSignature(null);
+    parsed.setSignatureAlgorithm(0);
+    header.setSignature(null);
+    header.setSignatureAlgorithm(0);
+
+    assertThat(CDTPProtoBuf.CDTPHeader.parseFrom(parsed.toByteArray())).isEqualTo(header.toProtobufHeader());
+  }
+
+  @Test
+  public void keepsLastOccurrenceOfRepeatedField() throws InvalidProtocolBufferException {
+    byte[] first = CDTPProtoBuf.CDTPHeader.newBuilder().setSender("a@t.email").build().toByteArray();
+    byte[] second = CDTPProtoBuf.CDTPHeader.newBuilder().setSender("b@t.email").setTimestamp(123L).build()
+        .toByteArray();
+    byte[] wire = Arrays.copyOf(first, first.length + second.length);
+    System.arraycopy(second, 0, wire, first.length, second.length);
+
+    CDTPHeader parsed = CDTPHeader.parseFrom(wire);
+
+    assertThat(parsed.getSender()).isEqualTo("b@t.email");
+    assertThat(parsed.getTimestamp()).isEqualTo(123L);
+  }
+
+  @Test(expected = InvalidProtocolBufferException.class)
+  public void blowsUpIfTruncated() throws InvalidProtocolBufferException {
+    byte[] wire = header.toProtobufHeader().toByteArray();
+
+    CDTPHeader.parseFrom(Arrays.copyOf(wire, wire.length - 1));
+  }
+}